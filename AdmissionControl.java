@@ -0,0 +1,199 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Admission control for the IGameCallback entry points: a token bucket per player, a limit on the
+ * calls in progress of each player and a global limit on calls in progress. Over the limits a call
+ * is rejected right away with a retry-after hint instead of queuing up behind the flood, so well
+ * behaved players keep their latency. The per-player limit keeps one player with many threads from
+ * taking the global permits the others need.
+ * <p>
+ * Configured with system properties:
+ * game.admission.rate (requests per second per player; default 50),
+ * game.admission.burst (bucket size; default 20),
+ * game.admission.concurrency (calls in progress on the server; default 32),
+ * game.admission.perPlayer (calls in progress of one player; default 4).
+ */
+public class AdmissionControl {
+
+    private static final int SWEEP_MIN = 1024;
+
+    private final double mRatePerNano;
+    private final int mBurst;
+    private final int mConcurrency;
+    private final int mPerPlayer;
+    private final Semaphore mInFlight;
+    private final Map<String, TokenBucket> mBuckets = new ConcurrentHashMap<>();
+    // Idle buckets are swept when a new one would take the map past this size
+    private volatile int mSweepAt = SWEEP_MIN;
+    // System.nanoTime, or the virtual clock of ClusterSimulator
+    private LongSupplier mClock = System::nanoTime;
+
+    private final AtomicLong mAdmitted = new AtomicLong();
+    private final AtomicLong mRejectedRate = new AtomicLong();
+    private final AtomicLong mRejectedConcurrency = new AtomicLong();
+    private final AtomicLong mRejectedPlayerConcurrency = new AtomicLong();
+
+    public AdmissionControl(double ratePerSecond, int burst, int concurrency) {
+        this(ratePerSecond, burst, concurrency, concurrency);
+    }
+
+    public AdmissionControl(double ratePerSecond, int burst, int concurrency, int perPlayer) {
+        mRatePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        mBurst = burst;
+        mConcurrency = concurrency;
+        mPerPlayer = perPlayer;
+        mInFlight = new Semaphore(concurrency);
+    }
+
+    public static AdmissionControl defaults() {
+        return new AdmissionControl(Double.parseDouble(System.getProperty("game.admission.rate", "50")),
+                Integer.getInteger("game.admission.burst", 20),
+                Integer.getInteger("game.admission.concurrency", 32),
+                Integer.getInteger("game.admission.perPlayer", 4));
+    }
+
+    /**
+     * Admit a call, every successful enter must be paired with exit of the same player
+     *
+     * @param playerId caller, null for calls that are not tied to a player
+     * @throws OverloadedException if the player is over its rate or its calls in progress, or the
+     *                             server is full
+     */
+    public void enter(String playerId) throws OverloadedException {
+        TokenBucket bucket = null;
+        if (playerId != null) {
+            bucket = mBuckets.get(playerId);
+            if (bucket == null) {
+                if (mBuckets.size() >= mSweepAt) {
+                    sweep();
+                }
+                // Only the first call of a player pays for the capturing lambda
+                long now = mClock.getAsLong();
+                bucket = mBuckets.computeIfAbsent(playerId, id -> new TokenBucket(mBurst, now));
+            }
+            long waitNanos = bucket.take(mClock.getAsLong(), mRatePerNano, mBurst);
+            if (waitNanos > 0) {
+                mRejectedRate.incrementAndGet();
+                throw new OverloadedException("Rate limited " + playerId, TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
+            }
+            if (!bucket.enter(mPerPlayer)) {
+                mRejectedPlayerConcurrency.incrementAndGet();
+                throw new OverloadedException("Too many calls in progress " + playerId, 1);
+            }
+        }
+        if (!mInFlight.tryAcquire()) {
+            if (bucket != null) {
+                bucket.exit();
+            }
+            mRejectedConcurrency.incrementAndGet();
+            throw new OverloadedException("Server busy", 1);
+        }
+        mAdmitted.incrementAndGet();
+    }
+
+    public void exit(String playerId) {
+        if (playerId != null) {
+            // Gone if the player was forgotten meanwhile, its new bucket starts with nothing in progress
+            TokenBucket bucket = mBuckets.get(playerId);
+            if (bucket != null) {
+                bucket.exit();
+            }
+        }
+        mInFlight.release();
+    }
+
+    public void forget(String playerId) {
+        mBuckets.remove(playerId);
+    }
+
+    /**
+     * Drop the buckets that have been idle long enough to be full again, a new bucket would be the
+     * same. Keeps the map bounded by the active callers, ids that never joined or were never
+     * forgotten included.
+     */
+    private synchronized void sweep() {
+        if (mBuckets.size() < mSweepAt) {
+            return;
+        }
+        long now = mClock.getAsLong();
+        long refillNanos = (long) Math.min(Long.MAX_VALUE, mBurst / mRatePerNano);
+        mBuckets.values().removeIf(bucket -> bucket.idleSince(now, refillNanos));
+        mSweepAt = Math.max(SWEEP_MIN, mBuckets.size() * 2);
+    }
+
+    void setClock(LongSupplier clock) {
+        mClock = clock;
+    }
+
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("admitted", mAdmitted.get());
+        stats.put("rejectedRate", mRejectedRate.get());
+        stats.put("rejectedConcurrency", mRejectedConcurrency.get());
+        stats.put("rejectedPlayerConcurrency", mRejectedPlayerConcurrency.get());
+        stats.put("inFlight", (long) (mConcurrency - mInFlight.availablePermits()));
+        return stats;
+    }
+
+    private static class TokenBucket {
+        private double mTokens;
+        private long mLastRefill;
+        private int mInFlight;
+
+        TokenBucket(int burst, long now) {
+            mTokens = burst;
+            mLastRefill = now;
+        }
+
+        /**
+         * @return 0 if a token was taken, otherwise nanos until the next one
+         */
+        synchronized long take(long now, double ratePerNano, int burst) {
+            mTokens = Math.min(burst, mTokens + (now - mLastRefill) * ratePerNano);
+            mLastRefill = now;
+            if (mTokens >= 1) {
+                mTokens -= 1;
+                return 0;
+            }
+            return (long) ((1 - mTokens) / ratePerNano);
+        }
+
+        synchronized boolean enter(int max) {
+            if (mInFlight >= max) {
+                return false;
+            }
+            mInFlight++;
+            return true;
+        }
+
+        synchronized void exit() {
+            if (mInFlight > 0) {
+                mInFlight--;
+            }
+        }
+
+        synchronized boolean idleSince(long now, long nanos) {
+            return mInFlight == 0 && now - mLastRefill >= nanos;
+        }
+    }
+
+    /**
+     * Thrown to the caller of a rejected call, it should back off for retryAfterMs.
+     * Not a RemoteException on purpose: RMI would wrap that in a ServerException.
+     * Without a stack trace, a flood is answered with many of these and RMI sends the trace along.
+     */
+    public static class OverloadedException extends Exception {
+        public final long retryAfterMs;
+
+        public OverloadedException(String message, long retryAfterMs) {
+            super(message, null, false, false);
+            this.retryAfterMs = retryAfterMs;
+        }
+    }
+}
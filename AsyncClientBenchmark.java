@@ -0,0 +1,68 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * How long the input thread is held per move against a slow server, blocking (the wrapper, as the
+ * input loop used to call the server) against AsyncGameClient (moves chained as Game does). The
+ * server is an in-process primary behind a proxy that delays every call.
+ * <p>
+ * Usage: java AsyncClientBenchmark [server delay ms] [moves]
+ */
+public class AsyncClientBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long delayMs = args.length > 0 ? Long.parseLong(args[0]) : 50;
+        int moves = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        ExecutorService threadPool = Executors.newFixedThreadPool(8);
+        ExecutorService callbacks = Executors.newSingleThreadExecutor();
+        GameState state = new GameState(20, 10);
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, "", "p0");
+        server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        server.joinAll(List.of(new Player("p1")));
+        IGameCallback slow = (IGameCallback) Proxy.newProxyInstance(IGameCallback.class.getClassLoader(),
+                new Class<?>[]{IGameCallback.class}, (proxy, method, methodArgs) -> {
+                    Thread.sleep(delayMs);
+                    try {
+                        return method.invoke(server, methodArgs);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        AsyncGameClient client = new AsyncGameClient(() -> slow, threadPool, callbacks, 60_000);
+
+        System.out.printf("server delay %d ms, %d moves%n", delayMs, moves);
+        System.out.printf("%-10s %14s %14s %14s %12s%n", "client", "input p50 us", "input max us", "all done ms", "applied");
+        long moveId = 0;
+        for (String mode : new String[]{"blocking", "async"}) {
+            long[] held = new long[moves];
+            long before = state.getLastMoveId("p1");
+            long start = System.nanoTime();
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            for (int i = 0; i < moves; i++) {
+                long id = ++moveId;
+                byte opcode = (byte) (1 + i % 4);
+                long t = System.nanoTime();
+                if (mode.equals("blocking")) {
+                    client.moveBlocking("p1", opcode, id);
+                } else {
+                    chain = chain.thenCompose(v -> client.move("p1", opcode, id)).thenAccept(s -> { });
+                }
+                held[i] = System.nanoTime() - t;
+            }
+            chain.join();
+            long total = System.nanoTime() - start;
+            Arrays.sort(held);
+            System.out.printf("%-10s %14.1f %14.1f %14.0f %12d%n", mode, held[moves / 2] / 1e3,
+                    held[moves - 1] / 1e3, total / 1e6, state.getLastMoveId("p1") - before);
+        }
+        threadPool.shutdown();
+        callbacks.shutdown();
+        System.exit(0);
+    }
+}
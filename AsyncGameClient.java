@@ -0,0 +1,132 @@
+import java.rmi.RemoteException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking calls to one game server. Each call runs, lookup of the server included, on the I/O
+ * executor and returns at once with a CompletableFuture. The future fails with a TimeoutException
+ * after the timeout, and its dependent stages run on the callback executor, never on an I/O thread
+ * or the caller's.
+ * <p>
+ * The *Blocking methods are thin wrappers that wait, with the exceptions of the IGameCallback calls.
+ * <p>
+ * Configured with the system property game.async.timeoutMs (default Game.REQUEST_DEADLINE_MS).
+ */
+public class AsyncGameClient {
+
+    public static final long TIMEOUT_MS = Long.getLong("game.async.timeoutMs", Game.REQUEST_DEADLINE_MS);
+
+    /**
+     * One call on a server stub
+     */
+    interface Call<T> {
+        T call(IGameCallback server) throws Exception;
+    }
+
+    private final Supplier<IGameCallback> mServer;
+    private final ExecutorService mIo;
+    private final Executor mCallbacks;
+    private final long mTimeoutMs;
+
+    /**
+     * @param server finds the server stub, called on the I/O executor, null if not found
+     */
+    public AsyncGameClient(Supplier<IGameCallback> server, ExecutorService io, Executor callbacks) {
+        this(server, io, callbacks, TIMEOUT_MS);
+    }
+
+    public AsyncGameClient(Supplier<IGameCallback> server, ExecutorService io, Executor callbacks, long timeoutMs) {
+        mServer = server;
+        mIo = io;
+        mCallbacks = callbacks;
+        mTimeoutMs = timeoutMs;
+    }
+
+    public CompletableFuture<GameState> move(String playerId, byte opcode, long moveId) {
+        return submit(server -> server.Move(playerId, opcode, moveId));
+    }
+
+    public CompletableFuture<GameState> join(Player player) {
+        return submit(server -> server.join(player));
+    }
+
+    public CompletableFuture<Void> quit(String playerId) {
+        return submit(server -> {
+            server.quit(playerId);
+            return null;
+        });
+    }
+
+    public CompletableFuture<GameState> sync() {
+        return submit(IGameCallback::sync);
+    }
+
+    public GameState moveBlocking(String playerId, byte opcode, long moveId)
+            throws RemoteException, AdmissionControl.OverloadedException {
+        return await(move(playerId, opcode, moveId));
+    }
+
+    public GameState joinBlocking(Player player) throws RemoteException, AdmissionControl.OverloadedException {
+        return await(join(player));
+    }
+
+    public void quitBlocking(String playerId) throws RemoteException, AdmissionControl.OverloadedException {
+        await(quit(playerId));
+    }
+
+    public GameState syncBlocking() throws RemoteException, AdmissionControl.OverloadedException {
+        return await(sync());
+    }
+
+    <T> CompletableFuture<T> submit(Call<T> call) {
+        CompletableFuture<T> io = new CompletableFuture<>();
+        try {
+            mIo.execute(() -> {
+                if (io.isDone()) {
+                    // Timed out while queued, don't send it late
+                    return;
+                }
+                try {
+                    IGameCallback server = mServer.get();
+                    if (server == null) {
+                        throw new RemoteException("Server not found");
+                    }
+                    io.complete(call.call(server));
+                } catch (Throwable e) {
+                    io.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            io.completeExceptionally(e);
+        }
+        // The RMI call itself is bounded by the socket read timeout, the future gives up earlier
+        return io.orTimeout(mTimeoutMs, TimeUnit.MILLISECONDS).whenCompleteAsync((result, error) -> { }, mCallbacks);
+    }
+
+    /**
+     * Wait for the future, failing with the exception of the call
+     */
+    static <T> T await(CompletableFuture<T> future) throws RemoteException, AdmissionControl.OverloadedException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RemoteException) {
+                throw (RemoteException) cause;
+            }
+            if (cause instanceof AdmissionControl.OverloadedException) {
+                throw (AdmissionControl.OverloadedException) cause;
+            }
+            if (cause instanceof TimeoutException) {
+                throw new RemoteException("No answer within the timeout", cause);
+            }
+            throw new RemoteException("Call failed", cause);
+        }
+    }
+}
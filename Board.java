@@ -0,0 +1,20 @@
+import java.util.List;
+
+/**
+ * Where a Game draws the game. Kept free of AWT types, headless players and dedicated servers run
+ * without one and never load Swing.
+ */
+public interface Board {
+
+    void show();
+
+    void hide();
+
+    /**
+     * Draw the state, may be called from any thread
+     *
+     * @param predicted where our own in-flight moves will land, null if none are in flight
+     * @param scores    the rows of the score box
+     */
+    void update(GameState state, String playerId, Point predicted, List<String> scores);
+}
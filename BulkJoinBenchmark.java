@@ -0,0 +1,59 @@
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Time to bring many players online over loopback RMI: one join call per player, as the clients
+ * do it, against a single joinAll call.
+ * <p>
+ * Usage: java BulkJoinBenchmark [players] [grid size]
+ */
+public class BulkJoinBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+
+        System.out.printf("%d players on a %dx%d grid%n", players, size, size);
+        // Warmup
+        run(false, 200, size, threadPool);
+        run(true, 200, size, threadPool);
+        System.out.printf("join    %8.1f ms%n", run(false, players, size, threadPool) / 1e6);
+        System.out.printf("joinAll %8.1f ms%n", run(true, players, size, threadPool) / 1e6);
+        threadPool.shutdown();
+        System.exit(0);
+    }
+
+    private static long run(boolean bulk, int players, int size, ExecutorService threadPool) throws Exception {
+        GameState state = new GameState(size, 10);
+        Player primary = new Player("primary");
+        state.addPlayer(primary);
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, "", "primary");
+        // Measure the joins, not the load shedding
+        server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        IGameCallback stub = (IGameCallback) RemoteObject.toStub(server);
+
+        List<Player> joining = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            joining.add(new Player("bot" + i));
+        }
+        long start = System.nanoTime();
+        if (bulk) {
+            stub.joinAll(joining);
+        } else {
+            for (Player player : joining) {
+                stub.join(player);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (state.players.size() != players + 1) {
+            throw new IllegalStateException("Expected " + (players + 1) + " players, got " + state.players.size());
+        }
+        server.stopHeartbeatChecking();
+        return elapsed;
+    }
+}
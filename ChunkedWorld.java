@@ -0,0 +1,159 @@
+import java.util.Arrays;
+
+/**
+ * Sparse cell store of the board: who stands on a cell and whether it holds a treasure. The cells
+ * are grouped in square chunks of CHUNK x CHUNK cells; a chunk is allocated the first time a player
+ * or a treasure lands in it and freed when the last one leaves, so memory follows the number of
+ * entities and not N * N. A chunk is found in constant time through a hash map from its packed
+ * chunk coordinates to its slot in the chunk pool, the cell inside it is a plain array index.
+ * <p>
+ * Configured with the system property game.world.chunkBits (chunks of 2^bits cells a side, default 3).
+ * Not thread safe, GameState guards it.
+ */
+class ChunkedWorld {
+
+    static final int CHUNK_BITS = Integer.getInteger("game.world.chunkBits", 3);
+    static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int MASK = CHUNK - 1;
+
+    private final PlayerTable.LongIntMap mIndex = new PlayerTable.LongIntMap();
+    private Chunk[] mChunks = new Chunk[16];
+    private int[] mFreeSlots = new int[16];
+    private int mFreeCount;
+    private int mHighWater;
+
+    static long chunkOf(int x, int y) {
+        return PlayerTable.cell(x >> CHUNK_BITS, y >> CHUNK_BITS);
+    }
+
+    int ownerOf(int x, int y) {
+        Chunk chunk = find(x, y);
+        return chunk == null ? -1 : chunk.owners[offset(x, y)];
+    }
+
+    boolean isTreasure(int x, int y) {
+        Chunk chunk = find(x, y);
+        return chunk != null && chunk.hasTreasure(offset(x, y));
+    }
+
+    void setOwner(int x, int y, int handle) {
+        Chunk chunk = findOrCreate(x, y);
+        int offset = offset(x, y);
+        if (chunk.owners[offset] < 0) {
+            chunk.count++;
+        }
+        chunk.owners[offset] = handle;
+    }
+
+    /**
+     * Empty the cell if the player is still the one on it
+     */
+    void clearOwner(int x, int y, int handle) {
+        long key = chunkOf(x, y);
+        int slot = mIndex.get(key);
+        if (slot < 0) {
+            return;
+        }
+        Chunk chunk = mChunks[slot];
+        int offset = offset(x, y);
+        if (chunk.owners[offset] == handle) {
+            chunk.owners[offset] = -1;
+            chunk.count--;
+            releaseIfEmpty(key, slot);
+        }
+    }
+
+    /**
+     * @return false if the cell already held a treasure
+     */
+    boolean addTreasure(int x, int y) {
+        Chunk chunk = findOrCreate(x, y);
+        int offset = offset(x, y);
+        if (chunk.hasTreasure(offset)) {
+            return false;
+        }
+        chunk.treasures[offset >>> 6] |= 1L << offset;
+        chunk.count++;
+        return true;
+    }
+
+    /**
+     * @return false if the cell held no treasure
+     */
+    boolean removeTreasure(int x, int y) {
+        long key = chunkOf(x, y);
+        int slot = mIndex.get(key);
+        if (slot < 0) {
+            return false;
+        }
+        Chunk chunk = mChunks[slot];
+        int offset = offset(x, y);
+        if (!chunk.hasTreasure(offset)) {
+            return false;
+        }
+        chunk.treasures[offset >>> 6] &= ~(1L << offset);
+        chunk.count--;
+        releaseIfEmpty(key, slot);
+        return true;
+    }
+
+    /**
+     * Chunks allocated now
+     */
+    int chunkCount() {
+        return mHighWater - mFreeCount;
+    }
+
+    private Chunk find(int x, int y) {
+        int slot = mIndex.get(chunkOf(x, y));
+        return slot < 0 ? null : mChunks[slot];
+    }
+
+    private Chunk findOrCreate(int x, int y) {
+        long key = chunkOf(x, y);
+        int slot = mIndex.get(key);
+        if (slot >= 0) {
+            return mChunks[slot];
+        }
+        slot = mFreeCount > 0 ? mFreeSlots[--mFreeCount] : mHighWater++;
+        if (slot >= mChunks.length) {
+            mChunks = Arrays.copyOf(mChunks, mChunks.length * 2);
+        }
+        Chunk chunk = new Chunk();
+        mChunks[slot] = chunk;
+        mIndex.put(key, slot);
+        return chunk;
+    }
+
+    private void releaseIfEmpty(long key, int slot) {
+        if (mChunks[slot].count > 0) {
+            return;
+        }
+        mChunks[slot] = null;
+        mIndex.remove(key);
+        if (mFreeCount == mFreeSlots.length) {
+            mFreeSlots = Arrays.copyOf(mFreeSlots, mFreeCount * 2);
+        }
+        mFreeSlots[mFreeCount++] = slot;
+    }
+
+    private static int offset(int x, int y) {
+        return ((x & MASK) << CHUNK_BITS) | (y & MASK);
+    }
+
+    private static class Chunk {
+        // Handle of the player on each cell, -1 if none
+        final int[] owners = new int[CHUNK * CHUNK];
+        final long[] treasures = new long[(CHUNK * CHUNK + 63) >>> 6];
+        // Players and treasures in the chunk, freed at 0
+        int count;
+
+        Chunk() {
+            Arrays.fill(owners, -1);
+        }
+
+        boolean hasTreasure(int offset) {
+            return (treasures[offset >>> 6] & (1L << offset)) != 0;
+        }
+    }
+}
@@ -0,0 +1,917 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.rmi.ConnectException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Deterministic single JVM simulation of a whole cluster: the tracker, the primary/backup
+ * candidates and the players, talking through an in-memory transport on a virtual clock.
+ * <p>
+ * The servers are the real Game.RemoteServerImpl and the tracker is the real Tracker. Every remote
+ * call goes through the transport, which copies the arguments and the results the way RMI does and
+ * fails the call like RMI when the callee crashed, a partition cuts it off or the message is lost.
+ * The heartbeat rounds, the tasks the servers give their pool, their clocks and their random draws
+ * all run on the virtual clock, so the same seed reproduces the same run.
+ * <p>
+ * The players are modelled on Game's client: one move at a time to the primary, hedged to the
+ * backup after the p99 of the primary's latency, sent again with the same move id after a backoff
+ * and a tracker lookup when no server answered, after the retry-after hint when one rejected it.
+ * A node asked to become a server takes over its Standby copy or pulls the state with
+ * StateTransfer, then starts a RemoteServerImpl, like Game's client listener.
+ * <p>
+ * Not modelled: the calls between servers and to the tracker take no virtual time, and a crashed or
+ * cut off callee fails them at once instead of after the RMI timeouts. The tracker never fails.
+ * UDP heartbeats, the tick loop, spectators, dedicated servers and RoomHost are off.
+ * <p>
+ * Usage: java ClusterSimulator [key=value ...], e.g. seed=7 hours=2 nodes=30 loss=0.01
+ */
+public class ClusterSimulator {
+
+    // The period of the heartbeat rounds in RemoteServerImpl.heartbeatChecking
+    private static final long HEARTBEAT_MS = 100;
+    // Names resolved by the transport, Naming rejects the scheme so the servers' unbinds are no-ops
+    private static final String PREFIX_URL = "sim://cluster/";
+    private static final String ROOM = Tracker.DEFAULT_ROOM;
+
+    // Config
+    private final long mSeed;
+    private final int mNodes;
+    private final int mN;
+    private final int mK;
+    private final long mDurationMs;
+    private final double mMovesPerSec;
+    private final long mLatencyMs;
+    private final long mJitterMs;
+    private final double mLossRate;
+    private final long mCrashEveryMs;
+    private final long mRejoinAfterMs;
+    private final long mPartitionEveryMs;
+    private final long mPartitionForMs;
+    private final long mRequestTimeoutMs;
+
+    // Virtual clock
+    private final PriorityQueue<Event> mEvents = new PriorityQueue<>();
+    private final Random mRandom;
+    private long mNow;
+    private long mEventSeq;
+    // The node whose code runs now, null for the simulator itself
+    private SimNode mCaller;
+
+    // Cluster
+    private final Map<String, SimNode> mNodesById = new TreeMap<>();
+    private final Set<String> mPartitioned = new HashSet<>();
+    private final Tracker.IRmiTrack mTracker;
+    private int mNextNodeId;
+
+    // Metrics
+    private long mMovesSent;
+    private long mMovesAcked;
+    private long mMovesUnapplied;
+    private long mMovesResent;
+    private long mMovesRejected;
+    private long mMessagesSent;
+    private long mMessagesDropped;
+    private long mCrashes;
+    private long mPrimaryCrashes;
+    private long mPartitions;
+    private long mPromotionsFailed;
+    private long mLastPrimaryCrashAt = -1;
+    private long mGameLostAt = -1;
+    private boolean mSplitBrain;
+    private final List<Long> mFailoverGaps = new ArrayList<>();
+    private final Map<String, Long> mViolations = new TreeMap<>();
+
+    public ClusterSimulator(Map<String, String> config) {
+        mSeed = Long.parseLong(config.getOrDefault("seed", "1"));
+        mNodes = Integer.parseInt(config.getOrDefault("nodes", "20"));
+        mN = Integer.parseInt(config.getOrDefault("n", "15"));
+        mK = Integer.parseInt(config.getOrDefault("k", "10"));
+        mDurationMs = (long) (Double.parseDouble(config.getOrDefault("hours", "1")) * 3_600_000);
+        mMovesPerSec = Double.parseDouble(config.getOrDefault("movesPerSec", "2"));
+        mLatencyMs = Long.parseLong(config.getOrDefault("latencyMs", "1"));
+        mJitterMs = Long.parseLong(config.getOrDefault("jitterMs", "4"));
+        mLossRate = Double.parseDouble(config.getOrDefault("loss", "0"));
+        mCrashEveryMs = Long.parseLong(config.getOrDefault("crashEveryMs", "20000"));
+        mRejoinAfterMs = Long.parseLong(config.getOrDefault("rejoinAfterMs", "3000"));
+        mPartitionEveryMs = Long.parseLong(config.getOrDefault("partitionEveryMs", "300000"));
+        mPartitionForMs = Long.parseLong(config.getOrDefault("partitionForMs", "2000"));
+        mRequestTimeoutMs = Long.parseLong(config.getOrDefault("timeoutMs", String.valueOf(Game.REQUEST_DEADLINE_MS)));
+        mRandom = new Random(mSeed);
+        // The tracker is always reachable, its calls still copy like RMI does
+        mTracker = stub(Tracker.IRmiTrack.class, null, () -> Tracker.mTracker);
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> config = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) {
+                System.err.println("Arguments must look like key=value, got " + arg);
+                System.exit(0);
+            }
+            config.put(kv[0], kv[1]);
+        }
+        // The servers and the tracker print as they go, only the report goes out.
+        // -Dgame.log.file keeps their event log.
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = System.nanoTime();
+        ClusterSimulator simulator = new ClusterSimulator(config);
+        simulator.run();
+        System.setOut(out);
+        simulator.report((System.nanoTime() - start) / 1_000_000);
+    }
+
+    public void run() {
+        Tracker.GRID_N = mN;
+        Tracker.TREASURE_K = mK;
+        StubCache.setResolver(this::resolve);
+        try {
+            for (int i = 0; i < mNodes; i++) {
+                // Stagger the start like StressTest does
+                schedule(null, i * 50L, this::startNode);
+            }
+            if (mCrashEveryMs > 0) {
+                schedule(null, exponential(mCrashEveryMs), this::crashRandomNode);
+            }
+            if (mPartitionEveryMs > 0) {
+                schedule(null, exponential(mPartitionEveryMs), this::startPartition);
+            }
+            schedule(null, 1000, this::checkInvariantsPeriodically);
+            while (!mEvents.isEmpty()) {
+                Event event = mEvents.poll();
+                if (event.at > mDurationMs) {
+                    break;
+                }
+                mNow = event.at;
+                if (event.node != null && !event.node.alive) {
+                    continue;
+                }
+                mCaller = event.node;
+                try {
+                    event.action.run();
+                } catch (RuntimeException e) {
+                    violation("uncaught " + e.getClass().getSimpleName());
+                } finally {
+                    mCaller = null;
+                }
+            }
+        } finally {
+            StubCache.setResolver(null);
+        }
+    }
+
+    // ---------------------------------------------------------------- clock and transport
+
+    /**
+     * Run the action on the node's behalf, dropped if the node crashed meanwhile
+     */
+    private void schedule(SimNode node, long delayMs, Runnable action) {
+        mEvents.add(new Event(mNow + Math.max(0, delayMs), mEventSeq++, node, action));
+    }
+
+    private long nanos() {
+        return TimeUnit.MILLISECONDS.toNanos(mNow);
+    }
+
+    private long exponential(double meanMs) {
+        return (long) (-Math.log(1 - mRandom.nextDouble()) * meanMs);
+    }
+
+    private long latency() {
+        return mLatencyMs + (mJitterMs > 0 ? (long) (mRandom.nextDouble() * mJitterMs) : 0);
+    }
+
+    private boolean reachable(SimNode from, SimNode to) {
+        return from == null || to == null || mPartitioned.contains(from.id) == mPartitioned.contains(to.id);
+    }
+
+    /**
+     * The stub of a remote object of the node, null for the tracker. A call runs the callee at once
+     * on copies of the arguments and returns a copy of the result, or fails with a RemoteException.
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Remote> T stub(Class<T> type, SimNode node, Supplier<Object> callee) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + (node == null ? "" : " of " + node.id);
+                }
+            }
+            mMessagesSent++;
+            if (node != null) {
+                if (!node.alive) {
+                    throw new ConnectException("Connection refused to " + node.id);
+                }
+                if (!reachable(mCaller, node) || mRandom.nextDouble() < mLossRate) {
+                    mMessagesDropped++;
+                    throw new Lost("Request lost to " + node.id);
+                }
+            }
+            Object target = callee.get();
+            if (target == null) {
+                throw new NoSuchObjectException("Nothing exported by " + node.id);
+            }
+            SimNode caller = mCaller;
+            mCaller = node;
+            Object result;
+            try {
+                result = method.invoke(target, (Object[]) copy(args));
+            } catch (InvocationTargetException e) {
+                throw copy(e.getCause());
+            } finally {
+                mCaller = caller;
+            }
+            if (node != null && mRandom.nextDouble() < mLossRate) {
+                mMessagesDropped++;
+                throw new Lost("Reply lost from " + node.id);
+            }
+            return copy(result);
+        });
+    }
+
+    /**
+     * What RMI does to a value on its way through the wire
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(value);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (T) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Not serializable " + value.getClass().getName(), e);
+        }
+    }
+
+    /**
+     * StubCache's lookups: a bound name of a node, the listener from its start, the server once it
+     * has one
+     */
+    private Remote resolve(String url) {
+        if (!url.startsWith(PREFIX_URL)) {
+            return null;
+        }
+        String name = url.substring(PREFIX_URL.length());
+        boolean client = name.startsWith("client/");
+        SimNode node = mNodesById.get(client ? name.substring("client/".length()) : name);
+        if (node == null) {
+            return null;
+        }
+        return client ? node.listenerStub : node.server == null ? null : node.serverStub;
+    }
+
+    private IGameCallback server(String id) {
+        try {
+            return id == null ? null : (IGameCallback) StubCache.lookup(PREFIX_URL + id);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * A client call over the network: the request and the reply take a latency each. A lost message
+     * or a partition is silence, the caller's deadline notices it, a crashed server is refused.
+     */
+    private <T> void callAsync(SimNode node, String serverId, RemoteCall<T> call, BiConsumer<T, Throwable> done) {
+        schedule(node, latency(), () -> {
+            T result = null;
+            Throwable error = null;
+            try {
+                IGameCallback server = server(serverId);
+                if (server == null) {
+                    throw new ConnectException("Not bound " + serverId);
+                }
+                result = call.apply(server);
+            } catch (Lost e) {
+                return;
+            } catch (Exception e) {
+                StubCache.evict(PREFIX_URL + serverId);
+                error = e;
+            }
+            T answer = result;
+            Throwable failure = error;
+            schedule(node, latency(), () -> done.accept(answer, failure));
+        });
+    }
+
+    // ---------------------------------------------------------------- node lifecycle
+
+    /**
+     * Game.main: bind the listener, connect to the tracker, join the servers it names
+     */
+    private void startNode() {
+        SimNode node = new SimNode("n" + (mNextNodeId++));
+        mNodesById.put(node.id, node);
+        node.executor = new SimExecutor(node);
+        node.listenerStub = stub(Game.IGameClientListener.class, node, () -> node.listener);
+        node.serverStub = stub(IGameCallback.class, node, () -> node.server);
+        node.listener = new SimListener(node);
+        node.gossip = new Gossip(node.id,
+                () -> node.state == null ? Collections.emptyList() : node.state.playerIds(),
+                Game.gossipTransport(PREFIX_URL, node.executor), record -> onGossip(node, record),
+                new Random(mRandom.nextLong()), Gossip.FANOUT);
+        node.gossip.setClock(() -> mNow);
+        schedule(node, 0, () -> {
+            Tracker.GameProvision provision;
+            try {
+                provision = mTracker.connect(ROOM, new Player(node.id));
+            } catch (RemoteException e) {
+                return;
+            }
+            GameState state = new GameState(provision.getN(), provision.getK());
+            provision.getClients().forEach(p -> {
+                if (p.dedicated) {
+                    state.addServer(p);
+                } else {
+                    state.addPlayer(p);
+                }
+            });
+            node.state = state;
+            updateServer(node, state);
+            state.nodes().stream().filter(p -> p.playerID.equals(node.id)).findAny().ifPresent(p -> join(node, p));
+            gossipTick(node);
+        });
+    }
+
+    /**
+     * Game.join: become the server the tracker named us, then join the primary and the backup
+     */
+    private void join(SimNode node, Player self) {
+        if (self.serverType == Game.RemoteServerImpl.ServerType.PRIMARY_SERVER) {
+            registerServer(node, Game.RemoteServerImpl.ServerType.PRIMARY_SERVER);
+            node.primaryId = node.id;
+        } else if (self.serverType == Game.RemoteServerImpl.ServerType.BACKUP_SERVER) {
+            registerServer(node, Game.RemoteServerImpl.ServerType.BACKUP_SERVER);
+            node.backupId = node.id;
+        }
+        BiConsumer<GameState, Throwable> joined = (state, e) -> {
+            if (state == null) {
+                return;
+            }
+            updateLocalGameState(node, state);
+            if (!node.moving) {
+                node.moving = true;
+                scheduleNextMove(node);
+            }
+        };
+        Player player = new Player(self);
+        callAsync(node, node.primaryId, s -> s.join(player), joined);
+        callAsync(node, node.backupId, s -> s.join(player), joined);
+        // A join that went nowhere, the first move's resends find the servers
+        schedule(node, mRequestTimeoutMs, () -> {
+            if (!node.moving) {
+                node.moving = true;
+                scheduleNextMove(node);
+            }
+        });
+    }
+
+    /**
+     * Game.registerServer, with the heartbeat on the virtual clock
+     */
+    private void registerServer(SimNode node, Game.RemoteServerImpl.ServerType serverType) {
+        if (node.server != null) {
+            node.server.stopHeartbeatChecking();
+            node.server = null;
+        }
+        GameState state = node.state;
+        if (state.treasures.isEmpty()) {
+            // The constructor would, before we could seed its draws
+            state.spawnTreasures(state.K, mRandom);
+        }
+        Game.RemoteServerImpl server;
+        try {
+            server = new Game.RemoteServerImpl(node.executor, state, mTracker, ROOM, serverType, PREFIX_URL, node.id);
+            // Only reached through the transport
+            UnicastRemoteObject.unexportObject(server, true);
+        } catch (RemoteException e) {
+            throw new IllegalStateException(e);
+        }
+        server.setClock(this::nanos);
+        server.setRandomSeed(mRandom.nextLong());
+        AdmissionControl admission = AdmissionControl.defaults();
+        admission.setClock(this::nanos);
+        server.setAdmissionControl(admission);
+        node.server = server;
+        node.executor.execute(() -> {
+            try {
+                mTracker.updateServer(ROOM, node.id, serverType);
+            } catch (RemoteException e) {
+                // pass
+            }
+        });
+        schedule(node, 0, () -> heartbeat(node, server));
+    }
+
+    private void heartbeat(SimNode node, Game.RemoteServerImpl server) {
+        if (node.server != server) {
+            // Replaced, its heartbeat was stopped
+            return;
+        }
+        server.heartbeatRound();
+        schedule(node, HEARTBEAT_MS, () -> heartbeat(node, server));
+    }
+
+    private void gossipTick(SimNode node) {
+        node.gossip.tick();
+        schedule(node, Gossip.PERIOD_MS, () -> gossipTick(node));
+    }
+
+    private void onGossip(SimNode node, Gossip.Record record) {
+        if (!record.key.startsWith(Gossip.ROLE)) {
+            return;
+        }
+        try {
+            node.listener.onServerChanged(
+                    Game.RemoteServerImpl.ServerType.valueOf(record.key.substring(Gossip.ROLE.length())), record.value);
+        } catch (RemoteException | IllegalArgumentException e) {
+            // Bad gossip
+        }
+    }
+
+    /**
+     * Game.startStandby, following on the virtual clock
+     */
+    private void startStandby(SimNode node) {
+        if (node.standby != null) {
+            return;
+        }
+        Standby standby = new Standby(node.id, () -> node.primaryId, () -> {
+            try {
+                String id = mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.PRIMARY_SERVER);
+                if (id != null) {
+                    StubCache.evict(PREFIX_URL + id);
+                    node.primaryId = id;
+                }
+                return id;
+            } catch (RemoteException e) {
+                return null;
+            }
+        }, this::server);
+        node.standby = standby;
+        follow(node, standby);
+    }
+
+    private void follow(SimNode node, Standby standby) {
+        if (standby.follow()) {
+            schedule(node, Standby.PERIOD_MS, () -> follow(node, standby));
+        }
+    }
+
+    private void crashRandomNode() {
+        List<SimNode> alive = aliveNodes();
+        if (!alive.isEmpty()) {
+            SimNode victim = alive.get(mRandom.nextInt(alive.size()));
+            if (role(victim) == Game.RemoteServerImpl.ServerType.PRIMARY_SERVER) {
+                mPrimaryCrashes++;
+                mLastPrimaryCrashAt = mNow;
+            }
+            victim.alive = false;
+            if (victim.server != null) {
+                victim.server.stopHeartbeatChecking();
+            }
+            if (victim.standby != null) {
+                victim.standby.stop();
+            }
+            mCrashes++;
+            schedule(null, exponential(mRejoinAfterMs), this::startNode);
+        }
+        schedule(null, exponential(mCrashEveryMs), this::crashRandomNode);
+    }
+
+    private void startPartition() {
+        for (SimNode node : aliveNodes()) {
+            if (mRandom.nextInt(4) == 0) {
+                mPartitioned.add(node.id);
+            }
+        }
+        mPartitions++;
+        schedule(null, mPartitionForMs, () -> {
+            mPartitioned.clear();
+            schedule(null, exponential(mPartitionEveryMs), this::startPartition);
+        });
+    }
+
+    private List<SimNode> aliveNodes() {
+        List<SimNode> alive = new ArrayList<>();
+        for (SimNode node : mNodesById.values()) {
+            if (node.alive) {
+                alive.add(node);
+            }
+        }
+        return alive;
+    }
+
+    private static Game.RemoteServerImpl.ServerType role(SimNode node) {
+        return node.server == null ? null : node.server.getServerType();
+    }
+
+    // ---------------------------------------------------------------- players
+
+    private void scheduleNextMove(SimNode node) {
+        schedule(node, exponential(1000.0 / mMovesPerSec), () -> move(node));
+    }
+
+    private void move(SimNode node) {
+        GameState view = node.state;
+        if (view == null || view.findPlayer(node.id) == null) {
+            // Not placed yet, or dropped: a refresh shows which
+            sendMove(node, GameState.OP_REFRESH, ++node.moveSeq, 1);
+            return;
+        }
+        byte opcode = (byte) (GameState.OP_WEST + mRandom.nextInt(4));
+        mMovesSent++;
+        sendMove(node, opcode, ++node.moveSeq, 1);
+    }
+
+    /**
+     * Game.hedgedOperate and Game.sendMove
+     */
+    private void sendMove(SimNode node, byte opcode, long moveId, int attempt) {
+        MoveCall call = new MoveCall();
+        long start = mNow;
+        String primary = node.primaryId;
+        Runnable hedge = () -> {
+            String backup = node.backupId;
+            if (backup == null || backup.equals(primary) || call.done || call.hedged) {
+                return;
+            }
+            call.hedged = true;
+            call.pending++;
+            callAsync(node, backup, s -> s.Move(node.id, opcode, moveId),
+                    (state, e) -> settle(node, call, opcode, moveId, attempt, state, e));
+        };
+        callAsync(node, primary, s -> s.Move(node.id, opcode, moveId), (state, e) -> {
+            if (e instanceof AdmissionControl.OverloadedException) {
+                // Alive and shedding load, no sample and no hedge
+            } else if (state != null) {
+                node.latency.record(mNow - start);
+            } else {
+                hedge.run();
+            }
+            settle(node, call, opcode, moveId, attempt, state, e);
+        });
+        schedule(node, node.latency.p99(), hedge);
+        schedule(node, mRequestTimeoutMs, () -> {
+            if (!call.done) {
+                call.done = true;
+                answered(node, opcode, moveId, attempt, null, null);
+            }
+        });
+    }
+
+    private void settle(SimNode node, MoveCall call, byte opcode, long moveId, int attempt,
+                        GameState state, Throwable e) {
+        if (call.done) {
+            return;
+        }
+        if (state != null || e instanceof AdmissionControl.OverloadedException || --call.pending == 0) {
+            call.done = true;
+            answered(node, opcode, moveId, attempt, state, e);
+        }
+    }
+
+    private void answered(SimNode node, byte opcode, long moveId, int attempt, GameState state, Throwable e) {
+        if (state != null) {
+            if (opcode != GameState.OP_REFRESH) {
+                if (state.getLastMoveId(node.id) >= moveId) {
+                    node.ackedMoveId = moveId;
+                    mMovesAcked++;
+                } else {
+                    mMovesUnapplied++;
+                }
+            }
+            if (mLastPrimaryCrashAt >= 0) {
+                mFailoverGaps.add(mNow - mLastPrimaryCrashAt);
+                mLastPrimaryCrashAt = -1;
+            }
+            updateLocalGameState(node, state);
+            scheduleNextMove(node);
+            return;
+        }
+        if (e instanceof AdmissionControl.OverloadedException) {
+            mMovesRejected++;
+            schedule(node, ((AdmissionControl.OverloadedException) e).retryAfterMs,
+                    () -> sendMove(node, opcode, moveId, attempt));
+            return;
+        }
+        mMovesResent++;
+        long delayMs = Math.min(Game.RESEND_MAX_MS, Game.RESEND_MS << Math.min(attempt - 1, 10));
+        schedule(node, delayMs, () -> {
+            rediscoverServers(node);
+            sendMove(node, opcode, moveId, attempt + 1);
+        });
+    }
+
+    /**
+     * Game.rediscoverServers
+     */
+    private void rediscoverServers(SimNode node) {
+        try {
+            String primary = mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.PRIMARY_SERVER);
+            String backup = mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.BACKUP_SERVER);
+            if (primary != null) {
+                node.primaryId = primary;
+            }
+            if (backup != null) {
+                node.backupId = backup;
+            }
+        } catch (RemoteException e) {
+            // Keep what we know
+        }
+    }
+
+    /**
+     * Game.updateLocalGameState
+     */
+    private static void updateLocalGameState(SimNode node, GameState state) {
+        node.state = state;
+        updateServer(node, state);
+    }
+
+    private static void updateServer(SimNode node, GameState state) {
+        for (Player p : state.nodes()) {
+            if (p.serverType == Game.RemoteServerImpl.ServerType.PRIMARY_SERVER) {
+                node.primaryId = p.playerID;
+            } else if (p.serverType == Game.RemoteServerImpl.ServerType.BACKUP_SERVER) {
+                node.backupId = p.playerID;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- invariants and report
+
+    private void checkInvariantsPeriodically() {
+        List<SimNode> primaries = new ArrayList<>();
+        boolean backup = false;
+        for (SimNode node : aliveNodes()) {
+            Game.RemoteServerImpl.ServerType role = role(node);
+            if (role == Game.RemoteServerImpl.ServerType.PRIMARY_SERVER) {
+                primaries.add(node);
+            } else if (role == Game.RemoteServerImpl.ServerType.BACKUP_SERVER) {
+                backup = true;
+            }
+        }
+        if (mGameLostAt < 0 && mNow > mNodes * 50L && primaries.isEmpty() && !backup) {
+            mGameLostAt = mNow;
+            violation("game lost");
+        }
+        if (primaries.size() > 1 && !mSplitBrain) {
+            // Counted once until it is resolved
+            violation("split brain");
+        }
+        mSplitBrain = primaries.size() > 1;
+        for (SimNode primary : primaries) {
+            GameState state = primary.server.getGameState();
+            checkInvariants(state);
+            for (SimNode player : aliveNodes()) {
+                long applied = state.getLastMoveId(player.id);
+                if (state.findPlayer(player.id) != null && applied < player.ackedMoveId) {
+                    violation("acked move lost");
+                    player.ackedMoveId = applied;
+                }
+            }
+        }
+        schedule(null, 1000, this::checkInvariantsPeriodically);
+    }
+
+    private void checkInvariants(GameState state) {
+        synchronized (state) {
+            if (state.treasures.size() != state.K) {
+                violation(state.treasures.size() < state.K ? "lost treasure" : "extra treasure");
+            }
+            Set<Point> cells = new HashSet<>();
+            for (Player p : state.players) {
+                if (!cells.add(p.position)) {
+                    violation("duplicate cell");
+                }
+                if (state.treasures.contains(p.position)) {
+                    violation("treasure under player");
+                }
+            }
+        }
+    }
+
+    private void violation(String name) {
+        mViolations.merge(name, 1L, Long::sum);
+    }
+
+    public void report(long wallMs) {
+        double simSeconds = Math.min(mNow, mDurationMs) / 1000.0;
+        System.out.printf("seed %d, %.0f simulated seconds in %d ms wall clock (%.0fx)%n",
+                mSeed, simSeconds, wallMs, simSeconds * 1000 / Math.max(1, wallMs));
+        System.out.printf("moves sent %d, applied %d, answered unapplied %d, resent %d, rejected %d, throughput %.1f moves/s%n",
+                mMovesSent, mMovesAcked, mMovesUnapplied, mMovesResent, mMovesRejected, mMovesAcked / Math.max(1, simSeconds));
+        System.out.printf("messages %d, dropped %d, crashes %d (primary %d), partitions %d, failed promotions %d%n",
+                mMessagesSent, mMessagesDropped, mCrashes, mPrimaryCrashes, mPartitions, mPromotionsFailed);
+        if (!mFailoverGaps.isEmpty()) {
+            List<Long> gaps = new ArrayList<>(mFailoverGaps);
+            Collections.sort(gaps);
+            System.out.printf("failover gap ms: p50 %d, p99 %d, max %d over %d failovers%n",
+                    gaps.get(gaps.size() / 2), gaps.get((int) (gaps.size() * 0.99)), gaps.get(gaps.size() - 1), gaps.size());
+        }
+        if (mGameLostAt >= 0) {
+            System.out.printf("game lost at %d s: primary and backup both gone, nobody left to take over%n",
+                    mGameLostAt / 1000);
+        }
+        if (mViolations.isEmpty()) {
+            System.out.println("no invariant violations");
+        }
+        mViolations.forEach((name, count) -> System.out.printf("violation %s: %d%n", name, count));
+    }
+
+    /**
+     * Game's client listener on the virtual clock
+     */
+    private class SimListener implements Game.IGameClientListener {
+        private final SimNode mNode;
+
+        SimListener(SimNode node) {
+            mNode = node;
+        }
+
+        @Override
+        public void becomeServer(Game.RemoteServerImpl.ServerType serverType, GameState latestGameState) {
+            mNode.state = latestGameState;
+            registerServer(mNode, serverType);
+            updateServer(mNode, latestGameState);
+        }
+
+        @Override
+        public void promote(Game.RemoteServerImpl.ServerType serverType, String sourceId) {
+            if (serverType == Game.RemoteServerImpl.ServerType.STANDBY_SERVER) {
+                startStandby(mNode);
+                return;
+            }
+            mNode.executor.execute(() -> {
+                try {
+                    Standby standby = mNode.standby;
+                    mNode.standby = null;
+                    GameState warm = standby == null ? null : standby.takeOver(sourceId);
+                    if (warm != null) {
+                        becomeServer(serverType, warm);
+                        return;
+                    }
+                    IGameCallback source = server(sourceId);
+                    if (source == null) {
+                        throw new ConnectException("Not bound " + sourceId);
+                    }
+                    becomeServer(serverType, StateTransfer.pull(source).state);
+                } catch (Exception e) {
+                    mPromotionsFailed++;
+                }
+            });
+        }
+
+        @Override
+        public void doubleCheck() {
+            // Return nothing
+        }
+
+        @Override
+        public void gossip(List<Gossip.Record> records) {
+            mNode.gossip.receive(records);
+        }
+
+        @Override
+        public void onServerChanged(Game.RemoteServerImpl.ServerType serverType, String serverName) {
+            if (serverType == Game.RemoteServerImpl.ServerType.PRIMARY_SERVER) {
+                mNode.primaryId = serverName;
+            } else {
+                mNode.backupId = serverName;
+            }
+        }
+    }
+
+    /**
+     * A node's thread pool: the tasks run as events of the node, dropped if it crashes first
+     */
+    private class SimExecutor extends AbstractExecutorService {
+        private final SimNode mNode;
+
+        SimExecutor(SimNode node) {
+            mNode = node;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            schedule(mNode, 0, command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    private interface RemoteCall<T> {
+        T apply(IGameCallback server) throws Exception;
+    }
+
+    /**
+     * A lost message or a cut off callee, a client waits for its deadline
+     */
+    private static class Lost extends RemoteException {
+        Lost(String message) {
+            super(message);
+        }
+    }
+
+    private static class MoveCall {
+        int pending = 1;
+        boolean hedged;
+        boolean done;
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long at;
+        final long seq;
+        final SimNode node;
+        final Runnable action;
+
+        Event(long at, long seq, SimNode node, Runnable action) {
+            this.at = at;
+            this.seq = seq;
+            this.node = node;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            return at != o.at ? Long.compare(at, o.at) : Long.compare(seq, o.seq);
+        }
+    }
+
+    private static class SimNode {
+        final String id;
+        final Game.LatencyWindow latency = new Game.LatencyWindow(128, 20, Game.REQUEST_DEADLINE_MS);
+        boolean alive = true;
+        SimExecutor executor;
+        Game.IGameClientListener listener;
+        Game.IGameClientListener listenerStub;
+        IGameCallback serverStub;
+        Gossip gossip;
+        Standby standby;
+        // The node's server once it has a role, like Game.mIRemoteServerImplCallback
+        Game.RemoteServerImpl server;
+        // Client side view and server addresses
+        GameState state;
+        String primaryId;
+        String backupId;
+        boolean moving;
+        long moveSeq;
+        long ackedMoveId;
+
+        SimNode(String id) {
+            this.id = id;
+        }
+    }
+}
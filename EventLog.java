@@ -0,0 +1,217 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous event log for the server hot path.
+ * <p>
+ * Callers only fill a slot of a pre-allocated ring buffer with references to constant strings and a
+ * number, no formatting and no I/O happen on the RPC thread. A daemon thread drains the ring,
+ * formats the events and writes them to stdout or a file. When the ring is full new events are
+ * dropped and counted instead of blocking the caller.
+ * <p>
+ * Configured with system properties:
+ * game.log.level (DEBUG, INFO, WARN, ERROR; default INFO),
+ * game.log.sample (keep 1 of every n DEBUG events; default 1),
+ * game.log.file (default stdout),
+ * game.log.jfr (true to also emit every event as a JFR event).
+ */
+public final class EventLog {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+    // Only a safety net, publishers unpark the drainer
+    private static final long IDLE_PARK_NANOS = 1_000_000_000L;
+
+    private static final Level LEVEL = Level.valueOf(System.getProperty("game.log.level", "INFO"));
+    private static final int SAMPLE = Math.max(1, Integer.getInteger("game.log.sample", 1));
+    private static final boolean JFR = Boolean.getBoolean("game.log.jfr");
+
+    private static final Slot[] RING = new Slot[CAPACITY];
+    private static final AtomicLong CLAIMED = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AtomicLong SAMPLED = new AtomicLong();
+    private static volatile long sDrained;
+    // Set by the drainer before it parks on an empty ring, the next publisher wakes it
+    private static volatile boolean sIdle;
+    private static final Thread DRAINER = new Thread(() -> drain(openOutput()), "event-log");
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Slot();
+            RING[i].seq = i - CAPACITY;
+        }
+        DRAINER.setDaemon(true);
+        DRAINER.start();
+    }
+
+    private EventLog() {
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.ordinal() >= LEVEL.ordinal();
+    }
+
+    public static void debug(String message, String subject, String detail) {
+        // Sampling only applies to the high volume debug events
+        if (isEnabled(Level.DEBUG) && (SAMPLE == 1 || SAMPLED.incrementAndGet() % SAMPLE == 0)) {
+            publish(Level.DEBUG, message, subject, detail, Long.MIN_VALUE);
+        }
+    }
+
+    public static void info(String message, String subject) {
+        log(Level.INFO, message, subject, null, Long.MIN_VALUE);
+    }
+
+    public static void info(String message, String subject, long value) {
+        log(Level.INFO, message, subject, null, value);
+    }
+
+    public static void warn(String message, String subject) {
+        log(Level.WARN, message, subject, null, Long.MIN_VALUE);
+    }
+
+    public static void log(Level level, String message, String subject, String detail, long value) {
+        if (isEnabled(level)) {
+            publish(level, message, subject, detail, value);
+        }
+    }
+
+    public static long getDropped() {
+        return DROPPED.get();
+    }
+
+    /**
+     * Block until everything published so far has been written, for tests and shutdown
+     */
+    public static void flush() {
+        long target = CLAIMED.get();
+        while (sDrained < target) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    private static void publish(Level level, String message, String subject, String detail, long value) {
+        long seq;
+        do {
+            seq = CLAIMED.get();
+            // The slot is still holding an event from the previous lap
+            if (seq - sDrained >= CAPACITY) {
+                DROPPED.incrementAndGet();
+                return;
+            }
+        } while (!CLAIMED.compareAndSet(seq, seq + 1));
+        Slot slot = RING[(int) (seq & MASK)];
+        slot.time = System.currentTimeMillis();
+        slot.level = level;
+        slot.message = message;
+        slot.subject = subject;
+        slot.detail = detail;
+        slot.value = value;
+        slot.thread = Thread.currentThread().getName();
+        slot.seq = seq;
+        if (sIdle) {
+            sIdle = false;
+            LockSupport.unpark(DRAINER);
+        }
+    }
+
+    private static PrintStream openOutput() {
+        String file = System.getProperty("game.log.file");
+        if (file != null) {
+            try {
+                return new PrintStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16), false);
+            } catch (IOException e) {
+                System.err.println("Open log file failed, logging to stdout: " + e.getMessage());
+            }
+        }
+        return System.out;
+    }
+
+    private static void drain(PrintStream out) {
+        StringBuilder line = new StringBuilder(128);
+        long next = 0;
+        while (true) {
+            Slot slot = RING[(int) (next & MASK)];
+            if (slot.seq != next) {
+                out.flush();
+                sIdle = true;
+                // Checked again after sIdle is set: a publisher either sees it or wrote its slot before
+                if (slot.seq != next) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                sIdle = false;
+                continue;
+            }
+            line.setLength(0);
+            line.append(slot.time).append(' ').append(slot.level).append(" [").append(slot.thread).append("] ")
+                    .append(slot.message);
+            if (slot.subject != null) {
+                line.append(' ').append(slot.subject);
+            }
+            if (slot.detail != null) {
+                line.append(' ').append(slot.detail);
+            }
+            if (slot.value != Long.MIN_VALUE) {
+                line.append(' ').append(slot.value);
+            }
+            out.println(line);
+            if (JFR) {
+                JfrLogEvent.emit(slot);
+            }
+            // Release the references so the slot does not keep them alive for a whole lap
+            slot.message = null;
+            slot.subject = null;
+            slot.detail = null;
+            next++;
+            sDrained = next;
+        }
+    }
+
+    private static final class Slot {
+        volatile long seq;
+        long time;
+        long value;
+        Level level;
+        String message;
+        String subject;
+        String detail;
+        String thread;
+    }
+
+    @jdk.jfr.Name("game.EventLog")
+    @jdk.jfr.Label("Game Event")
+    @jdk.jfr.Category("Game")
+    static final class JfrLogEvent extends jdk.jfr.Event {
+        @jdk.jfr.Label("Level")
+        String level;
+        @jdk.jfr.Label("Message")
+        String message;
+        @jdk.jfr.Label("Subject")
+        String subject;
+        @jdk.jfr.Label("Detail")
+        String detail;
+        @jdk.jfr.Label("Value")
+        long value;
+
+        static void emit(Slot slot) {
+            JfrLogEvent event = new JfrLogEvent();
+            if (!event.isEnabled()) {
+                return;
+            }
+            event.level = slot.level.name();
+            event.message = slot.message;
+            event.subject = slot.subject;
+            event.detail = slot.detail;
+            event.value = slot.value;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,635 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What a server crash costs the players, on a real cluster on localhost. A Tracker runs in this JVM,
+ * the servers are Game processes in the server mode, and bots in this JVM join through the primary
+ * and keep moving the way a Game does: to the primary, to the backup when the primary fails, to the
+ * servers the tracker names when both fail, retrying with the same move id until a server applies it.
+ * <p>
+ * Every round waits for a primary and a backup, kills the primary, the backup or both one after the
+ * other (SIGKILL), and starts a new server process to keep the pool. It reports per kill the time
+ * to the next successful move sent after it and the longest stall, and over the run the stall
+ * distribution seen by the bots. Lost and duplicated moves are told from the bots' own answers: a
+ * server that moves a player from an earlier answered position lost the answered moves since, one
+ * that moves it a step too far applied a move twice. Between rounds the load stops and the primary's
+ * state is audited against what the bots were told: scores, treasures, cells, and the backup's copy.
+ * <p>
+ * The game.* system properties of this JVM are passed on to the servers, e.g. -Dgame.standby.count=0.
+ * <p>
+ * Usage: java FailoverBenchmark [key=value ...], e.g. kill=both rounds=10 intervalMs=3000 gapMs=500
+ * kill is one of primary, backup, both, mixed.
+ */
+public class FailoverBenchmark {
+
+    private static final String JAVA = ProcessHandle.current().info().command().orElse("java");
+    private static final String ROOM = Tracker.DEFAULT_ROOM;
+    private static final int TRAIL = 1024;
+
+    // Config
+    private final int mPort;
+    private final String mKill;
+    private final int mRounds;
+    private final long mIntervalMs;
+    private final long mGapMs;
+    private final int mBots;
+    private final long mMoveMs;
+    private final int mServers;
+    private final long mGiveUpMs;
+    private final int mN;
+    private final int mK;
+    private final Random mRandom;
+    private final String mPrefixURL;
+    private final File mLogDir;
+
+    // Cluster
+    private final Map<String, Process> mProcesses = new ConcurrentHashMap<>();
+    // As in a Game, a move to a hung server gives up at the request deadline
+    private final ExecutorService mIo = Executors.newCachedThreadPool();
+    private final List<Bot> mBotList = new ArrayList<>();
+    private int mNextServerId;
+    private volatile boolean mRunning = true;
+    private volatile boolean mPaused;
+    private final List<Kill> mKills = Collections.synchronizedList(new ArrayList<>());
+
+    // Metrics
+    private final AtomicLong mMovesAcked = new AtomicLong();
+    private final AtomicLong mMovesFailed = new AtomicLong();
+    private final AtomicLong mMovesLost = new AtomicLong();
+    private final AtomicLong mMovesDuplicated = new AtomicLong();
+    private final AtomicLong mPickupsLost = new AtomicLong();
+    private final AtomicLong mRetries = new AtomicLong();
+    private final Map<String, Long> mViolations = new TreeMap<>();
+
+    public FailoverBenchmark(Map<String, String> config) throws Exception {
+        mPort = Integer.parseInt(config.getOrDefault("port", "25000"));
+        mKill = config.getOrDefault("kill", "primary");
+        mRounds = Integer.parseInt(config.getOrDefault("rounds", "5"));
+        mIntervalMs = Long.parseLong(config.getOrDefault("intervalMs", "3000"));
+        mGapMs = Long.parseLong(config.getOrDefault("gapMs", "2000"));
+        mBots = Integer.parseInt(config.getOrDefault("bots", "8"));
+        mMoveMs = Long.parseLong(config.getOrDefault("moveMs", "20"));
+        mServers = Integer.parseInt(config.getOrDefault("servers", "4"));
+        mGiveUpMs = Long.parseLong(config.getOrDefault("giveUpMs", "10000"));
+        mN = Integer.parseInt(config.getOrDefault("n", "15"));
+        mK = Integer.parseInt(config.getOrDefault("k", "10"));
+        mRandom = new Random(Long.parseLong(config.getOrDefault("seed", "1")));
+        mPrefixURL = "rmi://127.0.0.1:" + mPort + "/" + Tracker.roomPrefix(ROOM);
+        mLogDir = java.nio.file.Files.createTempDirectory("failover").toFile();
+        if (!List.of("primary", "backup", "both", "mixed").contains(mKill)) {
+            throw new IllegalArgumentException("kill must be primary, backup, both or mixed, got " + mKill);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> config = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length != 2) {
+                System.err.println("Arguments must look like key=value, got " + arg);
+                System.exit(0);
+            }
+            config.put(kv[0], kv[1]);
+        }
+        FailoverBenchmark benchmark = new FailoverBenchmark(config);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> benchmark.mProcesses.values()
+                .forEach(Process::destroyForcibly)));
+        benchmark.run();
+        benchmark.report();
+        System.exit(0);
+    }
+
+    public void run() throws Exception {
+        Tracker.main(new String[]{String.valueOf(mPort), String.valueOf(mN), String.valueOf(mK)});
+        System.out.printf("%d servers, %d bots moving every %d ms, kill %s, server logs in %s%n",
+                mServers, mBots, mMoveMs, mKill, mLogDir);
+        // One at a time, the tracker makes the first the primary and the second the backup
+        for (int i = 0; i < mServers; i++) {
+            startServer();
+        }
+        if (!awaitSteady(30000)) {
+            throw new IllegalStateException("No primary and backup came up, see " + mLogDir);
+        }
+        joinBots();
+        List<Thread> threads = new ArrayList<>();
+        for (Bot bot : mBotList) {
+            Thread thread = new Thread(bot::run, "bot-" + bot.id);
+            thread.start();
+            threads.add(thread);
+        }
+
+        System.out.printf("%-6s %-8s %-8s %12s %12s %8s%n", "round", "kill", "node", "recovery ms", "max stall ms",
+                "failed");
+        for (int round = 1; round <= mRounds && mRunning; round++) {
+            Thread.sleep(mIntervalMs);
+            String kill = "mixed".equals(mKill) ? List.of("primary", "backup", "both").get(mRandom.nextInt(3)) : mKill;
+            String primary = Tracker.mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.PRIMARY_SERVER);
+            String backup = Tracker.mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.BACKUP_SERVER);
+            List<Kill> kills = new ArrayList<>();
+            if ("backup".equals(kill)) {
+                kills.add(kill("backup", backup));
+            } else {
+                kills.add(kill("primary", primary));
+                if ("both".equals(kill)) {
+                    Thread.sleep(mGapMs);
+                    kills.add(kill("backup", backup));
+                }
+            }
+            // Let the moves after the kills show the recovery, then stop them and look at the state
+            long deadline = System.currentTimeMillis() + mGiveUpMs;
+            while (kills.stream().anyMatch(k -> k.recoveredAt == 0) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(Math.min(mIntervalMs, 1000));
+            pause();
+            for (Kill k : kills) {
+                System.out.printf("%-6d %-8s %-8s %12s %12.1f %8d%n", round, k.role, k.node,
+                        k.recoveredAt == 0 ? "never" : String.format("%.1f", (k.recoveredAt - k.at) / 1e6),
+                        k.maxStallNanos / 1e6, k.failed);
+            }
+            for (int i = mProcesses.size(); i < mServers; i++) {
+                startServer();
+            }
+            if (!awaitSteady(mGiveUpMs)) {
+                System.out.println("Game lost: no primary and backup after round " + round);
+                violation("game lost");
+                mRunning = false;
+                break;
+            }
+            audit();
+            mPaused = false;
+        }
+        mRunning = false;
+        mPaused = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        mProcesses.values().forEach(Process::destroyForcibly);
+    }
+
+    // ---------------------------------------------------------------- cluster
+
+    private void startServer() throws Exception {
+        String id = "s" + mNextServerId++;
+        List<String> command = new ArrayList<>();
+        command.add(JAVA);
+        command.add("-Dgame.mode=server");
+        command.add("-Djava.awt.headless=true");
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith("game."))
+                .forEach(name -> command.add("-D" + name + "=" + System.getProperty(name)));
+        command.addAll(List.of("-cp", System.getProperty("java.class.path"), "Game", "127.0.0.1",
+                String.valueOf(mPort), id));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        mProcesses.put(id, process);
+        CompletableFuture<Void> serving = new CompletableFuture<>();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                 PrintStream log = new PrintStream(new File(mLogDir, id + ".log"))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    log.println(line);
+                    if (line.startsWith("Serving as a dedicated server")) {
+                        serving.complete(null);
+                    }
+                }
+            } catch (Exception e) {
+                // The process was killed
+            }
+            serving.complete(null);
+        });
+        reader.setDaemon(true);
+        reader.start();
+        serving.get(30, TimeUnit.SECONDS);
+    }
+
+    private Kill kill(String role, String node) throws InterruptedException {
+        Kill kill = new Kill(role, node);
+        Process process = node == null ? null : mProcesses.remove(node);
+        if (process != null) {
+            process.destroyForcibly();
+            process.waitFor(5, TimeUnit.SECONDS);
+        }
+        kill.at = System.nanoTime();
+        mKills.add(kill);
+        return kill;
+    }
+
+    /**
+     * Wait for a primary and a backup of ours that answer
+     */
+    private boolean awaitSteady(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                String primary = Tracker.mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.PRIMARY_SERVER);
+                String backup = Tracker.mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.BACKUP_SERVER);
+                if (primary != null && backup != null && !primary.equals(backup)
+                        && mProcesses.containsKey(primary) && mProcesses.containsKey(backup)) {
+                    lookup(primary).getRoomStats();
+                    lookup(backup).getRoomStats();
+                    return true;
+                }
+            } catch (Exception e) {
+                // Not there yet
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
+    private IGameCallback lookup(String id) throws Exception {
+        return (IGameCallback) StubCache.lookup(mPrefixURL + id);
+    }
+
+    // ---------------------------------------------------------------- bots
+
+    private void joinBots() throws Exception {
+        List<Player> joining = new ArrayList<>();
+        for (int i = 0; i < mBots; i++) {
+            Bot bot = new Bot("b" + i);
+            // The primary probes a silent player through its listener, as it does a Game
+            Naming.rebind(mPrefixURL + "client/" + bot.id, new Game.IGameClientImpl(bot));
+            mBotList.add(bot);
+            joining.add(new Player(bot.id));
+        }
+        String primary = Tracker.mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.PRIMARY_SERVER);
+        GameState state = lookup(primary).joinAll(joining);
+        for (Bot bot : mBotList) {
+            if (!bot.resync(state)) {
+                throw new IllegalStateException("Bot " + bot.id + " did not fit on the grid");
+            }
+        }
+    }
+
+    private void pause() throws InterruptedException {
+        mPaused = true;
+        for (Bot bot : mBotList) {
+            while (bot.moving) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    /**
+     * With no move in flight, check the primary's state against what the bots were told and the
+     * backup's copy against the primary's
+     */
+    private void audit() throws Exception {
+        // A backup round or two to bring the backup up to date
+        Thread.sleep(300);
+        String primaryId = Tracker.mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.PRIMARY_SERVER);
+        String backupId = Tracker.mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.BACKUP_SERVER);
+        GameState primary = lookup(primaryId).sync();
+        if (primary.treasures.size() != mK) {
+            violation("treasure count");
+        }
+        Set<Point> cells = new HashSet<>();
+        for (Player p : primary.players) {
+            if (!cells.add(p.position)) {
+                violation("duplicate cell");
+            }
+            if (primary.treasures.contains(p.position)) {
+                violation("treasure under player");
+            }
+        }
+        List<Player> rejoining = new ArrayList<>();
+        for (Bot bot : mBotList) {
+            Player p = primary.findPlayer(bot.id);
+            if (p == null) {
+                violation("bot dropped");
+                rejoining.add(new Player(bot.id));
+                continue;
+            }
+            if (p.score != bot.score()) {
+                violation("score conservation");
+            }
+            if (!p.position.equals(bot.position()) || p.lastMoveId != bot.lastMoveId) {
+                violation("state diverged from answers");
+            }
+            bot.resync(primary);
+        }
+        if (!rejoining.isEmpty()) {
+            GameState state = lookup(primaryId).joinAll(rejoining);
+            mBotList.forEach(bot -> bot.resync(state));
+        }
+        GameState backup = lookup(backupId).sync();
+        for (Player p : primary.players) {
+            Player copy = backup.findPlayer(p.playerID);
+            if (copy == null || !copy.position.equals(p.position) || copy.score != p.score) {
+                violation("backup diverged");
+                break;
+            }
+        }
+    }
+
+    private synchronized void violation(String name) {
+        mViolations.merge(name, 1L, Long::sum);
+    }
+
+    /**
+     * A move sent at sentAt was answered at now
+     */
+    private void onAnswered(long sentAt, long now) {
+        synchronized (mKills) {
+            for (Kill kill : mKills) {
+                if (now <= kill.at) {
+                    continue;
+                }
+                // The moves caught by the kill and the ones sent until the first went through
+                boolean recovering = kill.recoveredAt == 0;
+                if (sentAt < kill.at || recovering) {
+                    kill.maxStallNanos = Math.max(kill.maxStallNanos, now - sentAt);
+                }
+                if (sentAt >= kill.at && recovering) {
+                    kill.recoveredAt = now;
+                }
+            }
+        }
+    }
+
+    private void onFailed(long sentAt) {
+        mMovesFailed.incrementAndGet();
+        synchronized (mKills) {
+            for (Kill kill : mKills) {
+                if (sentAt >= kill.at - mGiveUpMs * 1_000_000 && (kill.recoveredAt == 0 || sentAt < kill.recoveredAt)) {
+                    kill.failed++;
+                }
+            }
+        }
+    }
+
+    public void report() {
+        List<Long> stalls = new ArrayList<>();
+        mBotList.forEach(bot -> stalls.addAll(bot.latencies));
+        Collections.sort(stalls);
+        System.out.printf("moves answered %d, failed after %d ms %d, retried attempts %d%n",
+                mMovesAcked.get(), mGiveUpMs, mMovesFailed.get(), mRetries.get());
+        System.out.printf("moves lost %d (treasure pickups %d), duplicated %d%n", mMovesLost.get(),
+                mPickupsLost.get(), mMovesDuplicated.get());
+        if (!stalls.isEmpty()) {
+            System.out.printf("move latency ms: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                    percentile(stalls, 0.5), percentile(stalls, 0.9), percentile(stalls, 0.99),
+                    percentile(stalls, 0.999), stalls.get(stalls.size() - 1) / 1e6);
+            System.out.printf("stalls: over 100 ms %d, over 500 ms %d, over 1 s %d, over 2 s %d%n",
+                    over(stalls, 100), over(stalls, 500), over(stalls, 1000), over(stalls, 2000));
+        }
+        List<Long> recoveries = new ArrayList<>();
+        for (Kill kill : mKills) {
+            if (kill.recoveredAt > 0) {
+                recoveries.add(kill.recoveredAt - kill.at);
+            }
+        }
+        Collections.sort(recoveries);
+        if (!recoveries.isEmpty()) {
+            System.out.printf("recovery ms: p50 %.1f, max %.1f over %d kills (%d never recovered)%n",
+                    percentile(recoveries, 0.5), recoveries.get(recoveries.size() - 1) / 1e6, recoveries.size(),
+                    mKills.size() - recoveries.size());
+        }
+        if (mViolations.isEmpty()) {
+            System.out.println("no invariant violations");
+        }
+        mViolations.forEach((name, count) -> System.out.printf("violation %s: %d%n", name, count));
+    }
+
+    private static double percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * p))) / 1e6;
+    }
+
+    private static long over(List<Long> sorted, long ms) {
+        return sorted.stream().filter(nanos -> nanos > ms * 1_000_000).count();
+    }
+
+    private static class Kill {
+        final String role;
+        final String node;
+        volatile long at;
+        // Answer to the first move sent after the kill, 0 until then
+        volatile long recoveredAt;
+        long maxStallNanos;
+        long failed;
+
+        Kill(String role, String node) {
+            this.role = role;
+            this.node = node;
+        }
+    }
+
+    /**
+     * One player moving at random, with the retries of a Game client
+     */
+    private class Bot implements Game.IGameClientListener {
+        final String id;
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        final Random random;
+        volatile boolean moving;
+        // Where the answered moves left the player and its score after each, the last one last
+        final List<Point> trail = new ArrayList<>();
+        final List<Integer> scores = new ArrayList<>();
+        long lastMoveId;
+        // A move gave up, it may or may not have been applied
+        boolean unknown;
+        // The servers as last known
+        String primaryId;
+        String backupId;
+
+        Bot(String id) {
+            this.id = id;
+            random = new Random(id.hashCode());
+        }
+
+        void run() {
+            while (mRunning) {
+                if (mPaused) {
+                    sleep(5);
+                    continue;
+                }
+                moving = true;
+                if (!mPaused) {
+                    move((byte) (1 + random.nextInt(4)));
+                }
+                moving = false;
+                sleep(mMoveMs);
+            }
+        }
+
+        private void move(byte opcode) {
+            long moveId = lastMoveId + 1;
+            long sentAt = System.nanoTime();
+            long deadline = sentAt + mGiveUpMs * 1_000_000;
+            GameState state = attempt(primaryId, opcode, moveId);
+            while (state == null && System.nanoTime() < deadline) {
+                mRetries.incrementAndGet();
+                state = attempt(backupId, opcode, moveId);
+                if (state == null) {
+                    sleep(10);
+                    rediscover();
+                    state = attempt(primaryId, opcode, moveId);
+                }
+            }
+            if (state == null) {
+                lastMoveId = moveId;
+                unknown = true;
+                onFailed(sentAt);
+                return;
+            }
+            long now = System.nanoTime();
+            latencies.add(now - sentAt);
+            mMovesAcked.incrementAndGet();
+            onAnswered(sentAt, now);
+            check(state.findPlayer(id), opcode);
+        }
+
+        /**
+         * @return the state if the server applied the move, null if it failed or only answered
+         */
+        private GameState attempt(String serverId, byte opcode, long moveId) {
+            if (serverId == null) {
+                return null;
+            }
+            try {
+                IGameCallback server = lookup(serverId);
+                GameState state = new AsyncGameClient(() -> server, mIo, Runnable::run, Game.REQUEST_DEADLINE_MS)
+                        .moveBlocking(id, opcode, moveId);
+                Player self = state.findPlayer(id);
+                // A backup with a live primary answers without applying
+                return self != null && self.lastMoveId >= moveId ? state : null;
+            } catch (Exception e) {
+                StubCache.evict(mPrefixURL + serverId);
+                return null;
+            }
+        }
+
+        private void rediscover() {
+            try {
+                primaryId = Tracker.mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.PRIMARY_SERVER);
+                backupId = Tracker.mTracker.getServer(ROOM, Game.RemoteServerImpl.ServerType.BACKUP_SERVER);
+            } catch (RemoteException e) {
+                // In this JVM, it doesn't fail
+            }
+        }
+
+        /**
+         * The server must have moved the player from where the last answer left it. If it moved it
+         * from an earlier answered position, the answered moves since were lost; from no answered
+         * position but one step too far, the move was applied twice.
+         */
+        private void check(Player self, byte opcode) {
+            int last = trail.size() - 1;
+            int from = last;
+            while (from >= 0 && !self.position.equals(trail.get(from))
+                    && !self.position.equals(GameState.nextPosition(trail.get(from), opcode))) {
+                from--;
+            }
+            if (unknown || last < 0) {
+                trail.clear();
+                scores.clear();
+            } else if (from < 0) {
+                Point target = GameState.nextPosition(trail.get(last), opcode);
+                if (self.position.equals(GameState.nextPosition(target, opcode))) {
+                    mMovesDuplicated.incrementAndGet();
+                } else {
+                    violation("position diverged");
+                }
+                trail.clear();
+                scores.clear();
+            } else {
+                mMovesLost.addAndGet(last - from);
+                mPickupsLost.addAndGet(scores.get(last) - scores.get(from));
+                if (self.score < scores.get(from) || self.score > scores.get(from) + 1) {
+                    violation("score conservation");
+                }
+                if (from < last) {
+                    trail.subList(from + 1, trail.size()).clear();
+                    scores.subList(from + 1, scores.size()).clear();
+                }
+            }
+            if (trail.size() >= TRAIL) {
+                // A failover loses the last replication period, far less than this
+                trail.subList(0, TRAIL / 2).clear();
+                scores.subList(0, TRAIL / 2).clear();
+            }
+            trail.add(self.position);
+            scores.add(self.score);
+            lastMoveId = self.lastMoveId;
+            unknown = false;
+        }
+
+        /**
+         * @return false if the player is not in the state
+         */
+        boolean resync(GameState state) {
+            Player self = state.findPlayer(id);
+            if (self == null) {
+                return false;
+            }
+            trail.clear();
+            scores.clear();
+            trail.add(self.position);
+            scores.add(self.score);
+            lastMoveId = self.lastMoveId;
+            unknown = false;
+            rediscover();
+            return true;
+        }
+
+        Point position() {
+            return trail.get(trail.size() - 1);
+        }
+
+        int score() {
+            return scores.get(scores.size() - 1);
+        }
+
+        private void sleep(long ms) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void becomeServer(Game.RemoteServerImpl.ServerType serverType, GameState latestGameState)
+                throws RemoteException {
+            throw new RemoteException("Bots don't serve");
+        }
+
+        @Override
+        public void promote(Game.RemoteServerImpl.ServerType serverType, String sourceId) throws RemoteException {
+            // The primary takes the next node
+            throw new RemoteException("Bots don't serve");
+        }
+
+        @Override
+        public void doubleCheck() {
+        }
+
+        @Override
+        public void onServerChanged(Game.RemoteServerImpl.ServerType serverType, String serverName) {
+        }
+
+        @Override
+        public void gossip(List<Gossip.Record> records) {
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resident memory and AWT/Swing classes loaded per Game process, by game.mode. A Tracker runs in this
+ * JVM, a dedicated server (game.mode=server) takes the primary role, then players of each mode join,
+ * make one move and are measured. The gui mode is today's Game: on a host without a display it loads
+ * AWT and Swing and then gives up on the window, with a display it costs more than measured here.
+ * <p>
+ * Linux only, the RSS is read from /proc.
+ * <p>
+ * Usage: java FootprintBenchmark [port] [players per mode]
+ */
+public class FootprintBenchmark {
+
+    private static final String JAVA = ProcessHandle.current().info().command().orElse("java");
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 24100;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        Tracker.main(new String[]{String.valueOf(port), "15", "10"});
+
+        List<Node> nodes = new ArrayList<>();
+        Node server = new Node(port, "sv", Game.MODE_SERVER);
+        nodes.add(server);
+        server.ready.get(30, TimeUnit.SECONDS);
+
+        System.out.printf("%-10s %10s %12s%n", "mode", "RSS MB", "AWT/Swing classes");
+        for (String mode : new String[]{Game.MODE_GUI, Game.MODE_HEADLESS}) {
+            long rss = 0;
+            int classes = 0;
+            for (int i = 0; i < players; i++) {
+                Node player = new Node(port, mode.charAt(0) + String.valueOf(i), mode);
+                nodes.add(player);
+                player.in.println("0");
+                player.ready.get(30, TimeUnit.SECONDS);
+                // Let the board, if any, be built
+                Thread.sleep(1000);
+                rss += player.rssKb();
+                classes += player.uiClasses.get();
+            }
+            System.out.printf("%-10s %10.1f %12d%n", mode, rss / 1024.0 / players, classes / players);
+        }
+        System.out.printf("%-10s %10.1f %12d%n", "server", server.rssKb() / 1024.0, server.uiClasses.get());
+        nodes.forEach(n -> n.process.destroy());
+        System.exit(0);
+    }
+
+    private static class Node {
+        final Process process;
+        final PrintStream in;
+        final AtomicInteger uiClasses = new AtomicInteger();
+        final CompletableFuture<Void> ready = new CompletableFuture<>();
+
+        Node(int port, String playerId, String mode) throws Exception {
+            List<String> command = new ArrayList<>(List.of(JAVA, "-Dgame.mode=" + mode, "-verbose:class",
+                    "-cp", System.getProperty("java.class.path"), "Game", "127.0.0.1", String.valueOf(port), playerId));
+            process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            in = new PrintStream(process.getOutputStream(), true);
+            Thread reader = new Thread(() -> {
+                try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = out.readLine()) != null) {
+                        if (line.contains("[class,load] java.awt.") || line.contains("[class,load] javax.swing.")
+                                || line.contains("[class,load] sun.awt.")) {
+                            uiClasses.incrementAndGet();
+                        } else if (line.contains("Time to first move") || line.contains("Serving as a dedicated server")) {
+                            ready.complete(null);
+                        }
+                    }
+                } catch (Exception e) {
+                    ready.completeExceptionally(e);
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        long rssKb() throws Exception {
+            for (String line : Files.readAllLines(Paths.get("/proc/" + process.pid() + "/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+            return 0;
+        }
+    }
+}
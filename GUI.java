@@ -7,6 +7,9 @@ import static javax.swing.JLayeredPane.FRAME_CONTENT_LAYER;
 
 public class GUI {
 
+    // The InfoBox lists the top scores only
+    public static final int SCORE_ROWS = 10;
+
     private final JFrame mFrame;
     private final Grid mGrid;
     private final InfoBox mInfoBox;
@@ -34,7 +37,7 @@ public class GUI {
         mFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     }
 
-    public void updateScores(HashMap<String, String> scores) {
+    public void updateScores(List<String> scores) {
         mInfoBox.updateScores(scores);
     }
 
@@ -87,20 +90,10 @@ public class GUI {
             mJLayerPane.setPreferredSize(new Dimension(size, size));
             mOriginPoint.x = mJLayerPane.getBounds().x + 10;  // Calibrated value
             mOriginPoint.y = mJLayerPane.getBounds().y + 15; // Calibrated value
-            JLayeredPane floor = new JLayeredPane();
-
-            // Generate Floors
-            int horizontalOffset;
-            int verticalOffset = mOriginPoint.y;
-            for (int i = 0; i < mGridSize; i++) {
-                horizontalOffset = mOriginPoint.x;
-                for (int j = 0; j < mGridSize; j++) {
-                    Point cellPoint = new Point(horizontalOffset, verticalOffset);
-                    mJLayerPane.add(createCell(cellPoint), FRAME_CONTENT_LAYER);
-                    horizontalOffset += (GRID_CELL_SIZE + GRID_CELL_INTERVAL);
-                }
-                verticalOffset += (GRID_CELL_SIZE + GRID_CELL_INTERVAL);
-            }
+            // One component paints every cell, N * N labels made startup slow on big grids
+            Floor floor = new Floor(mGridSize);
+            floor.setBounds(mOriginPoint.x, mOriginPoint.y, size, size);
+            mJLayerPane.add(floor, FRAME_CONTENT_LAYER);
             this.add(mJLayerPane);
         }
 
@@ -196,14 +189,33 @@ public class GUI {
             mJLayerPane.repaint();
         }
 
-        private JLabel createCell(Point point) {
-            JLabel label = new JLabel();
-            label.setOpaque(true);
-            label.setBackground(Color.getColor("Cell", 0x39A2DB));
-            label.setBorder(BorderFactory.createLineBorder(Color.getColor("Border", 0x053742)));
-            label.setPreferredSize(new Dimension(GRID_CELL_SIZE, GRID_CELL_SIZE));
-            label.setBounds(point.x, point.y, GRID_CELL_SIZE, GRID_CELL_SIZE);
-            return label;
+        static class Floor extends JComponent {
+            private final int mCells;
+
+            Floor(int cells) {
+                mCells = cells;
+            }
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                // Only the cells in the damaged area
+                Rectangle clip = g.getClipBounds();
+                int step = GRID_CELL_SIZE + GRID_CELL_INTERVAL;
+                int from = clip == null ? 0 : Math.max(0, clip.x / step);
+                int to = clip == null ? mCells : Math.min(mCells, (clip.x + clip.width) / step + 1);
+                int fromRow = clip == null ? 0 : Math.max(0, clip.y / step);
+                int toRow = clip == null ? mCells : Math.min(mCells, (clip.y + clip.height) / step + 1);
+                Color cell = Color.getColor("Cell", 0x39A2DB);
+                Color border = Color.getColor("Border", 0x053742);
+                for (int i = fromRow; i < toRow; i++) {
+                    for (int j = from; j < to; j++) {
+                        g.setColor(cell);
+                        g.fillRect(j * step, i * step, GRID_CELL_SIZE, GRID_CELL_SIZE);
+                        g.setColor(border);
+                        g.drawRect(j * step, i * step, GRID_CELL_SIZE - 1, GRID_CELL_SIZE - 1);
+                    }
+                }
+            }
         }
 
         static class TreasureIcon extends JComponent {
@@ -279,38 +291,31 @@ public class GUI {
 
         private static final int INFOBOX_WIDTH = 150;
         private static final String INFOBOX_TITLE = "Scores";
-        private HashMap<String, JLabel> mScores = new HashMap<>();
+        private final JLabel[] mRows = new JLabel[SCORE_ROWS];
 
         InfoBox() {
             setBorder(BorderFactory.createTitledBorder(INFOBOX_TITLE));
-            setLayout(new GridLayout(10, 1));
+            setLayout(new GridLayout(SCORE_ROWS, 1));
             setPreferredSize(new Dimension(INFOBOX_WIDTH, 150));
             setBounds(0, 0, INFOBOX_WIDTH, 150);
             setAlignmentY(Component.TOP_ALIGNMENT);
         }
 
-        void updateScores(HashMap<String, String> scores) {
-            HashMap<String, JLabel> keepingList = new HashMap<>();
-            for (String playerName : scores.keySet()) {
-                String scoreText = scores.get(playerName);
-                if (mScores.containsKey(playerName)) {
-                    JLabel scoreLabel = mScores.get(playerName);
-                    scoreLabel.setText(scores.get(playerName));
-                    keepingList.put(playerName, scoreLabel);
-                    continue;
-                }
-                JLabel scoreLabel = new JLabel(scoreText);
-                this.add(scoreLabel);
-                keepingList.put(playerName, scoreLabel);
-            }
-
-            for (String playerName : mScores.keySet()) {
-                if (keepingList.containsKey(playerName)) {
-                    continue;
+        /**
+         * Rows of the leaderboard, best first. The labels are created once and only relabelled.
+         *
+         * @param scores at most SCORE_ROWS rows
+         */
+        void updateScores(List<String> scores) {
+            for (int i = 0; i < SCORE_ROWS; i++) {
+                String text = i < scores.size() ? scores.get(i) : "";
+                if (mRows[i] == null) {
+                    mRows[i] = new JLabel(text);
+                    this.add(mRows[i]);
+                } else if (!text.equals(mRows[i].getText())) {
+                    mRows[i].setText(text);
                 }
-                this.remove(mScores.get(playerName));
             }
-            mScores = keepingList;
             this.validate();
             this.repaint();
         }
@@ -1,23 +1,55 @@
-import javax.swing.*;
-import java.awt.*;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
 import java.util.Timer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 public class Game {
 
+    // Every client request must finish within this deadline, primary and hedge included
+    public static final int REQUEST_DEADLINE_MS = 2000;
+    public static final int CONNECT_TIMEOUT_MS = 500;
+    // Pause before a move no server answered is sent again, doubling up to the max
+    static final long RESEND_MS = 100;
+    static final long RESEND_MAX_MS = 1000;
+
+    // Set with -Dgame.mode: gui draws the board, headless plays without one, server takes the
+    // primary and backup roles without being a player. Only gui loads AWT and Swing.
+    public static final String MODE_GUI = "gui";
+    public static final String MODE_HEADLESS = "headless";
+    public static final String MODE_SERVER = "server";
+    static final String MODE = System.getProperty("game.mode",
+            Boolean.getBoolean("java.awt.headless") ? MODE_HEADLESS : MODE_GUI);
+
     public volatile GameState gameState;
 
     private final String playerID;
+    // Set with -Dgame.room, players of different rooms never see each other
+    private final String mRoom = System.getProperty("game.room", Tracker.DEFAULT_ROOM);
     public final String PREFIX_URL;
+    private final String mTrackerURL;
     private Tracker.IRmiTrack mTracker;
     public IGameClientListener mListener;
     private final ExecutorService mThreadPool;
@@ -29,26 +61,96 @@ public class Game {
     private final Timer mBackupTimer = new Timer();
 
     private RemoteServerImpl mIRemoteServerImplCallback;
-    private GUI mGui;
+    // Set while the primary keeps us as a standby
+    private volatile Standby mStandby;
+    // Null in the headless and server modes
+    private volatile Board mBoard;
+
+    private final AtomicLong mMoveSeq = new AtomicLong();
+    private final LatencyWindow mPrimaryLatency = new LatencyWindow(128, 20, REQUEST_DEADLINE_MS);
+    private final MovePredictor mPredictor;
+    private MappedStateView mStateView;
+    private final Gossip mGossip;
+    private final AtomicBoolean mFirstMoveDone = new AtomicBoolean();
+    // Null if game.heartbeat.udp=false or the channel can't be opened
+    private final UdpHeartbeat mUdp = UdpHeartbeat.open();
+    // Answers from the servers are handled here, the input loop and the board never wait for the network
+    private final ExecutorService mCallbacks = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "game-callbacks");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AsyncGameClient mPrimaryClient;
+    private final AsyncGameClient mBackupClient;
+    // Input thread only: the moves are sent one after the other, a server drops a move id below one it applied
+    private CompletableFuture<Void> mMoves = CompletableFuture.completedFuture(null);
+    private CompletableFuture<Void> mQuitting = CompletableFuture.completedFuture(null);
+    // Stops resending a move no server answered
+    private volatile boolean mQuit;
 
     private Game(String host, int port, String playerID) {
         this.playerID = playerID;
-        this.PREFIX_URL = "rmi://" + host + ":" + port + "/";
+        this.PREFIX_URL = "rmi://" + host + ":" + port + "/" + Tracker.roomPrefix(mRoom);
+        this.mTrackerURL = "rmi://" + host + ":" + port + "/" + Tracker.RMI_NAME;
         this.mThreadPool = Executors.newFixedThreadPool(50);
+        this.mPredictor = new MovePredictor(playerID);
+        this.mPrimaryClient = new AsyncGameClient(this::getPrimaryServer, mThreadPool, mCallbacks);
+        this.mBackupClient = new AsyncGameClient(this::getBackupServer, mThreadPool, mCallbacks);
+        this.mGossip = new Gossip(playerID,
+                () -> gameState == null ? Collections.emptyList() : gameState.playerIds(),
+                gossipTransport(PREFIX_URL, mThreadPool), this::onGossip, new Random(), Gossip.FANOUT);
     }
 
+    /**
+     * Pushes gossip to the client listeners of a room, off the caller's thread
+     */
+    static Gossip.Transport gossipTransport(String prefixURL, ExecutorService threadPool) {
+        return (peer, records) -> {
+            try {
+                threadPool.submit(() -> {
+                    String url = prefixURL + "client/" + peer;
+                    try {
+                        ((IGameClientListener) StubCache.lookup(url)).gossip(records);
+                    } catch (Exception e) {
+                        StubCache.evict(url);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+            }
+        };
+    }
+
+    private void onGossip(Gossip.Record record) {
+        if (!record.key.startsWith(Gossip.ROLE)) {
+            return;
+        }
+        try {
+            mLocalListener.onServerChanged(
+                    RemoteServerImpl.ServerType.valueOf(record.key.substring(Gossip.ROLE.length())), record.value);
+        } catch (RemoteException | IllegalArgumentException e) {
+            System.out.println("Bad gossip " + record.key);
+        }
+    }
+
+    /**
+     * Open the board in the gui mode, it is built on the event thread and the caller goes on right away
+     */
     public void show() {
-        if (mGui == null) {
-            mGui = new GUI(new Point(200, 300), playerID, gameState.N);
+        if (!MODE_GUI.equals(MODE)) {
+            return;
+        }
+        if (mBoard == null) {
+            mBoard = new SwingBoard(playerID, gameState.N);
         }
+        mBoard.show();
         updateUI();
-        mGui.show();
     }
 
     public void hide() {
-        if (mGui != null) {
-            final GUI gui = mGui;
-            SwingUtilities.invokeLater(gui::hide);
+        Board board = mBoard;
+        if (board != null) {
+            board.hide();
         }
     }
 
@@ -58,31 +160,45 @@ public class Game {
         }
         System.out.println();
         this.gameState = gameState;
+        mPredictor.reconcile(gameState);
         updateServer();
         updateUI();
     }
 
     public void updateUI() {
-        SwingUtilities.invokeLater(() -> {
-            if (gameState == null || mGui == null) {
-                return;
-            }
-            if (gameState.treasures.size() == 0) {
-                return;
+        Board board = mBoard;
+        GameState state = gameState;
+        if (board == null || state == null) {
+            return;
+        }
+        board.update(state, playerID, mPredictor.predictedPosition(), topScoreRows(state));
+    }
+
+    /**
+     * One row per leaderboard entry, only for the top rows the InfoBox can show
+     */
+    private List<String> topScoreRows(GameState state) {
+        List<Leaderboard.Entry> top = state.getTopScores(GUI.SCORE_ROWS);
+        List<String> rows = new ArrayList<>(top.size());
+        for (Leaderboard.Entry entry : top) {
+            String server = "";
+            if ((PREFIX_URL + entry.playerId).equals(primaryId)) {
+                server = RemoteServerImpl.ServerType.PRIMARY_SERVER.toString();
+            } else if ((PREFIX_URL + entry.playerId).equals(backupId)) {
+                server = RemoteServerImpl.ServerType.BACKUP_SERVER.toString();
             }
-            mGui.updateTreasures(gameState.getTreasures());
-            mGui.updatePlayers(gameState.getLatestPlayers());
-            mGui.updateScores(gameState.getLatestScores());
-        });
+            rows.add(entry.playerId + "  " + entry.score + "  " + server);
+        }
+        return rows;
     }
 
     private void updateServer() {
-        Optional<Player> primaryPlayer = gameState.players
+        Optional<Player> primaryPlayer = gameState.nodes()
                 .stream()
                 .filter(p -> p.serverType == RemoteServerImpl.ServerType.PRIMARY_SERVER)
                 .findAny();
         primaryPlayer.ifPresent(player -> setPrimaryId(player.playerID));
-        Optional<Player> backupPlayer = gameState.players
+        Optional<Player> backupPlayer = gameState.nodes()
                 .stream()
                 .filter(p -> p.serverType == RemoteServerImpl.ServerType.BACKUP_SERVER)
                 .findAny();
@@ -115,9 +231,11 @@ public class Game {
             mIRemoteServerImplCallback = new RemoteServerImpl(this.mThreadPool,
                     this.gameState,
                     this.mTracker,
+                    mRoom,
                     serverType,
                     PREFIX_URL,
                     playerID);
+            mIRemoteServerImplCallback.setUdpHeartbeat(mUdp);
             Naming.rebind(PREFIX_URL + playerID, mIRemoteServerImplCallback);
             updateTrackerServer(playerID, serverType);
             mIRemoteServerImplCallback.heartbeatChecking();
@@ -129,7 +247,7 @@ public class Game {
     public void updateTrackerServer(String name, RemoteServerImpl.ServerType serverType) {
         mThreadPool.submit(() -> {
             try {
-                mTracker.updateServer(name, serverType);
+                mTracker.updateServer(mRoom, name, serverType);
             } catch (Exception e) {
                 // pass
             }
@@ -157,11 +275,22 @@ public class Game {
 
     public void connectToTracker() {
         try {
-            mTracker = (Tracker.IRmiTrack) Naming.lookup(Tracker.RMI_NAME);
+            mTracker = (Tracker.IRmiTrack) Naming.lookup(mTrackerURL);
             Player mClient = new Player(playerID);
-            Tracker.GameProvision gameProvision = mTracker.connect(mClient);
+            mClient.dedicated = MODE_SERVER.equals(MODE);
+            if (mUdp != null) {
+                mClient.heartbeatHost = mUdp.getHost();
+                mClient.heartbeatPort = mUdp.getPort();
+            }
+            Tracker.GameProvision gameProvision = mTracker.connect(mRoom, mClient);
             gameState = new GameState(gameProvision.getN(), gameProvision.getK());
-            gameState.players.addAll(gameProvision.getClients());
+            gameProvision.getClients().forEach(p -> {
+                if (p.dedicated) {
+                    gameState.addServer(p);
+                } else {
+                    gameState.addPlayer(p);
+                }
+            });
         } catch (Exception e) {
             System.out.println("Connect to tracker failed " + e.getMessage());
         }
@@ -170,7 +299,7 @@ public class Game {
     public void disconnectToTracker() {
         if (mTracker != null) {
             try {
-                mTracker.disconnect(new Player(playerID));
+                mTracker.disconnect(mRoom, new Player(playerID));
             } catch (RemoteException e) {
                 System.out.println("Disconnect failed");
             }
@@ -178,12 +307,22 @@ public class Game {
     }
 
     public void quit() {
+        mQuit = true;
+        EventLog.info("Moves rolled back", playerID, mPredictor.getMispredictions());
+        if (mStandby != null) {
+            mStandby.stop();
+        }
         mPrimaryTimer.cancel();
         mBackupTimer.cancel();
         hide();
-        mGui = null;
+        mBoard = null;
         unregisterServer();
         disconnectToTracker();
+        if (mUdp != null) {
+            mUdp.close();
+        }
+        // Quit runs as a shutdown hook, the log drainer is a daemon thread
+        EventLog.flush();
     }
 
     // The normal user becomes a server
@@ -196,11 +335,47 @@ public class Game {
             updateServer();
         }
 
+        @Override
+        public void promote(RemoteServerImpl.ServerType serverType, String sourceId) {
+            if (serverType == RemoteServerImpl.ServerType.STANDBY_SERVER) {
+                startStandby();
+                return;
+            }
+            // Pull in the background, the caller only waits for this call to return
+            mThreadPool.submit(() -> {
+                try {
+                    long start = System.nanoTime();
+                    Standby standby = mStandby;
+                    mStandby = null;
+                    GameState warm = standby == null ? null : standby.takeOver(sourceId);
+                    if (warm != null) {
+                        // Only a role flip, the state is here already
+                        EventLog.info("Standby promoted, ms", playerID,
+                                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        becomeServer(serverType, warm);
+                        return;
+                    }
+                    IGameCallback source = (IGameCallback) Naming.lookup(PREFIX_URL + sourceId);
+                    GameState latest = StateTransfer.pull(source).state;
+                    EventLog.info("Promotion state pulled, ms", playerID,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                    becomeServer(serverType, latest);
+                } catch (Exception e) {
+                    System.out.println("Promotion failed " + e.getMessage());
+                }
+            });
+        }
+
         @Override
         public void doubleCheck() {
             // Return nothing
         }
 
+        @Override
+        public void gossip(List<Gossip.Record> records) {
+            mGossip.receive(records);
+        }
+
         @Override
         public void onServerChanged(RemoteServerImpl.ServerType serverType, String serverName) throws RemoteException {
             if (serverType == RemoteServerImpl.ServerType.PRIMARY_SERVER) {
@@ -212,66 +387,272 @@ public class Game {
         }
     };
 
-    public void join(Player player) {
-        Runnable joinPrimary = () -> {
-            try {
-                if (player.serverType == RemoteServerImpl.ServerType.PRIMARY_SERVER) {
-                    registerServer(RemoteServerImpl.ServerType.PRIMARY_SERVER);
-                    updateTrackerServer(player.playerID, RemoteServerImpl.ServerType.PRIMARY_SERVER);
-                    setPrimaryId(player.playerID);
+    /**
+     * Keep a copy of the state from the primary from now on, see Standby
+     */
+    private void startStandby() {
+        if (mStandby != null) {
+            return;
+        }
+        Standby standby = new Standby(playerID,
+                () -> primaryId == null ? null : primaryId.substring(PREFIX_URL.length()),
+                () -> {
+                    try {
+                        String id = mTracker.getServer(mRoom, RemoteServerImpl.ServerType.PRIMARY_SERVER);
+                        if (id != null) {
+                            // The stub we hold may be of a process that left
+                            StubCache.evict(PREFIX_URL + id);
+                            setPrimaryId(id);
+                        }
+                        return id;
+                    } catch (RemoteException e) {
+                        return null;
+                    }
+                },
+                id -> {
+                    try {
+                        return (IGameCallback) StubCache.lookup(PREFIX_URL + id);
+                    } catch (Exception e) {
+                        StubCache.evict(PREFIX_URL + id);
+                        return null;
+                    }
+                });
+        mStandby = standby;
+        mBackupTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (!standby.follow()) {
+                    cancel();
                 }
-                updateLocalGameState(getPrimaryServer().join(player));
-                System.out.println("---join Primary  success " + primaryId);
-            } catch (Exception e) {
+            }
+        }, 0, Standby.PERIOD_MS);
+        EventLog.info("Following the primary as a standby", playerID);
+    }
+
+    public void join(Player player) {
+        CompletableFuture.runAsync(() -> {
+            if (player.serverType == RemoteServerImpl.ServerType.PRIMARY_SERVER) {
+                registerServer(RemoteServerImpl.ServerType.PRIMARY_SERVER);
+                updateTrackerServer(player.playerID, RemoteServerImpl.ServerType.PRIMARY_SERVER);
+                setPrimaryId(player.playerID);
+            }
+        }, mThreadPool).thenCompose(v -> mPrimaryClient.join(player)).whenCompleteAsync((state, e) -> {
+            if (e != null) {
                 System.out.println("Primary join failed " + primaryId);
+                return;
             }
-        };
-        Runnable joinBackup = () -> {
-            try {
-                Thread.sleep(10);
-                if (player.serverType == RemoteServerImpl.ServerType.BACKUP_SERVER) {
-                    registerServer(RemoteServerImpl.ServerType.BACKUP_SERVER);
-                    setBackupId(player.playerID);
-                    updateTrackerServer(player.playerID, RemoteServerImpl.ServerType.BACKUP_SERVER);
-                }
-                updateLocalGameState(getBackupServer().join(player));
-                System.out.println("---join Backup  success " + backupId);
-            } catch (Exception e) {
+            updateLocalGameState(state);
+            System.out.println("---join Primary  success " + primaryId);
+        }, mCallbacks);
+        CompletableFuture.runAsync(() -> {
+            if (player.serverType == RemoteServerImpl.ServerType.BACKUP_SERVER) {
+                registerServer(RemoteServerImpl.ServerType.BACKUP_SERVER);
+                setBackupId(player.playerID);
+                updateTrackerServer(player.playerID, RemoteServerImpl.ServerType.BACKUP_SERVER);
+            }
+        }, mThreadPool).thenCompose(v -> mBackupClient.join(player)).whenCompleteAsync((state, e) -> {
+            if (e != null) {
                 System.out.println("Backup join failed " + backupId);
+                return;
             }
-        };
-        mThreadPool.submit(joinPrimary);
-        mThreadPool.submit(joinBackup);
+            updateLocalGameState(state);
+            System.out.println("---join Backup  success " + backupId);
+        }, mCallbacks);
     }
 
-    private boolean operate(String moveType, Point pos) {
-        //TODO: We should to think whether we need thread pool to submit parallel missions
-        GameState primaryState = safetyOperate(getPrimaryServer(), moveType, pos, playerID);
-        if (primaryState != null) {
-            updateLocalGameState(primaryState);
-            updateUI();
+    private boolean operate(String moveType) {
+        if ("9".equals(moveType)) {
+            mQuit = true;
+            // After the moves already typed
+            mQuitting = mMoves.handle((v, e) -> v).thenCompose(v -> CompletableFuture.allOf(
+                    safetyQuit(mPrimaryClient, playerID), safetyQuit(mBackupClient, playerID)));
+            return true;
+        }
+        // Anything that is not a move just refreshes the state
+        byte opcode = (byte) Math.max(GameState.opcode(moveType), GameState.OP_REFRESH);
+        if (opcode == GameState.OP_REFRESH && refreshFromStateView()) {
             return false;
         }
-        GameState backupState = safetyOperate(getBackupServer(), moveType, pos, playerID);
-        if (backupState != null) {
-            updateLocalGameState(backupState);
-            updateUI();
+        long moveId = mMoveSeq.incrementAndGet();
+        mPredictor.predict(moveId, opcode, gameState);
+        updateUI();
+        mMoves = mMoves.handle((v, e) -> v).thenCompose(v -> sendMove(opcode, moveId, 1))
+                .thenAcceptAsync(this::onMoveAnswered, mCallbacks);
+        return false;
+    }
+
+    /**
+     * On the callback thread, the answer to a move in the order the moves were typed
+     */
+    private void onMoveAnswered(GameState state) {
+        if (state == null) {
+            // Given up because the game quits
+            return;
+        }
+        if (mFirstMoveDone.compareAndSet(false, true)) {
+            EventLog.info("Time to first move, ms", playerID,
+                    System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+        }
+        updateLocalGameState(state);
+        updateUI();
+    }
+
+    /**
+     * Read the primary's state from the memory-mapped view when it runs on this host
+     *
+     * @return false if there is no fresh view, refresh over RMI then
+     */
+    private boolean refreshFromStateView() {
+        String primary = primaryId;
+        if (MappedStateView.DIR == null || primary == null) {
             return false;
         }
+        if (mStateView == null) {
+            mStateView = MappedStateView.openReader(PREFIX_URL);
+            if (mStateView == null) {
+                return false;
+            }
+        }
+        GameState state = mStateView.read(primary.substring(PREFIX_URL.length()));
+        if (state == null) {
+            return false;
+        }
+        updateLocalGameState(state);
         return true;
     }
 
-    private GameState safetyOperate(IGameCallback server, String moveType, Point pos, String id) {
+    /**
+     * Send the move to the primary, and to the backup as well once the primary misses its p99
+     * budget or fails, if a backup is known. Both carry the same move id, so the servers apply it at most once.
+     * The first state that comes back within the deadline wins.
+     *
+     * @return completes with null if neither server answered in time, fails with OverloadedException
+     * if a server rejected the move
+     */
+    private CompletableFuture<GameState> hedgedOperate(byte opcode, long moveId) {
+        CompletableFuture<GameState> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        AtomicBoolean hedged = new AtomicBoolean();
+        Runnable hedge = () -> {
+            String backup = backupId;
+            // No backup to hedge to yet, or it is the primary we asked already
+            if (backup == null || backup.equals(primaryId)) {
+                return;
+            }
+            if (!result.isDone() && hedged.compareAndSet(false, true)) {
+                pending.incrementAndGet();
+                safetyOperate(mBackupClient, opcode, playerID, moveId).whenComplete((state, e) -> {
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        settle(result, pending, state);
+                    }
+                });
+            }
+        };
+        long start = System.nanoTime();
+        safetyOperate(mPrimaryClient, opcode, playerID, moveId).whenComplete((state, e) -> {
+            if (e != null) {
+                // Rejected: no latency sample, a quick rejection says nothing of how fast moves are
+                // served, and no hedge, the primary is alive and shedding load
+                result.completeExceptionally(e);
+                return;
+            }
+            if (state != null) {
+                mPrimaryLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } else {
+                hedge.run();
+            }
+            settle(result, pending, state);
+        });
+        CompletableFuture.delayedExecutor(mPrimaryLatency.p99(), TimeUnit.MILLISECONDS, mCallbacks).execute(hedge);
+        return result.completeOnTimeout(null, REQUEST_DEADLINE_MS, TimeUnit.MILLISECONDS).thenApply(state -> {
+            if (state == null) {
+                System.out.println("Operate missed the deadline, maybe both servers are down");
+            }
+            return state;
+        });
+    }
+
+    /**
+     * hedgedOperate until a server answers. A move no server answered, or one a server rejected,
+     * stays predicted and is sent again with the same move id, so it is applied once however many
+     * tries reach a server. A rejected move waits the server's retry-after hint. Before sending an
+     * unanswered one again the roles are looked up at the tracker, a failover may have moved them.
+     *
+     * @return completes with null only if the game quits meanwhile
+     */
+    private CompletableFuture<GameState> sendMove(byte opcode, long moveId, int attempt) {
+        return hedgedOperate(opcode, moveId).handle((state, e) -> {
+            if (state != null || mQuit) {
+                return CompletableFuture.completedFuture(state);
+            }
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof AdmissionControl.OverloadedException) {
+                long retryAfterMs = ((AdmissionControl.OverloadedException) cause).retryAfterMs;
+                System.out.println("Server busy, retry after " + retryAfterMs + "ms");
+                return CompletableFuture.supplyAsync(() -> null,
+                                CompletableFuture.delayedExecutor(retryAfterMs, TimeUnit.MILLISECONDS, mThreadPool))
+                        .thenCompose(v -> sendMove(opcode, moveId, attempt));
+            }
+            EventLog.log(EventLog.Level.WARN, "Move not answered, sending it again", playerID, null, moveId);
+            long delayMs = Math.min(RESEND_MAX_MS, RESEND_MS << Math.min(attempt - 1, 10));
+            return CompletableFuture.runAsync(this::rediscoverServers,
+                            CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS, mThreadPool))
+                    .thenCompose(v -> sendMove(opcode, moveId, attempt + 1));
+        }).thenCompose(next -> next);
+    }
+
+    /**
+     * Ask the tracker who the primary and the backup are, keep what we know if it can't tell
+     */
+    private void rediscoverServers() {
+        if (mTracker == null) {
+            return;
+        }
         try {
-            if ("9".equals(moveType)) {
-                server.quit(id);
-                return null;
+            String primary = mTracker.getServer(mRoom, RemoteServerImpl.ServerType.PRIMARY_SERVER);
+            String backup = mTracker.getServer(mRoom, RemoteServerImpl.ServerType.BACKUP_SERVER);
+            if (primary != null) {
+                setPrimaryId(primary);
             }
-            return server.Move(id, moveType, pos);
-        } catch (Exception e) {
-            System.out.println("Operate Failed, maybe the server is down");
+            if (backup != null) {
+                setBackupId(backup);
+            }
+        } catch (RemoteException e) {
+            System.out.println("Tracker not reachable, retrying the servers we know");
         }
-        return null;
+    }
+
+    private static void settle(CompletableFuture<GameState> result, AtomicInteger pending, GameState state) {
+        if (state != null) {
+            result.complete(state);
+        } else if (pending.decrementAndGet() == 0) {
+            result.complete(null);
+        }
+    }
+
+    private CompletableFuture<Void> safetyQuit(AsyncGameClient server, String id) {
+        return server.quit(id).exceptionally(e -> {
+            System.out.println("Quit Failed, maybe the server is down");
+            return null;
+        });
+    }
+
+    /**
+     * @return completes with null if the server failed, fails with OverloadedException if it
+     * rejected the move
+     */
+    private CompletableFuture<GameState> safetyOperate(AsyncGameClient server, byte opcode, String id, long moveId) {
+        return server.move(id, opcode, moveId).exceptionallyCompose(e -> {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof AdmissionControl.OverloadedException) {
+                // Alive but shedding load, not a failure to hedge
+                return CompletableFuture.failedFuture(cause);
+            }
+            System.out.println("Operate Failed, maybe the server is down");
+            return CompletableFuture.completedFuture(null);
+        });
     }
 
     private IGameCallback getPrimaryServer() {
@@ -310,18 +691,26 @@ public class Game {
 
         final Game game = new Game(trackerIP, trackerPort, playerID);
 
+        // The listener does not need the tracker, bind it while we talk to the tracker
+        Future<?> listener = game.mThreadPool.submit(game::registerClientListener);
         game.connectToTracker();
         if (!game.isConnected()) {
             System.err.println("Connect to tracker failed, please check system settings");
             return;
         }
-        if (game.gameState.players.size() == 0) {
+        if (game.gameState.nodes().isEmpty()) {
             System.err.println("Query clients pool failed, quitting...");
             return;
         }
-
-        game.registerClientListener();
-        game.gameState.players
+        // The primary's heartbeat drops a player it can't reach, be reachable before joining
+        try {
+            listener.get();
+        } catch (InterruptedException | ExecutionException e) {
+            System.err.println("Register client listener failed " + e.getMessage());
+        }
+        EventLog.info("Connected to tracker, ms", playerID,
+                System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime());
+        game.gameState.nodes()
                 .stream()
                 .filter(p -> p.serverType == RemoteServerImpl.ServerType.PRIMARY_SERVER)
                 .findAny()
@@ -329,14 +718,14 @@ public class Game {
                     game.setPrimaryId(player.playerID);
                 });
 
-        game.gameState.players
+        game.gameState.nodes()
                 .stream()
                 .filter(p -> p.serverType == RemoteServerImpl.ServerType.BACKUP_SERVER)
                 .findAny()
                 .ifPresent(player -> {
                     game.setBackupId(player.playerID);
                 });
-        game.gameState.players.stream()
+        game.gameState.nodes().stream()
                 .filter(p -> Objects.equals(p.playerID, game.playerID))
                 .findAny().ifPresent(p -> {
                     game.join(p);
@@ -344,6 +733,27 @@ public class Game {
                 });
 
         Runtime.getRuntime().addShutdownHook(new Thread(game::quit));
+        // Pass on the role changes we heard about
+        game.mPrimaryTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                game.mGossip.tick();
+            }
+        }, Gossip.PERIOD_MS, Gossip.PERIOD_MS);
+        if (MappedStateView.DIR != null) {
+            // Keep the board current from the state view, it costs no RPC when the primary is local
+            game.mPrimaryTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    game.refreshFromStateView();
+                }
+            }, 100, 100);
+        }
+        if (MODE_SERVER.equals(MODE)) {
+            // No moves to read, serve until the process is stopped
+            System.out.println("Serving as a dedicated server " + game.playerID);
+            return;
+        }
 
         // 4.Scan used for getting input
         try {
@@ -351,18 +761,11 @@ public class Game {
             while (scan.hasNextLine()) {
                 String moveType = scan.next();
                 moveType = moveType.trim();
-                Point curPos = null;
-                for (Player p : game.gameState.players) {
-                    if (p.playerID.equals(game.playerID)) {
-                        curPos = p.position;
-                    }
-                }
-                if (curPos == null) {
+                if (game.gameState.findPlayer(game.playerID) == null) {
                     System.out.printf("Failed to get current player %s !!!!!\n", game.playerID);
                     return;
                 }
-                if (game.operate(moveType, curPos)) {
-                    game.quit();
+                if (game.operate(moveType)) {
                     break;
                 }
             }
@@ -370,6 +773,43 @@ public class Game {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        // Let the quit reach the servers, then the pool and the exported listener would keep the JVM
+        // up, the shutdown hook quits the game
+        game.mQuitting.completeOnTimeout(null, REQUEST_DEADLINE_MS, TimeUnit.MILLISECONDS).join();
+        System.exit(0);
+    }
+
+    /**
+     * Sliding window of recent primary latencies, used as the hedging budget
+     */
+    static class LatencyWindow {
+        private final long[] mSamples;
+        private final long mMinMs;
+        private final long mMaxMs;
+        private int mCount;
+        private int mNext;
+
+        LatencyWindow(int size, long minMs, long maxMs) {
+            mSamples = new long[size];
+            mMinMs = minMs;
+            mMaxMs = maxMs;
+        }
+
+        synchronized void record(long latencyMs) {
+            mSamples[mNext] = latencyMs;
+            mNext = (mNext + 1) % mSamples.length;
+            mCount = Math.min(mCount + 1, mSamples.length);
+        }
+
+        synchronized long p99() {
+            if (mCount == 0) {
+                return mMinMs;
+            }
+            long[] sorted = Arrays.copyOf(mSamples, mCount);
+            Arrays.sort(sorted);
+            long p99 = sorted[(int) Math.ceil(mCount * 0.99) - 1];
+            return Math.max(mMinMs, Math.min(mMaxMs, p99));
+        }
     }
 
     public static class IGameClientImpl extends UnicastRemoteObject implements IGameClientListener, Serializable {
@@ -377,7 +817,7 @@ public class Game {
         final IGameClientListener mLocalListener;
 
         public IGameClientImpl(IGameClientListener listener) throws RemoteException {
-            super();
+            super(0, RmiSocketFactory.defaults(), RmiSocketFactory.defaults());
             mLocalListener = listener;
         }
 
@@ -386,6 +826,11 @@ public class Game {
             mLocalListener.becomeServer(serverType, latestGameState);
         }
 
+        @Override
+        public void promote(RemoteServerImpl.ServerType serverType, String sourceId) throws RemoteException {
+            mLocalListener.promote(serverType, sourceId);
+        }
+
         @Override
         public void doubleCheck() throws RemoteException {
 
@@ -396,25 +841,91 @@ public class Game {
             mLocalListener.onServerChanged(serverType, serverName);
         }
 
+        @Override
+        public void gossip(List<Gossip.Record> records) throws RemoteException {
+            mLocalListener.gossip(records);
+        }
+
     }
 
     public interface IGameClientListener extends Remote, Serializable {
         void becomeServer(RemoteServerImpl.ServerType serverType, GameState latestGameState) throws RemoteException;
 
+        /**
+         * Become a server with a copy of the state pulled from sourceId in chunks, returns right away
+         */
+        void promote(RemoteServerImpl.ServerType serverType, String sourceId) throws RemoteException;
+
         void doubleCheck() throws RemoteException;
 
         void onServerChanged(RemoteServerImpl.ServerType serverType, String serverName) throws RemoteException;
+
+        /**
+         * Role and membership records from a peer, see Gossip
+         */
+        void gossip(List<Gossip.Record> records) throws RemoteException;
     }
 
     public static class RemoteServerImpl extends UnicastRemoteObject implements IGameCallback, Serializable {
 
-        private final Timer mTimer = new Timer();
+        // One scheduler thread drives the heartbeat of every server in the JVM, the rounds run on the pool
+        private static final ScheduledExecutorService HEARTBEATS = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private ScheduledFuture<?> mHeartbeat;
+        private final AtomicBoolean mHeartbeatRunning = new AtomicBoolean();
         private final Tracker.IRmiTrack mTracker;
-        private ServerType mServerType;
-        private GameState mGameState;
+        private final String mRoom;
+        private boolean mAssignBackup = true;
+        private int mStandbyCount = Standby.COUNT;
+        private volatile ServerType mServerType;
+        private volatile GameState mGameState;
         private final String mPrefixURL;
         private final String mServerName;
         private final ExecutorService mThreadPool;
+        private final Random mRandom = new Random();
+        private final Random mGossipRandom = new Random();
+        // System.nanoTime, or the virtual clock of ClusterSimulator
+        private LongSupplier mClock = System::nanoTime;
+        private AdmissionControl mAdmission = AdmissionControl.defaults();
+        private final StateTransfer.Source mTransfers = new StateTransfer.Source();
+        private final Gossip mGossip;
+        private MappedStateView mStateView;
+        // Primary only, null unless game.trace.dir is set
+        private volatile Trace.Writer mTrace;
+        // Primary only, started by the first move when game.tick.hz is set, see TickLoop
+        private int mTickHz = TickLoop.HZ;
+        private volatile TickLoop mTicks;
+
+        // Per room metrics, see getRoomStats
+        private final AtomicLong mMoves = new AtomicLong();
+        private final AtomicLong mDuplicateMoves = new AtomicLong();
+        private final AtomicLong mJoins = new AtomicLong();
+        private final AtomicLong mQuits = new AtomicLong();
+        private final AtomicLong mHeartbeatRounds = new AtomicLong();
+        private final AtomicLong mProbes = new AtomicLong();
+
+        // A node heard from within this long is not probed: moves prove a player alive, replication
+        // pulls prove the backup alive. Set with -Dgame.liveness.silentMs, 0 probes every node every round.
+        private long mSilentNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("game.liveness.silentMs", 500));
+        private volatile long mLastReplicationNanos = Long.MIN_VALUE;
+        // Backup only: the last sync the primary answered, a hedged move trusts it instead of syncing
+        private volatile long mPrimaryHeardNanos = Long.MIN_VALUE;
+        // One check of the primary at a time, the heartbeat's and the ones moves start
+        private final AtomicBoolean mCheckingPrimary = new AtomicBoolean();
+        // Last followChanges of each standby, it proves the standby alive
+        private final Map<String, Long> mStandbyHeard = new ConcurrentHashMap<>();
+        // Successful probes of silent nodes, only touched by the heartbeat rounds, which never overlap
+        private final Map<String, Long> mLastProbeOk = new HashMap<>();
+        // The process's datagram channel, PINGs silent nodes before any RMI probe
+        private volatile UdpHeartbeat mUdp;
+        // Primary only: the spectators fed directly, and the version last streamed to them
+        private final SpectatorRelay mSpectators;
+        private long mSpectatorVersion = -1;
+        private long mSpectatorSentNanos;
 
         public RemoteServerImpl(ExecutorService threadPool,
                                 GameState gameState,
@@ -423,299 +934,789 @@ public class Game {
                                 String prefixURL,
                                 String servername)
                 throws RemoteException {
-            super();
+            this(threadPool, gameState, tracker, Tracker.DEFAULT_ROOM, serverType, prefixURL, servername);
+        }
+
+        public RemoteServerImpl(ExecutorService threadPool,
+                                GameState gameState,
+                                Tracker.IRmiTrack tracker,
+                                String room,
+                                ServerType serverType,
+                                String prefixURL,
+                                String servername)
+                throws RemoteException {
+            super(0, RmiSocketFactory.forServers(), RmiSocketFactory.forServers());
             this.mThreadPool = threadPool;
             this.mGameState = gameState;
-            this.mGameState.players.stream().filter(p -> p.playerID.equals(servername)).findAny().ifPresent(p -> p.serverType = serverType);
+            this.mGameState.nodes().stream().filter(p -> p.playerID.equals(servername)).findAny().ifPresent(p -> p.serverType = serverType);
             this.mTracker = tracker;
+            this.mRoom = room;
             this.mServerType = serverType;
             this.mPrefixURL = prefixURL;
             this.mServerName = servername;
             if (mGameState.treasures.size() == 0) {
                 generateTreasure(mGameState.K);
             }
+            // The field, not the state given here: a backup replaces its state on every sync
+            this.mGossip = new Gossip(servername, () -> mGameState.playerIds(), gossipTransport(prefixURL, threadPool),
+                    record -> { }, mGossipRandom, Gossip.FANOUT);
+            this.mSpectators = new SpectatorRelay(threadPool, () -> {
+                synchronized (mGameState) {
+                    return SpectatorRelay.Frame.keyframe(mGameState.snapshot(), mGameState.version());
+                }
+            });
+            if (serverType == ServerType.PRIMARY_SERVER) {
+                startTrace();
+            }
+        }
+
+        /**
+         * Record from here on, see Trace. The random draws restart from the recorded seed.
+         */
+        private void startTrace() {
+            if (Trace.DIR == null) {
+                return;
+            }
+            synchronized (mGameState) {
+                long seed = mRandom.nextLong();
+                mRandom.setSeed(seed);
+                mTrace = Trace.Writer.open(mPrefixURL, mServerName, mGameState, seed);
+            }
+        }
+
+        /**
+         * For TraceReplay: make the same random draws as the traced primary. ClusterSimulator seeds
+         * the gossip peers too, a run is reproduced from its seed.
+         */
+        void setRandomSeed(long seed) {
+            mRandom.setSeed(seed);
+            mGossipRandom.setSeed(~seed);
+        }
+
+        /**
+         * For ClusterSimulator: every time this server reads, in nanoseconds, comes from the clock
+         */
+        void setClock(LongSupplier clock) {
+            mClock = clock;
+            mGossip.setClock(() -> TimeUnit.NANOSECONDS.toMillis(clock.getAsLong()));
         }
 
         public IGameClientListener getClientListenerById(String name) {
             try {
-                return (IGameClientListener) Naming.lookup(mPrefixURL + "client/" + name);
+                return (IGameClientListener) StubCache.lookup(mPrefixURL + "client/" + name);
             } catch (NotBoundException | MalformedURLException | RemoteException e) {
-                System.out.println("Get client listen failed");
+                EventLog.warn("Get client listen failed", name);
             }
             return null;
         }
 
         public void heartbeatChecking() {
-            mTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    if (mServerType == ServerType.PRIMARY_SERVER) {
+            mHeartbeat = HEARTBEATS.scheduleWithFixedDelay(() -> {
+                // A slow round (dead clients time out) skips ticks instead of piling up
+                if (!mHeartbeatRunning.compareAndSet(false, true)) {
+                    return;
+                }
+                try {
+                    mThreadPool.submit(() -> {
+                        try {
+                            heartbeatRound();
+                        } finally {
+                            mHeartbeatRunning.set(false);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    mHeartbeatRunning.set(false);
+                }
+            }, 0, 100, TimeUnit.MILLISECONDS);
+        }
 
-                        // Check backup alive and assign backup
-                        if (mGameState.players.size() > 1 &&
-                                mGameState.players.stream().noneMatch(p -> p.serverType == ServerType.BACKUP_SERVER)) {
-                            assignNormalPayerServer("", ServerType.BACKUP_SERVER);
+        /**
+         * One heartbeat, heartbeatChecking runs it every 100ms, ClusterSimulator on its virtual clock
+         */
+        void heartbeatRound() {
+            mHeartbeatRounds.incrementAndGet();
+            if (mServerType == ServerType.PRIMARY_SERVER) {
+
+                // Check backup alive and assign backup
+                List<Player> nodes = mGameState.nodes();
+                if (mAssignBackup && nodes.size() > 1 &&
+                        nodes.stream().noneMatch(p -> p.serverType == ServerType.BACKUP_SERVER)) {
+                    assignNormalPayerServer("", ServerType.BACKUP_SERVER);
+                }
+                // Standbys once there is a backup, the first idle node goes to the backup role
+                if (mAssignBackup && nodes.stream().anyMatch(p -> p.serverType == ServerType.BACKUP_SERVER)
+                        && nodes.stream().filter(p -> p.serverType == ServerType.STANDBY_SERVER).count() < mStandbyCount
+                        && nodes.stream().anyMatch(p -> p.serverType == null)) {
+                    assignNormalPayerServer("", ServerType.STANDBY_SERVER);
+                }
+                UdpHeartbeat udp = mUdp;
+                for (Player p : nodes) {
+                    if (p.serverType == ServerType.PRIMARY_SERVER || heardFrom(p)) {
+                        continue;
+                    }
+                    if (udp != null && p.heartbeatPort > 0 && !udp.overdue(p.playerID, System.nanoTime())) {
+                        // A PONG counts as hearing from the node, RMI only confirms a node that stays silent
+                        udp.ping(p.playerID, p.heartbeatHost, p.heartbeatPort);
+                        continue;
+                    }
+                    mProbes.incrementAndGet();
+                    if (checkPlayerAlive(p.playerID)) {
+                        mLastProbeOk.put(p.playerID, mClock.getAsLong());
+                        if (udp != null) {
+                            udp.confirmed(p.playerID);
                         }
-                        Iterator<Player> iterator = mGameState.players.iterator();
-                        while (iterator.hasNext()) {
-                            Player p = iterator.next();
-                            if (p.serverType == ServerType.PRIMARY_SERVER) {
-                                continue;
-                            }
-                            if (checkPlayerAlive(p.playerID)) {
-                                continue;
-                            }
-                            iterator.remove();
-                            disconnectFromTracker(p.playerID);
+                        continue;
+                    }
+                    mLastProbeOk.remove(p.playerID);
+                    mStandbyHeard.remove(p.playerID);
+                    mAdmission.forget(p.playerID);
+                    if (udp != null) {
+                        udp.forget(p.playerID);
+                    }
+                    synchronized (mGameState) {
+                        mGameState.removePlayer(p.playerID);
+                        if (mTrace != null) {
+                            mTrace.quit(p.playerID);
                         }
-                    } else if (mServerType == ServerType.BACKUP_SERVER) {
-                        checkPrimaryAlive();
                     }
+                    disconnectFromTracker(p.playerID);
+                    mGossip.publish(Gossip.MEMBER + p.playerID, Gossip.LEFT);
+                }
+                if (mLastProbeOk.size() > nodes.size()) {
+                    // Forget the nodes that left without failing a probe
+                    Set<String> ids = new HashSet<>();
+                    nodes.forEach(p -> ids.add(p.playerID));
+                    mLastProbeOk.keySet().retainAll(ids);
+                    if (udp != null) {
+                        udp.retain(ids);
+                    }
+                }
+                publishStateView(true);
+                if (ticks() == null) {
+                    // Else every tick streams
+                    streamToSpectators();
+                }
+                Trace.Writer trace = mTrace;
+                if (trace != null) {
+                    trace.flush();
                 }
-            }, 0, 100);
+            } else if (mServerType == ServerType.BACKUP_SERVER) {
+                checkPrimaryAlive();
+            }
+            mGossip.tick();
+        }
+
+        /**
+         * @return true if the node sent us something, or answered a probe, within the silence threshold
+         */
+        private boolean heardFrom(Player p) {
+            long now = mClock.getAsLong();
+            long lastSeen = p.serverType == ServerType.BACKUP_SERVER
+                    ? mLastReplicationNanos : mGameState.lastSeen(p.playerID);
+            if (p.serverType == ServerType.STANDBY_SERVER) {
+                lastSeen = Math.max(lastSeen, mStandbyHeard.getOrDefault(p.playerID, Long.MIN_VALUE));
+            }
+            Long probed = mLastProbeOk.get(p.playerID);
+            if (probed != null) {
+                lastSeen = Math.max(lastSeen, probed);
+            }
+            if (mUdp != null) {
+                lastSeen = Math.max(lastSeen, mUdp.lastPong(p.playerID));
+            }
+            return lastSeen != Long.MIN_VALUE && now - lastSeen < mSilentNanos;
         }
 
         public void stopHeartbeatChecking() {
-            mTimer.cancel();
+            if (mHeartbeat != null) {
+                mHeartbeat.cancel(false);
+            }
+            synchronized (this) {
+                if (mTicks != null) {
+                    mTicks.stop();
+                }
+                mTickHz = 0;
+            }
+            Trace.Writer trace;
+            synchronized (mGameState) {
+                trace = mTrace;
+                mTrace = null;
+            }
+            if (trace != null) {
+                trace.close(mGameState);
+            }
         }
 
         public boolean checkPlayerAlive(String playerId) {
-            IGameClientListener dc = getClientListenerById(playerId);
-            if (dc != null) {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                IGameClientListener dc = getClientListenerById(playerId);
+                if (dc == null) {
+                    return false;
+                }
                 try {
                     dc.doubleCheck();
                     // The client is good
                     return true;
                 } catch (RemoteException e) {
-                    System.out.println("We lost him " + playerId);
+                    // The cached stub may predate a rebind of the client, look it up once more
+                    StubCache.evict(mPrefixURL + "client/" + playerId);
                 }
             }
+            EventLog.warn("We lost him", playerId);
             return false;
         }
 
         public void assignNormalPayerServer(final String playerId, ServerType serverType) {
             Runnable runnable = () -> {
+                Player chosen = null;
+                ServerType previous = null;
                 try {
-                    String bkPlayerId = playerId;
-                    if (bkPlayerId == null || bkPlayerId.equals("")) {
-                        Optional<Player> backupServer = mGameState.players.stream()
-                                .filter(p -> p.serverType == null)
-                                .findAny();
-                        if (backupServer.isPresent()) {
-                            Player backupPlayer = backupServer.get();
-                            bkPlayerId = backupPlayer.playerID;
+                    // Chosen and marked at once, a backup and a standby picked in the same round differ
+                    synchronized (mGameState) {
+                        List<Player> nodes = mGameState.nodes();
+                        Optional<Player> candidate;
+                        if (playerId != null && !playerId.equals("")) {
+                            candidate = nodes.stream().filter(p -> p.playerID.equals(playerId)).findAny();
                         } else {
+                            // A standby holds the state already, then dedicated servers, which come first in nodes()
+                            candidate = serverType == ServerType.STANDBY_SERVER ? Optional.empty()
+                                    : nodes.stream().filter(p -> p.serverType == ServerType.STANDBY_SERVER).findFirst();
+                            if (candidate.isEmpty()) {
+                                candidate = nodes.stream().filter(p -> p.serverType == null).findFirst();
+                            }
+                        }
+                        if (candidate.isEmpty()) {
                             // No more idle users
-                            // System.out.println("No more IDLE players " + mGameState.players.size());
                             return;
                         }
+                        chosen = candidate.get();
+                        previous = chosen.serverType;
+                        chosen.serverType = serverType;
                     }
-                    IGameClientListener client = getClientListenerById(bkPlayerId);
+                    IGameClientListener client = getClientListenerById(chosen.playerID);
                     if (client != null) {
-                        String finalPlayerId = bkPlayerId;
-                        mGameState.players.stream()
-                                .filter(p -> p.playerID.equals(finalPlayerId))
-                                .findAny().ifPresent(p -> p.serverType = serverType);
-                        client.becomeServer(serverType, mGameState);
-                        informAllClients(serverType, finalPlayerId);
+                        // The new server pulls the state in chunks, we don't push it as one argument.
+                        // A standby takes the role with the copy it keeps.
+                        client.promote(serverType, mServerName);
+                        if (serverType != ServerType.STANDBY_SERVER) {
+                            informAllClients(serverType, chosen.playerID);
+                        }
                     } else {
                         System.out.println("The client didn't bind rmi");
+                        chosen.serverType = previous;
                     }
                 } catch (RemoteException e) {
                     System.out.println("Select Server failed ");
+                    if (chosen != null) {
+                        chosen.serverType = previous;
+                    }
                 }
             };
             mThreadPool.submit(runnable);
         }
 
+        /**
+         * Tell a few players, they gossip it on to the rest
+         */
         public void informAllClients(ServerType serverType, String serverName) {
+            mGossip.publish(Gossip.ROLE + serverType, serverName);
+        }
+
+        @Override
+        public GameState Move(String playerID, byte opcode, long moveId)
+                throws RemoteException, AdmissionControl.OverloadedException {
+            CompletableFuture<GameState> queued;
+            mAdmission.enter(playerID);
             try {
-                for (Player p : mGameState.players) {
-                    IGameClientListener clientListener = getClientListenerById(p.playerID);
-                    if (clientListener != null) {
-                        clientListener.onServerChanged(serverType, serverName);
-                    }
+                TickLoop ticks = ticks();
+                if (ticks == null) {
+                    return move(playerID, opcode, moveId);
                 }
-            } catch (Exception e) {
-                // pass
+                queued = queueMove(ticks, playerID, opcode, moveId);
+            } finally {
+                mAdmission.exit(playerID);
             }
+            // The wait for the tick holds no permit, a tick batches more moves than calls may be in progress
+            return awaitTick(queued);
         }
 
-        @Override
-        public GameState Move(String playerID, String moveType, Point pos) throws RemoteException {
-            // Do nothing if the primary server still alive
-            if (checkPrimaryAlive()) {
+        private CompletableFuture<GameState> queueMove(TickLoop ticks, String playerID, byte opcode, long moveId) {
+            int handle = mGameState.handleOf(playerID);
+            if (handle < 0) {
+                EventLog.info("Move from unknown player", playerID);
+                return CompletableFuture.completedFuture(mGameState);
+            }
+            // Alive as soon as the move arrives, the tick applies it
+            mGameState.touch(handle, mClock.getAsLong());
+            return ticks.submit(playerID, opcode, moveId);
+        }
+
+        private GameState move(String playerID, byte opcode, long moveId) {
+            // A move reaches the backup when it is hedged, the primary is slow or down. The backup
+            // applies it to its copy, the move id keeps it from counting twice, and only checks the
+            // primary off this thread if the replication went silent: the move never waits for a
+            // primary that hangs, nor pulls a whole state from one that is behind.
+            if (mServerType != ServerType.PRIMARY_SERVER && !primaryHeardRecently()) {
+                checkPrimaryAliveAsync();
+            }
+            int handle = mGameState.handleOf(playerID);
+            if (handle < 0) {
+                EventLog.info("Move from unknown player", playerID);
+                return this.mGameState;
+            }
+            boolean refresh = isRefresh(opcode);
+            GameState.MoveResult result = null;
+            // One lock for the whole move, so the trace has the moves in the order of their random draws
+            synchronized (mGameState) {
+                // Duplicates and refreshes count too, the player is alive
+                mGameState.touch(handle, mClock.getAsLong());
+                if (!mGameState.markMoveApplied(handle, moveId)) {
+                    mDuplicateMoves.incrementAndGet();
+                    EventLog.info("Duplicate move from", playerID, moveId);
+                    return this.mGameState;
+                }
+                if (mTrace != null) {
+                    mTrace.move(playerID, opcode, moveId);
+                }
+                if (!refresh) {
+                    result = this.checkAndUpdate(handle, opcode);
+                }
+            }
+            mMoves.incrementAndGet();
+            if (refresh) {
+                EventLog.debug("Refresh", playerID, null);
                 return this.mGameState;
             }
+            EventLog.debug(result.name(), playerID, GameState.directionName(opcode));
+            publishStateView(false);
+            return this.mGameState;
+        }
+
+        private static boolean isRefresh(byte opcode) {
+            return opcode <= GameState.OP_REFRESH || opcode > GameState.OP_NORTH;
+        }
+
+        private TickLoop ticks() {
+            TickLoop ticks = mTicks;
+            return ticks != null ? ticks : startTicks();
+        }
+
+        private synchronized TickLoop startTicks() {
+            if (mTickHz <= 0 || mServerType != ServerType.PRIMARY_SERVER) {
+                return null;
+            }
+            if (mTicks == null) {
+                mTicks = new TickLoop(mThreadPool, mTickHz, this::resolveTick);
+                mTicks.start();
+            }
+            return mTicks;
+        }
+
+        /**
+         * The tick's state, or the current one unapplied if the tick didn't come within the deadline,
+         * the client retries under the same move id
+         */
+        private GameState awaitTick(CompletableFuture<GameState> answer) {
             try {
-                switch (moveType) {
-                    case "0":
-                        System.out.println("Refresh");
-                        return this.mGameState;
-                    case "1":
-                        System.out.println("Move west");
-                        Point newPos = new Point(pos.x - 1, pos.y);
-                        boolean succeed = this.checkAndUpdate(playerID, newPos);
-                        if (succeed) {
-                            System.out.println("Succeed to move west");
-                        } else {
-                            System.out.println("Failed to move west");
-                        }
-                        return this.mGameState;
-                    case "2":
-                        System.out.println("Move south");
-                        newPos = new Point(pos.x, pos.y + 1);
-                        succeed = this.checkAndUpdate(playerID, newPos);
-                        if (succeed) {
-                            System.out.println("Succeed to move south");
-                        } else {
-                            System.out.println("Failed to move south");
+                GameState state = answer.get(REQUEST_DEADLINE_MS, TimeUnit.MILLISECONDS);
+                if (state != null) {
+                    return state;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                EventLog.warn("Tick missed the deadline", mServerName);
+            }
+            return mGameState;
+        }
+
+        /**
+         * One tick: the moves in the TickLoop's order under one lock, one respawn pass for the
+         * treasures picked up, one snapshot answering all of them
+         */
+        GameState resolveTick(List<TickLoop.Move> moves) {
+            GameState answer = null;
+            if (!moves.isEmpty()) {
+                synchronized (mGameState) {
+                    if (mTrace != null) {
+                        mTrace.tick(moves);
+                    }
+                    int pickups = 0;
+                    for (TickLoop.Move move : moves) {
+                        int handle = mGameState.handleOf(move.playerId);
+                        if (handle < 0) {
+                            // Quit or dropped while queued
+                            continue;
                         }
-                        return this.mGameState;
-                    case "3":
-                        System.out.println("Move east");
-                        newPos = new Point(pos.x + 1, pos.y);
-                        succeed = this.checkAndUpdate(playerID, newPos);
-                        if (succeed) {
-                            System.out.println("Succeed to move east");
-                        } else {
-                            System.out.println("Failed to move east");
+                        if (!mGameState.markMoveApplied(handle, move.moveId)) {
+                            mDuplicateMoves.incrementAndGet();
+                            continue;
                         }
-                        return this.mGameState;
-                    case "4":
-                        System.out.println("Move north");
-                        newPos = new Point(pos.x, pos.y - 1);
-                        succeed = this.checkAndUpdate(playerID, newPos);
-                        if (succeed) {
-                            System.out.println("Succeed to move north");
-                        } else {
-                            System.out.println("Failed to move north");
+                        mMoves.incrementAndGet();
+                        if (!isRefresh(move.opcode)
+                                && mGameState.applyMove(handle, move.opcode) == GameState.MoveResult.FOUND_TREASURE) {
+                            pickups++;
                         }
-                        return this.mGameState;
-                    default:
-                        break;
+                    }
+                    mGameState.spawnTreasures(pickups, mRandom);
+                    answer = mGameState.snapshot();
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+                answer.encode();
+                publishStateView(false);
             }
-            return this.mGameState;
+            streamToSpectators();
+            return answer;
+        }
+
+        void setTickHz(int hz) {
+            mTickHz = hz;
         }
 
         @Override
-        public void quit(String playerID) throws RemoteException {
+        public void quit(String playerID) throws RemoteException, AdmissionControl.OverloadedException {
+            mAdmission.enter(playerID);
+            try {
+                quitGame(playerID);
+            } finally {
+                mAdmission.exit(playerID);
+            }
+            mAdmission.forget(playerID);
+        }
+
+        private void quitGame(String playerID) {
             // Do nothing if the primary server still alive
             if (checkPrimaryAlive()) {
                 return;
             }
             disconnectFromTracker(playerID);
-            this.mGameState.players.removeIf(p -> Objects.equals(p.playerID, playerID));
+            synchronized (mGameState) {
+                this.mGameState.removePlayer(playerID);
+                if (mTrace != null) {
+                    mTrace.quit(playerID);
+                }
+            }
+            mQuits.incrementAndGet();
+            publishStateView(false);
         }
 
         @Override
-        public GameState join(Player player) throws RemoteException {
+        public GameState join(Player player) throws RemoteException, AdmissionControl.OverloadedException {
+            mAdmission.enter(player.playerID);
+            try {
+                return joinGame(player);
+            } finally {
+                mAdmission.exit(player.playerID);
+            }
+        }
+
+        private GameState joinGame(Player player) {
             // Do nothing if the primary server still alive
             if (checkPrimaryAlive()) {
                 return null;
             }
-            mGameState.players.removeIf(p -> p.playerID.equals(player.playerID));
-            boolean collision = true;
-            Point newPos = null;
-            while (collision) {
-                collision = false;
-                int x = (int) ((Math.random() * (mGameState.N)));
-                int y = (int) ((Math.random() * (mGameState.N)));
-                newPos = new Point(x, y);
-                for (Player p : mGameState.players) {
-                    if (p.position == newPos) {
-                        collision = true;
-                        break;
-                    }
+            rejoined(player.playerID);
+            synchronized (mGameState) {
+                if (mTrace != null) {
+                    mTrace.join(player);
                 }
-                for (Point t : mGameState.treasures) {
-                    if (t.equals(newPos)) {
-                        collision = true;
-                        break;
-                    }
+                if (player.dedicated) {
+                    mGameState.addServer(player);
+                    EventLog.info("Dedicated server joined the game", player.playerID);
+                    return mGameState;
                 }
+                // A rejoining player comes back as a new Player, its move ids restart from 1
+                mGameState.removePlayer(player.playerID);
+                mGameState.placePlayer(player, mRandom);
             }
-            player.position = newPos;
-            mGameState.players.add(player);
-            System.out.printf(System.currentTimeMillis() + " Player %s joined the game\n", player.playerID);
+            mJoins.incrementAndGet();
+            publishStateView(false);
+            EventLog.info("Player joined the game", player.playerID);
             return mGameState;
         }
 
+        /**
+         * A player we dropped is back, the nodes that skip it as a gossip peer must learn it
+         */
+        private void rejoined(String playerId) {
+            if (mGossip.isLeft(playerId)) {
+                mGossip.publish(Gossip.MEMBER + playerId, Gossip.JOINED);
+            }
+        }
+
         @Override
-        public GameState sync() throws RemoteException {
+        public GameState joinAll(List<Player> players) throws RemoteException, AdmissionControl.OverloadedException {
+            mAdmission.enter(null);
+            try {
+                return joinPlayers(players);
+            } finally {
+                mAdmission.exit(null);
+            }
+        }
+
+        private GameState joinPlayers(List<Player> players) {
+            // Do nothing if the primary server still alive
+            if (checkPrimaryAlive()) {
+                return null;
+            }
+            int placed;
+            synchronized (mGameState) {
+                if (mTrace != null) {
+                    mTrace.joinAll(players);
+                }
+                placed = mGameState.placePlayers(players, mRandom);
+            }
+            for (int i = 0; i < placed; i++) {
+                rejoined(players.get(i).playerID);
+            }
+            mJoins.addAndGet(placed);
+            publishStateView(false);
+            EventLog.info("Players joined the game", mServerName, placed);
+            if (placed < players.size()) {
+                EventLog.log(EventLog.Level.WARN, "Grid is full, players left out", mServerName, null,
+                        players.size() - placed);
+            }
+            connectToTracker(new ArrayList<>(players.subList(0, placed)));
             return mGameState;
         }
 
         @Override
-        public void generateTreasure(int num) {
-            for (int i = 0; i < num; i++) {
-                boolean collision = true;
-                Point newPos = null;
-                while (collision) {
-                    collision = false;
-                    int x = (int) ((Math.random() * (mGameState.N)));
-                    int y = (int) ((Math.random() * (mGameState.N)));
-                    newPos = new Point(x, y);
-                    for (Point t : mGameState.treasures) {
-                        if (t.equals(newPos)) {
-                            collision = true;
-                            break;
-                        }
-                    }
-                    for (Player p : mGameState.players) {
-                        if (p.position.equals(newPos)) {
-                            collision = true;
-                            break;
-                        }
-                    }
-                }
-                this.mGameState.treasures.add(newPos);
+        public GameState sync() throws RemoteException, AdmissionControl.OverloadedException {
+            mAdmission.enter(null);
+            try {
+                // Only the backup syncs, its replication doubles as its heartbeat
+                mLastReplicationNanos = mClock.getAsLong();
+                return mGameState;
+            } finally {
+                mAdmission.exit(null);
+            }
+        }
+
+        @Override
+        public StateTransfer.Info openTransfer() throws RemoteException, AdmissionControl.OverloadedException {
+            mAdmission.enter(null);
+            try {
+                return mTransfers.open(mGameState);
+            } finally {
+                mAdmission.exit(null);
             }
         }
 
-        private boolean checkAndUpdate(String playerID, Point newPos) {
+        @Override
+        public List<Player> fetchChunk(long transferId, int index) throws RemoteException {
+            return mTransfers.chunk(mGameState, transferId, index);
+        }
 
-            if (newPos.x < 0 || newPos.y < 0 || newPos.x >= mGameState.N || newPos.y >= mGameState.N) {
-                System.out.println("Failed to move because N limit");
-                return false;
+        @Override
+        public StateTransfer.Delta fetchChanges(long since, int fromHandle) throws RemoteException {
+            mLastReplicationNanos = mClock.getAsLong();
+            return mTransfers.changes(mGameState, since, fromHandle);
+        }
+
+        @Override
+        public StateTransfer.Delta followChanges(String standbyId, long since, int fromHandle) throws RemoteException {
+            if (mServerType != ServerType.PRIMARY_SERVER) {
+                throw new RemoteException("Not the primary " + mServerName);
             }
-            for (Player p : this.mGameState.players) {
-                if (p.position.x == newPos.x && p.position.y == newPos.y) {
-                    System.out.println("Failed to move because of collision with other player");
-                    return false;
+            mStandbyHeard.put(standbyId, mClock.getAsLong());
+            return mTransfers.changes(mGameState, since, fromHandle);
+        }
+
+        @Override
+        public void closeTransfer(long transferId) throws RemoteException {
+            mTransfers.close(transferId);
+        }
+
+        @Override
+        public List<Leaderboard.Entry> getTopScores(int k) throws RemoteException {
+            return mGameState.getTopScores(k);
+        }
+
+        @Override
+        public int getRank(String playerId) throws RemoteException {
+            return mGameState.leaderboard().rank(playerId);
+        }
+
+        @Override
+        public List<Point> getNearestTreasures(String playerId, int k) throws RemoteException {
+            return mGameState.nearestTreasures(playerId, k);
+        }
+
+        @Override
+        public List<Point> getTreasuresIn(int x, int y, int width, int height) throws RemoteException {
+            return mGameState.treasuresIn(x, y, width, height);
+        }
+
+        @Override
+        public Map<String, Long> getAdmissionStats() throws RemoteException {
+            return mAdmission.getStats();
+        }
+
+        @Override
+        public Map<String, Long> getRoomStats() throws RemoteException {
+            Map<String, Long> stats = new LinkedHashMap<>();
+            stats.put("players", (long) mGameState.players.size());
+            stats.put("treasures", (long) mGameState.treasures.size());
+            stats.put("worldChunks", (long) mGameState.worldChunks());
+            stats.put("moves", mMoves.get());
+            stats.put("duplicateMoves", mDuplicateMoves.get());
+            stats.put("joins", mJoins.get());
+            stats.put("quits", mQuits.get());
+            stats.put("heartbeatRounds", mHeartbeatRounds.get());
+            stats.put("probes", mProbes.get());
+            stats.put("standbys", mGameState.nodes().stream()
+                    .filter(p -> p.serverType == ServerType.STANDBY_SERVER).count());
+            UdpHeartbeat udp = mUdp;
+            if (udp != null) {
+                stats.putAll(udp.getStats());
+            }
+            stats.putAll(mSpectators.getStats());
+            stats.putAll(mAdmission.getStats());
+            synchronized (this) {
+                if (mTicks != null) {
+                    stats.putAll(mTicks.getStats());
                 }
             }
-            boolean addScore = false;
-            for (Point t : this.mGameState.treasures) {
-                if (t.equals(newPos)) {
-                    addScore = true;
-                    this.mGameState.treasures.remove(t);
-                    this.generateTreasure(1);
-                    break;
+            return stats;
+        }
+
+        /**
+         * Primary only, once per heartbeat round: the changes since the last round to the direct
+         * spectators, who relay them down their trees
+         */
+        private void streamToSpectators() {
+            long version = mGameState.version();
+            long now = mClock.getAsLong();
+            if (mSpectators.isEmpty()) {
+                // A new spectator starts from a keyframe, the next delta goes on from here
+                mSpectatorVersion = version;
+                return;
+            }
+            if (version == mSpectatorVersion) {
+                if (now - mSpectatorSentNanos >= TimeUnit.MILLISECONDS.toNanos(SpectatorRelay.KEEPALIVE_MS)) {
+                    mSpectators.publish(SpectatorRelay.Frame.keepalive(version));
+                    mSpectatorSentNanos = now;
                 }
+                return;
             }
-            for (Player p : this.mGameState.players) {
-                if (Objects.equals(p.playerID, playerID)) {
-                    p.position = newPos;
-                    if (addScore) {
-                        p.score++;
-                    }
-                    return true;
+            StateTransfer.Delta delta = mGameState.changesSince(mSpectatorVersion, 0, Integer.MAX_VALUE);
+            SpectatorRelay.Frame frame;
+            if (delta == null) {
+                // Fell behind the removal log, everybody starts over from a keyframe
+                synchronized (mGameState) {
+                    frame = SpectatorRelay.Frame.keyframe(mGameState.snapshot(), mGameState.version());
                 }
+            } else {
+                frame = SpectatorRelay.Frame.delta(mSpectatorVersion, delta);
+            }
+            mSpectators.publish(frame);
+            mSpectatorVersion = frame.version;
+            mSpectatorSentNanos = now;
+        }
+
+        @Override
+        public SpectatorRelay.Referral subscribe(ISpectator spectator, String spectatorId) throws RemoteException {
+            if (mServerType != ServerType.PRIMARY_SERVER) {
+                throw new RemoteException("Not the primary " + mServerName);
+            }
+            return mSpectators.accept(spectator, Collections.emptyList());
+        }
+
+        /**
+         * Primary only, a no-op unless game.mmap.dir is set, see MappedStateView
+         */
+        private void publishStateView(boolean force) {
+            if (mServerType != ServerType.PRIMARY_SERVER || MappedStateView.DIR == null) {
+                return;
+            }
+            if (mStateView == null) {
+                mStateView = MappedStateView.openWriter(mPrefixURL);
+                if (mStateView == null) {
+                    return;
+                }
+            }
+            mStateView.publish(mGameState, mServerName, force);
+        }
+
+        void setAdmissionControl(AdmissionControl admission) {
+            mAdmission = admission;
+        }
+
+        /**
+         * Off for rooms served by a RoomHost: the host is the only server, no player becomes backup
+         */
+        void setAssignBackup(boolean assignBackup) {
+            mAssignBackup = assignBackup;
+        }
+
+        ServerType getServerType() {
+            return mServerType;
+        }
+
+        GameState getGameState() {
+            return mGameState;
+        }
+
+        void setStandbyCount(int standbys) {
+            mStandbyCount = standbys;
+        }
+
+        void setLivenessThresholdMs(long silentMs) {
+            mSilentNanos = TimeUnit.MILLISECONDS.toNanos(silentMs);
+        }
+
+        void setUdpHeartbeat(UdpHeartbeat udp) {
+            mUdp = udp;
+        }
+
+        @Override
+        public void generateTreasure(int num) {
+            synchronized (mGameState) {
+                if (mTrace != null) {
+                    mTrace.treasure(num);
+                }
+                mGameState.spawnTreasures(num, mRandom);
+            }
+        }
+
+        private GameState.MoveResult checkAndUpdate(int handle, byte opcode) {
+            // Same rules as the client prediction, see MovePredictor
+            return mGameState.applyMove(handle, opcode, mRandom);
+        }
+
+        private boolean primaryHeardRecently() {
+            long heard = mPrimaryHeardNanos;
+            return heard != Long.MIN_VALUE && mClock.getAsLong() - heard < mSilentNanos;
+        }
+
+        private void checkPrimaryAliveAsync() {
+            if (mCheckingPrimary.get()) {
+                return;
+            }
+            try {
+                mThreadPool.submit(this::checkPrimaryAlive);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
             }
-            return false;
         }
 
         private boolean checkPrimaryAlive() {
             if (ServerType.PRIMARY_SERVER == mServerType) {
                 return false;
             }
+            // Taken as alive while another check runs, e.g. the heartbeat's sync with a primary that hangs
+            if (!mCheckingPrimary.compareAndSet(false, true)) {
+                return true;
+            }
+            try {
+                return syncOrTakeOver();
+            } finally {
+                mCheckingPrimary.set(false);
+            }
+        }
+
+        private boolean syncOrTakeOver() {
             // Backup server access primary server check alive
             // sync latest state
-            Optional<Player> primaryPlayer = mGameState.players.stream()
+            Optional<Player> primaryPlayer = mGameState.nodes().stream()
                     .filter(player -> player.serverType == ServerType.PRIMARY_SERVER)
                     .findAny();
             if (primaryPlayer.isPresent()) {
@@ -724,34 +1725,64 @@ public class Game {
                     IGameCallback primaryServer = findPrimaryServerById(player.playerID);
                     if (primaryServer != null) {
                         this.mGameState = primaryServer.sync();
+                        mPrimaryHeardNanos = mClock.getAsLong();
                         return true;
                     } else {
                         System.out.println("PRIMARY not found " + player.playerID);
                     }
+                } catch (AdmissionControl.OverloadedException e) {
+                    // Busy is not down, keep the state we have until the next round
+                    mPrimaryHeardNanos = mClock.getAsLong();
+                    return true;
                 } catch (RemoteException e) {
-                    System.out.println("PRIMARY IS DOWN, IT'S TIME TO TAKE OVER   "
-                            + player.playerID + "  treasure state:"
-                            + mGameState.treasures.size());
+                    StubCache.evict(mPrefixURL + player.playerID);
+                    EventLog.log(EventLog.Level.WARN, "PRIMARY IS DOWN, IT'S TIME TO TAKE OVER, treasures",
+                            player.playerID, null, mGameState.treasures.size());
                 }
                 mServerType = ServerType.PRIMARY_SERVER;
-                mGameState.players.stream()
+                mGameState.nodes().stream()
                         .filter(p -> p.playerID.equals(mServerName))
                         .findAny().ifPresent(p -> p.serverType = ServerType.PRIMARY_SERVER);
-                mGameState.players.removeIf(p -> p.playerID.equals(player.playerID));
+                mGameState.removePlayer(player.playerID);
+                mAdmission.forget(player.playerID);
                 disconnectFromTracker(player.playerID);
-                try {
-                    mTracker.updateServer(mServerName, ServerType.PRIMARY_SERVER);
-                } catch (RemoteException e) {
-                    e.printStackTrace();
+                if (mTracker != null) {
+                    try {
+                        mTracker.updateServer(mRoom, mServerName, ServerType.PRIMARY_SERVER);
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
                 }
+                // Standbys follow the primary, tell them and the players which one it is now
+                informAllClients(ServerType.PRIMARY_SERVER, mServerName);
+                startTrace();
             }
             return false;
         }
 
+        private void connectToTracker(List<Player> players) {
+            if (mTracker == null || players.isEmpty()) {
+                return;
+            }
+            mThreadPool.submit(() -> {
+                try {
+                    mTracker.connectAll(mRoom, players);
+                } catch (RemoteException e) {
+                    EventLog.warn("Tracker batch connect failed", mServerName);
+                }
+            });
+        }
+
         private void disconnectFromTracker(String id) {
+            StubCache.evict(mPrefixURL + "client/" + id);
+            StubCache.evict(mPrefixURL + id);
+            if (mTracker == null) {
+                // Benchmarks and TraceReplay run without a tracker or a registry
+                return;
+            }
             mThreadPool.submit(() -> {
                 try {
-                    mTracker.disconnect(new Player(id));
+                    mTracker.disconnect(mRoom, new Player(id));
                 } catch (RemoteException e) {
                     e.printStackTrace();
                 }
@@ -770,7 +1801,7 @@ public class Game {
 
         private IGameCallback findPrimaryServerById(String id) {
             try {
-                return (IGameCallback) Naming.lookup(mPrefixURL + id);
+                return (IGameCallback) StubCache.lookup(mPrefixURL + id);
             } catch (NotBoundException | MalformedURLException | RemoteException e) {
                 System.out.println("The primary server is not found");
             }
@@ -778,7 +1809,8 @@ public class Game {
         }
 
         enum ServerType implements Serializable {
-            PRIMARY_SERVER, BACKUP_SERVER
+            // A standby keeps a copy of the state, see Standby. It serves nothing and is not in the tracker.
+            PRIMARY_SERVER, BACKUP_SERVER, STANDBY_SERVER
         }
     }
 }
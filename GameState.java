@@ -1,22 +1,113 @@
 import java.util.*;
-import java.awt.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 public class GameState implements Serializable {
+    // Move opcodes, what the client sends instead of the typed move string
+    public static final byte OP_REFRESH = 0;
+    public static final byte OP_WEST = 1;
+    public static final byte OP_SOUTH = 2;
+    public static final byte OP_EAST = 3;
+    public static final byte OP_NORTH = 4;
+    private static final int[] DX = {0, -1, 0, 1, 0};
+    private static final int[] DY = {0, 0, 1, 0, -1};
+    private static final String[] DIRECTIONS = {"nowhere", "west", "south", "east", "north"};
+    // Largest grid placePlayers collects the free cells of
+    private static final long DENSE_SCAN_CELLS = 1 << 22;
+
     public Set<Player> players;
     public Set<Point> treasures;
+    // Dedicated server nodes, they hold server roles like players do but are not on the board
+    public Set<Player> servers;
     public final int N;
     public final int K;
+    // Kept in step with Player.score, add and remove players through addPlayer/removePlayer. Not
+    // sent: RMI writes a state after its lock is released, and the players carry the scores already.
+    // Rebuilt lazily after deserialization, like mTable.
+    private transient volatile Leaderboard mLeaderboard;
     private HashMap<String, Point> mPlayerPos = new HashMap<>();
-    private HashMap<String, String> mPlayerScores = new HashMap<>();
+    // Primitive index over players and treasures, rebuilt lazily after deserialization
+    private transient PlayerTable mTable;
+    // The serialized form of a TickLoop answer, see encode
+    private transient byte[] mEncoded;
+    // Change tracking for StateTransfer: every change stamps the player with the next version,
+    // removals go to a bounded log. Local to this copy, never sent.
+    private static final int REMOVED_LOG_SIZE = 4096;
+    private transient long mVersion;
+    private transient String[] mRemovedIds;
+    private transient long[] mRemovedVersions;
+    private transient int mRemovedCount;
+    // Changes since a version below this can no longer be told apart, the removal log wrapped
+    private transient long mRemovedHorizon;
 
     public GameState(int size, int k) {
         N = size;
         K = k;
         players = ConcurrentHashMap.newKeySet();
         treasures = ConcurrentHashMap.newKeySet();
+        servers = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Deep copy, same result as sending the state through RMI without the serialization cost
+     */
+    public synchronized GameState snapshot() {
+        GameState copy = new GameState(N, K);
+        // Treasures first, the index of the copy is built on the first addPlayer
+        copy.treasures.addAll(treasures);
+        for (Player p : players) {
+            copy.addPlayer(new Player(p));
+        }
+        for (Player s : servers) {
+            copy.servers.add(new Player(s));
+        }
+        return copy;
+    }
+
+    /**
+     * Serialize once for every answer of a tick: RMI then copies the bytes for each caller instead
+     * of walking the players again. The state must not change afterwards, use it on a snapshot.
+     */
+    public void encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(this);
+        } catch (IOException e) {
+            // Serialized the usual way then
+            return;
+        }
+        mEncoded = bytes.toByteArray();
+    }
+
+    private Object writeReplace() {
+        return mEncoded == null ? this : new Encoded(mEncoded);
+    }
+
+    /**
+     * A state serialized by encode, read back as the GameState
+     */
+    private static class Encoded implements Serializable {
+        private final byte[] mBytes;
+
+        Encoded(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        private Object readResolve() throws InvalidObjectException {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(mBytes))) {
+                return in.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new InvalidObjectException("Bad encoded state " + e);
+            }
+        }
     }
 
     public HashMap<String, Point> getLatestPlayers() {
@@ -24,27 +115,459 @@ public class GameState implements Serializable {
         return mPlayerPos;
     }
 
-    public HashMap<String, String> getLatestScores() {
-        replicateLatestData();
-        return mPlayerScores;
+    public List<Leaderboard.Entry> getTopScores(int k) {
+        Leaderboard leaderboard = mLeaderboard;
+        // A received state has none, picking k players costs less than building one to read k
+        return leaderboard != null ? leaderboard.top(k) : Leaderboard.top(players, k);
+    }
+
+    public Leaderboard leaderboard() {
+        Leaderboard leaderboard = mLeaderboard;
+        return leaderboard != null ? leaderboard : buildLeaderboard();
+    }
+
+    private synchronized Leaderboard buildLeaderboard() {
+        if (mLeaderboard == null) {
+            Leaderboard leaderboard = new Leaderboard();
+            for (Player p : players) {
+                leaderboard.put(p.playerID, p.score);
+            }
+            mLeaderboard = leaderboard;
+        }
+        return mLeaderboard;
+    }
+
+    /**
+     * Add the player, replacing any player with the same id
+     */
+    public synchronized void addPlayer(Player player) {
+        removePlayer(player.playerID);
+        players.add(player);
+        leaderboard().put(player.playerID, player.score);
+        PlayerTable table = table();
+        int handle = table.add(player);
+        table.versions[handle] = ++mVersion;
+    }
+
+    /**
+     * Add a dedicated server, replacing any player or server with the same id
+     */
+    public synchronized void addServer(Player server) {
+        removePlayer(server.playerID);
+        servers.add(server);
+    }
+
+    /**
+     * Players and dedicated servers, everybody that can hold a server role
+     */
+    public synchronized List<Player> nodes() {
+        List<Player> nodes = new ArrayList<>(players.size() + servers.size());
+        nodes.addAll(servers);
+        nodes.addAll(players);
+        return nodes;
+    }
+
+    /**
+     * Remove the player or dedicated server with this id
+     */
+    public synchronized void removePlayer(String playerId) {
+        servers.removeIf(s -> s.playerID.equals(playerId));
+        PlayerTable table = table();
+        int handle = table.handleOf(playerId);
+        if (handle >= 0) {
+            players.remove(table.players[handle]);
+            table.remove(handle);
+            logRemoval(playerId);
+        }
+        leaderboard().remove(playerId);
+    }
+
+    private void logRemoval(String playerId) {
+        if (mRemovedIds == null) {
+            mRemovedIds = new String[REMOVED_LOG_SIZE];
+            mRemovedVersions = new long[REMOVED_LOG_SIZE];
+        }
+        int slot = mRemovedCount++ % REMOVED_LOG_SIZE;
+        if (mRemovedCount > REMOVED_LOG_SIZE) {
+            mRemovedHorizon = mRemovedVersions[slot];
+        }
+        mRemovedIds[slot] = playerId;
+        mRemovedVersions[slot] = ++mVersion;
+    }
+
+    public synchronized long version() {
+        return mVersion;
+    }
+
+    /**
+     * Ids of all players right now, the order StateTransfer pages through
+     */
+    public synchronized List<String> playerIds() {
+        List<String> ids = new ArrayList<>(players.size());
+        for (Player p : players) {
+            ids.add(p.playerID);
+        }
+        return ids;
+    }
+
+    /**
+     * Copies of the listed players that are still in the game
+     */
+    public synchronized List<Player> copyPlayers(List<String> ids) {
+        PlayerTable table = table();
+        List<Player> copies = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            int handle = table.handleOf(id);
+            if (handle >= 0) {
+                copies.add(new Player(table.players[handle]));
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Players changed after version since, at most max of them starting from handle fromHandle,
+     * plus the players removed since and all treasures.
+     *
+     * @return null if since is too old to tell what was removed, start over from a full copy
+     */
+    public synchronized StateTransfer.Delta changesSince(long since, int fromHandle, int max) {
+        if (since < mRemovedHorizon) {
+            return null;
+        }
+        PlayerTable table = table();
+        List<Player> changed = new ArrayList<>();
+        int handle = fromHandle;
+        for (; handle < table.highWater() && changed.size() < max; handle++) {
+            if (table.players[handle] != null && table.versions[handle] > since) {
+                changed.add(new Player(table.players[handle]));
+            }
+        }
+        List<String> removed = new ArrayList<>();
+        for (int i = Math.max(0, mRemovedCount - REMOVED_LOG_SIZE); i < mRemovedCount; i++) {
+            int slot = i % REMOVED_LOG_SIZE;
+            if (mRemovedVersions[slot] > since) {
+                removed.add(mRemovedIds[slot]);
+            }
+        }
+        return new StateTransfer.Delta(mVersion, changed, removed, getTreasures(),
+                handle < table.highWater() ? handle : -1);
+    }
+
+    /**
+     * Replay a Delta from another copy of the state
+     */
+    public synchronized void applyChanges(StateTransfer.Delta delta) {
+        for (String id : delta.removed) {
+            removePlayer(id);
+        }
+        for (Player p : delta.changed) {
+            addPlayer(p);
+        }
+        PlayerTable table = table();
+        for (Point t : treasures) {
+            table.removeTreasure(t.x, t.y);
+        }
+        treasures.clear();
+        for (Point t : delta.treasures) {
+            treasures.add(t);
+            table.addTreasure(t.x, t.y);
+        }
+    }
+
+    /**
+     * @return the handle of the player, -1 if the player is not in the game
+     */
+    public synchronized int handleOf(String playerId) {
+        return table().handleOf(playerId);
+    }
+
+    /**
+     * Record moveId as applied for the player.
+     *
+     * @return false if this id (or a later one) was already applied
+     */
+    public synchronized boolean markMoveApplied(int handle, long moveId) {
+        Player player = table().players[handle];
+        if (player.lastMoveId >= moveId) {
+            return false;
+        }
+        player.lastMoveId = moveId;
+        mTable.versions[handle] = ++mVersion;
+        return true;
+    }
+
+    /**
+     * Note a request from the player, the primary does not probe a player it heard from lately
+     */
+    public synchronized void touch(int handle, long nanos) {
+        table().lastSeen[handle] = nanos;
+    }
+
+    /**
+     * @return System.nanoTime of the last request from the player, or of its join, Long.MIN_VALUE if unknown
+     */
+    public synchronized long lastSeen(String playerId) {
+        PlayerTable table = table();
+        int handle = table.handleOf(playerId);
+        return handle < 0 ? Long.MIN_VALUE : table.lastSeen[handle];
+    }
+
+    public long getLastMoveId(String playerId) {
+        Player player = findPlayer(playerId);
+        return player == null ? 0 : player.lastMoveId;
+    }
+
+    /**
+     * @return the opcode of a typed move, -1 if it is not a move
+     */
+    public static byte opcode(String moveType) {
+        if (moveType.length() == 1) {
+            char c = moveType.charAt(0);
+            if (c >= '0' && c <= '4') {
+                return (byte) (c - '0');
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Cell a successful move lands on, for callers holding a position rather than a handle
+     */
+    public static Point nextPosition(Point pos, int opcode) {
+        return new Point(pos.x + DX[opcode], pos.y + DY[opcode]);
+    }
+
+    public static String directionName(int opcode) {
+        return DIRECTIONS[opcode];
+    }
+
+    /**
+     * Validate a move from (x, y) without applying it. Shared by the server, which starts from the
+     * player's current cell, and the client prediction, which starts from its predicted cell.
+     */
+    public synchronized MoveResult checkMove(int handle, int x, int y, int opcode) {
+        PlayerTable table = table();
+        if (handle < 0 || table.players[handle] == null) {
+            return MoveResult.UNKNOWN_PLAYER;
+        }
+        int newX = x + DX[opcode];
+        int newY = y + DY[opcode];
+        if (newX < 0 || newY < 0 || newX >= N || newY >= N) {
+            return MoveResult.OUT_OF_GRID;
+        }
+        int owner = table.ownerOf(newX, newY);
+        if (owner >= 0 && owner != handle) {
+            return MoveResult.COLLISION;
+        }
+        return table.isTreasure(newX, newY) ? MoveResult.FOUND_TREASURE : MoveResult.MOVED;
+    }
+
+    /**
+     * Validate and apply a move, picking up and respawning the treasure on the target cell.
+     * A plain move allocates nothing. The random source decides where the new treasure goes,
+     * pass a seeded one to replay.
+     */
+    public synchronized MoveResult applyMove(int handle, int opcode, Random random) {
+        MoveResult result = applyMove(handle, opcode);
+        if (result == MoveResult.FOUND_TREASURE) {
+            spawnTreasures(1, random);
+        }
+        return result;
+    }
+
+    /**
+     * Validate and apply a move, picking up the treasure on the target cell without respawning it.
+     * A TickLoop respawns the treasures of the whole tick at once.
+     */
+    public synchronized MoveResult applyMove(int handle, int opcode) {
+        PlayerTable table = table();
+        if (handle < 0 || table.players[handle] == null) {
+            return MoveResult.UNKNOWN_PLAYER;
+        }
+        MoveResult result = checkMove(handle, table.xs[handle], table.ys[handle], opcode);
+        if (!result.succeeded()) {
+            return result;
+        }
+        int newX = table.xs[handle] + DX[opcode];
+        int newY = table.ys[handle] + DY[opcode];
+        table.moveTo(handle, newX, newY);
+        table.versions[handle] = ++mVersion;
+        if (result == MoveResult.FOUND_TREASURE) {
+            Player player = table.players[handle];
+            table.removeTreasure(newX, newY);
+            treasures.remove(new Point(newX, newY));
+            player.score = ++table.scores[handle];
+            leaderboard().put(player.playerID, player.score);
+        }
+        return result;
+    }
+
+    public Player findPlayer(String playerId) {
+        for (Player p : players) {
+            if (p.playerID.equals(playerId)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void addTreasure(Point treasure) {
+        treasures.add(treasure);
+        table().addTreasure(treasure.x, treasure.y);
+    }
+
+    public synchronized void removeTreasure(Point treasure) {
+        treasures.remove(treasure);
+        table().removeTreasure(treasure.x, treasure.y);
+    }
+
+    public synchronized void spawnTreasures(int num, Random random) {
+        for (int i = 0; i < num && treasures.size() + players.size() < (long) N * N; i++) {
+            Point newPos = randomFreeCell(random);
+            treasures.add(newPos);
+            table().addTreasure(newPos.x, newPos.y);
+        }
+    }
+
+    /**
+     * Put the player on a random cell that holds neither a player nor a treasure
+     */
+    public synchronized void placePlayer(Player player, Random random) {
+        player.position = randomFreeCell(random);
+        addPlayer(player);
+    }
+
+    /**
+     * Place many players at once on distinct random free cells, replacing players with the same id.
+     * On grids up to DENSE_SCAN_CELLS the free cells are collected by scanning the rows in parallel,
+     * so the cost does not grow as the grid fills up the way rejection sampling does. Larger grids
+     * can't be scanned and are sampled, they are mostly empty.
+     *
+     * @return how many players were placed, from the head of the list, the rest did not fit
+     */
+    public synchronized int placePlayers(List<Player> joining, Random random) {
+        for (Player p : joining) {
+            removePlayer(p.playerID);
+        }
+        long cells = (long) N * N;
+        if (cells > DENSE_SCAN_CELLS) {
+            int count = (int) Math.min(joining.size(), cells - players.size() - treasures.size());
+            for (int i = 0; i < count; i++) {
+                placePlayer(joining.get(i), random);
+            }
+            return count;
+        }
+        long[] free = freeCells();
+        int count = Math.min(joining.size(), free.length);
+        for (int i = 0; i < count; i++) {
+            // Partial Fisher-Yates, the first count cells end up a uniform random choice
+            int j = i + random.nextInt(free.length - i);
+            long cell = free[j];
+            free[j] = free[i];
+            Player player = joining.get(i);
+            player.position = new Point((int) (cell >> 32), (int) cell);
+            addPlayer(player);
+        }
+        return count;
+    }
+
+    private long[] freeCells() {
+        PlayerTable table = table();
+        long[][] rows = new long[N][];
+        // Only reads the table, the writers are held off by the lock of this state
+        IntStream.range(0, N).parallel().forEach(x -> {
+            long[] row = new long[N];
+            int size = 0;
+            for (int y = 0; y < N; y++) {
+                if (!table.isTreasure(x, y) && table.ownerOf(x, y) < 0) {
+                    row[size++] = PlayerTable.cell(x, y);
+                }
+            }
+            rows[x] = Arrays.copyOf(row, size);
+        });
+        long[] free = new long[Arrays.stream(rows).mapToInt(row -> row.length).sum()];
+        int offset = 0;
+        for (long[] row : rows) {
+            System.arraycopy(row, 0, free, offset, row.length);
+            offset += row.length;
+        }
+        return free;
+    }
+
+    private Point randomFreeCell(Random random) {
+        PlayerTable table = table();
+        while (true) {
+            int x = random.nextInt(N);
+            int y = random.nextInt(N);
+            if (!table.isTreasure(x, y) && table.ownerOf(x, y) < 0) {
+                return new Point(x, y);
+            }
+        }
+    }
+
+    /**
+     * Up to k treasures closest to the cell in moves, closest first, see TreasureIndex
+     */
+    public synchronized List<Point> nearestTreasures(int x, int y, int k) {
+        return table().treasureIndex().nearest(x, y, k);
+    }
+
+    /**
+     * Up to k treasures closest to the player, empty if the player is unknown
+     */
+    public synchronized List<Point> nearestTreasures(String playerId, int k) {
+        PlayerTable table = table();
+        int handle = table.handleOf(playerId);
+        if (handle < 0) {
+            return new ArrayList<>();
+        }
+        return table.treasureIndex().nearest(table.xs[handle], table.ys[handle], k);
+    }
+
+    /**
+     * Treasures in the width x height cells from (x, y)
+     */
+    public synchronized List<Point> treasuresIn(int x, int y, int width, int height) {
+        return table().treasureIndex().within(x, y, width, height);
+    }
+
+    /**
+     * Chunks of the sparse world allocated now, see ChunkedWorld
+     */
+    public synchronized int worldChunks() {
+        return table().chunkCount();
+    }
+
+    private PlayerTable table() {
+        if (mTable == null) {
+            mTable = new PlayerTable(N);
+            for (Player p : players) {
+                mTable.add(p);
+            }
+            for (Point t : treasures) {
+                mTable.addTreasure(t.x, t.y);
+            }
+        }
+        return mTable;
     }
 
     public List<Point> getTreasures() {
         return new ArrayList<>(treasures);
     }
 
+    public enum MoveResult {
+        MOVED, FOUND_TREASURE, OUT_OF_GRID, COLLISION, UNKNOWN_PLAYER;
+
+        public boolean succeeded() {
+            return this == MOVED || this == FOUND_TREASURE;
+        }
+    }
+
     private synchronized void replicateLatestData() {
         mPlayerPos = new HashMap<>();
-        mPlayerScores = new HashMap<>();
         for (Player p : players) {
             mPlayerPos.put(p.playerID, p.position);
-            String server = "";
-            if (p.serverType != null) {
-                server = p.serverType.toString();
-            }
-            mPlayerScores.put(p.playerID, p.playerID + "  " + p.score + "  " + server);
         }
     }
 }
-
-
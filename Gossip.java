@@ -0,0 +1,224 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Spreads role and membership changes by rumor mongering instead of one call per player.
+ * Every change is a versioned Record; a node that learns a newer record applies it and pushes it
+ * to a few random peers on each of its next rounds, so the node that made the change contacts only
+ * fanout peers and everybody has it after O(log n) rounds.
+ * <p>
+ * Keys in use: "role/PRIMARY_SERVER" and "role/BACKUP_SERVER" with the player id as value,
+ * "member/[player id]" with the value "left", or "joined" when a player who left comes back.
+ * A member record only tells which peers to skip, it is dropped MEMBER_ROUNDS rounds after it
+ * stops being pushed, so the records don't grow with every player who ever left.
+ * <p>
+ * Configured with system properties:
+ * game.gossip.fanout (peers per round; default 3),
+ * game.gossip.periodMs (round length; default 50).
+ */
+public class Gossip {
+
+    public static final int FANOUT = Integer.getInteger("game.gossip.fanout", 3);
+    public static final long PERIOD_MS = Long.getLong("game.gossip.periodMs", 50);
+    public static final String ROLE = "role/";
+    public static final String MEMBER = "member/";
+    public static final String LEFT = "left";
+    public static final String JOINED = "joined";
+    // Rounds a member record is kept once it is no longer hot
+    static final int MEMBER_ROUNDS = 20;
+
+    /**
+     * How a node reaches another one, send must not block the caller for long
+     */
+    public interface Transport {
+        void send(String peer, List<Record> records);
+    }
+
+    private final String mSelf;
+    private final Supplier<List<String>> mPeers;
+    private final Transport mTransport;
+    private final Consumer<Record> mOnChange;
+    private final Random mRandom;
+    private final int mFanout;
+    private final Map<String, Record> mRecords = new HashMap<>();
+    // Rounds each record is still pushed for
+    private final Map<String, Integer> mHot = new HashMap<>();
+    // Round at which a member record is dropped
+    private final Map<String, Long> mExpiry = new HashMap<>();
+    private long mRound;
+    private long mClock;
+    // Milliseconds of the wall clock, or of the virtual clock of ClusterSimulator
+    private LongSupplier mMillis = System::currentTimeMillis;
+    private long mMessagesSent;
+
+    public Gossip(String self, Supplier<List<String>> peers, Transport transport,
+                  Consumer<Record> onChange, Random random, int fanout) {
+        mSelf = self;
+        mPeers = peers;
+        mTransport = transport;
+        mOnChange = onChange;
+        mRandom = random;
+        mFanout = fanout;
+    }
+
+    void setClock(LongSupplier millis) {
+        mMillis = millis;
+    }
+
+    /**
+     * Make a change here and start spreading it right away
+     */
+    public void publish(String key, String value) {
+        Record record;
+        synchronized (this) {
+            // Newer than anything seen, even if our clock is behind the node that made the last change
+            mClock = Math.max(mClock + 1, mMillis.getAsLong());
+            record = new Record(key, value, mClock, mSelf);
+            put(record, rounds(mPeers.get().size()));
+        }
+        mOnChange.accept(record);
+        tick();
+    }
+
+    /**
+     * Merge records from a peer, the newer ones are applied and spread further
+     */
+    public void receive(List<Record> records) {
+        List<Record> changed = new ArrayList<>();
+        synchronized (this) {
+            int rounds = rounds(mPeers.get().size());
+            for (Record r : records) {
+                Record known = mRecords.get(r.key);
+                if (known == null || r.newerThan(known)) {
+                    put(r, rounds);
+                    mClock = Math.max(mClock, r.version);
+                    changed.add(r);
+                }
+            }
+        }
+        changed.forEach(mOnChange);
+    }
+
+    /**
+     * One round: push the hot records to fanout random peers
+     */
+    public void tick() {
+        List<Record> hot;
+        List<String> targets;
+        synchronized (this) {
+            expire(++mRound);
+            if (mHot.isEmpty()) {
+                return;
+            }
+            hot = new ArrayList<>(mHot.size());
+            for (Iterator<Map.Entry<String, Integer>> it = mHot.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Integer> entry = it.next();
+                hot.add(mRecords.get(entry.getKey()));
+                if (entry.getValue() <= 1) {
+                    it.remove();
+                } else {
+                    entry.setValue(entry.getValue() - 1);
+                }
+            }
+            targets = pickPeers();
+            mMessagesSent += targets.size();
+        }
+        for (String peer : targets) {
+            mTransport.send(peer, hot);
+        }
+    }
+
+    private void put(Record record, int rounds) {
+        mRecords.put(record.key, record);
+        mHot.put(record.key, rounds);
+        if (record.key.startsWith(MEMBER)) {
+            mExpiry.put(record.key, mRound + rounds + MEMBER_ROUNDS);
+        }
+    }
+
+    private void expire(long round) {
+        if (mExpiry.isEmpty()) {
+            return;
+        }
+        for (Iterator<Map.Entry<String, Long>> it = mExpiry.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getValue() <= round) {
+                mRecords.remove(entry.getKey());
+                mHot.remove(entry.getKey());
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized Record get(String key) {
+        return mRecords.get(key);
+    }
+
+    public synchronized boolean isLeft(String playerId) {
+        Record record = mRecords.get(MEMBER + playerId);
+        return record != null && LEFT.equals(record.value);
+    }
+
+    public synchronized long getMessagesSent() {
+        return mMessagesSent;
+    }
+
+    private List<String> pickPeers() {
+        List<String> all = mPeers.get();
+        List<String> picked = new ArrayList<>(mFanout);
+        if (all.size() <= 4 * mFanout) {
+            // Few peers, shuffle them all
+            for (String peer : all) {
+                if (!peer.equals(mSelf) && !isLeft(peer)) {
+                    picked.add(peer);
+                }
+            }
+            Collections.shuffle(picked, mRandom);
+            return picked.subList(0, Math.min(mFanout, picked.size()));
+        }
+        // Many peers, draw at random instead of copying the list every round
+        for (int attempt = 0; attempt < 4 * mFanout && picked.size() < mFanout; attempt++) {
+            String peer = all.get(mRandom.nextInt(all.size()));
+            if (!peer.equals(mSelf) && !isLeft(peer) && !picked.contains(peer)) {
+                picked.add(peer);
+            }
+        }
+        return picked;
+    }
+
+    /**
+     * Rounds a record stays hot: enough for the push to reach about n nodes, plus a margin for
+     * the pushes that land on nodes that already have it
+     */
+    private int rounds(int n) {
+        return (int) Math.ceil(Math.log(n + 1) / Math.log(mFanout + 1)) + 3;
+    }
+
+    public static class Record implements Serializable {
+        public final String key;
+        public final String value;
+        public final long version;
+        // Breaks ties between two nodes that changed the same key with the same version
+        public final String origin;
+
+        Record(String key, String value, long version, String origin) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.origin = origin;
+        }
+
+        boolean newerThan(Record other) {
+            return version != other.version ? version > other.version : origin.compareTo(other.origin) > 0;
+        }
+    }
+}
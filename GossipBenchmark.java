@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Convergence of a role change spread by Gossip over n nodes, in rounds of Gossip.PERIOD_MS, against
+ * the n - 1 calls informAllClients used to make from the new primary. Runs in process: a message
+ * sent in a round is delivered at the start of the next one, a lossy run drops messages and crashes
+ * nodes at random. A conflict run has two nodes publish different primaries in the same round, all
+ * nodes must settle on the same one.
+ * <p>
+ * Usage: java GossipBenchmark [node counts...]
+ */
+public class GossipBenchmark {
+
+    private static final String KEY = Gossip.ROLE + Game.RemoteServerImpl.ServerType.PRIMARY_SERVER;
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1000, 5000, 10000};
+        System.out.printf("fanout %d, round %d ms, %d runs each%n", Gossip.FANOUT, Gossip.PERIOD_MS, RUNS);
+        System.out.printf("%8s %-9s %10s %10s %10s %12s %12s %10s%n", "nodes", "run", "rounds",
+                "max rounds", "ms", "msgs/node", "seeder msgs", "coverage");
+        for (int n : sizes) {
+            for (String kind : new String[]{"clean", "lossy", "conflict"}) {
+                int rounds = 0;
+                int maxRounds = 0;
+                double messages = 0;
+                long seederMessages = 0;
+                double coverage = 1;
+                for (int run = 0; run < RUNS; run++) {
+                    Sim sim = new Sim(n, run, kind.equals("lossy") ? 0.05 : 0);
+                    Result result = sim.run(kind.equals("conflict"));
+                    rounds += result.rounds;
+                    maxRounds = Math.max(maxRounds, result.rounds);
+                    messages += result.messagesPerNode;
+                    seederMessages = Math.max(seederMessages, result.seederMessages);
+                    coverage = Math.min(coverage, result.coverage);
+                }
+                System.out.printf("%8d %-9s %10.1f %10d %10.0f %12.1f %12d %9.2f%%%n", n, kind,
+                        rounds / (double) RUNS, maxRounds, rounds * Gossip.PERIOD_MS / (double) RUNS,
+                        messages / RUNS, seederMessages, coverage * 100);
+            }
+            // The old loop: n - 1 sequential calls from the new primary, none from anybody else
+            System.out.printf("%8d %-9s %10s %10s %10s %12.1f %12d %9.2f%%%n", n, "one-by-one",
+                    "-", "-", "-", (n - 1) / (double) n, n - 1, 100.0);
+        }
+    }
+
+    private static class Result {
+        int rounds;
+        double messagesPerNode;
+        long seederMessages;
+        double coverage;
+    }
+
+    private static class Sim {
+        final int mN;
+        final double mLoss;
+        final Random mRandom;
+        final List<String> mIds = new ArrayList<>();
+        final Gossip[] mNodes;
+        final boolean[] mCrashed;
+        // Per node, the messages delivered this round and the ones sent for the next
+        List<List<List<Gossip.Record>>> mInbox = new ArrayList<>();
+        List<List<List<Gossip.Record>>> mNextInbox = new ArrayList<>();
+
+        Sim(int n, long seed, double loss) {
+            mN = n;
+            mLoss = loss;
+            mRandom = new Random(seed);
+            for (int i = 0; i < n; i++) {
+                mIds.add(Integer.toString(i));
+            }
+            mNodes = new Gossip[n];
+            mCrashed = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                mInbox.add(new ArrayList<>());
+                mNextInbox.add(new ArrayList<>());
+                mNodes[i] = new Gossip(mIds.get(i), () -> mIds, this::send, record -> { },
+                        new Random(mRandom.nextLong()), Gossip.FANOUT);
+                // Node 0 and 1 make the changes, they stay up
+                mCrashed[i] = i > 1 && mRandom.nextDouble() < loss;
+            }
+        }
+
+        void send(String peer, List<Gossip.Record> records) {
+            if (mRandom.nextDouble() >= mLoss) {
+                mNextInbox.get(Integer.parseInt(peer)).add(records);
+            }
+        }
+
+        Result run(boolean conflict) {
+            mNodes[0].publish(KEY, "a");
+            if (conflict) {
+                mNodes[1].publish(KEY, "b");
+            }
+            Result result = new Result();
+            result.seederMessages = mNodes[0].getMessagesSent();
+            while (!converged() && result.rounds < 1000) {
+                List<List<List<Gossip.Record>>> delivered = mNextInbox;
+                mNextInbox = mInbox;
+                mInbox = delivered;
+                boolean quiet = true;
+                for (int i = 0; i < mN; i++) {
+                    for (List<Gossip.Record> records : mInbox.get(i)) {
+                        if (!mCrashed[i]) {
+                            mNodes[i].receive(records);
+                        }
+                        quiet = false;
+                    }
+                    mInbox.get(i).clear();
+                }
+                for (int i = 0; i < mN; i++) {
+                    if (!mCrashed[i]) {
+                        mNodes[i].tick();
+                    }
+                }
+                result.rounds++;
+                if (quiet && mNextInbox.stream().allMatch(List::isEmpty)) {
+                    // Every rumor died out before reaching everybody
+                    break;
+                }
+            }
+            long messages = 0;
+            int live = 0;
+            int reached = 0;
+            Gossip.Record latest = latest();
+            for (int i = 0; i < mN; i++) {
+                messages += mNodes[i].getMessagesSent();
+                if (!mCrashed[i]) {
+                    live++;
+                    if (mNodes[i].get(KEY) == latest) {
+                        reached++;
+                    }
+                }
+            }
+            result.seederMessages = Math.max(result.seederMessages, mNodes[0].getMessagesSent());
+            result.messagesPerNode = messages / (double) mN;
+            result.coverage = reached / (double) live;
+            return result;
+        }
+
+        private Gossip.Record latest() {
+            Gossip.Record a = mNodes[0].get(KEY);
+            Gossip.Record b = mNodes[1].get(KEY);
+            return b == null || a.newerThan(b) ? a : b;
+        }
+
+        private boolean converged() {
+            Gossip.Record latest = latest();
+            for (int i = 0; i < mN; i++) {
+                if (!mCrashed[i] && mNodes[i].get(KEY) != latest) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
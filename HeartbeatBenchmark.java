@@ -0,0 +1,159 @@
+import java.lang.management.ManagementFactory;
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The primary's liveness probes over RMI (doubleCheck) against UdpHeartbeat PINGs, in one JVM with
+ * a registry. Every player has a live client listener and its own UdpHeartbeat channel.
+ * <p>
+ * 1. Cost per probe: probe every player once per round, by RMI one after the other, by UDP all
+ * PINGs sent and then the PONGs awaited. Wall and process CPU time per probe.
+ * 2. A primary's heartbeat over idle players: RMI probes and PINGs per second, then a tenth of the
+ * players die (channel closed, listener unexported) and the time until the primary drops them all.
+ * <p>
+ * Usage: java HeartbeatBenchmark [players] [rounds] [port]
+ */
+public class HeartbeatBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 19299;
+        String registryURL = "rmi://127.0.0.1:" + port + "/";
+        LocateRegistry.createRegistry(port);
+
+        Game.IGameClientListener local = new Game.IGameClientListener() {
+            @Override
+            public void becomeServer(Game.RemoteServerImpl.ServerType serverType, GameState latestGameState) {
+            }
+
+            @Override
+            public void promote(Game.RemoteServerImpl.ServerType serverType, String sourceId) {
+            }
+
+            @Override
+            public void doubleCheck() {
+            }
+
+            @Override
+            public void onServerChanged(Game.RemoteServerImpl.ServerType serverType, String serverName) {
+            }
+
+            @Override
+            public void gossip(List<Gossip.Record> records) {
+            }
+        };
+        List<Game.IGameClientImpl> listeners = new ArrayList<>();
+        List<Player> joining = new ArrayList<>();
+        List<UdpHeartbeat> channels = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            Game.IGameClientImpl listener = new Game.IGameClientImpl(local);
+            Naming.rebind(registryURL + "client/p" + i, listener);
+            listeners.add(listener);
+            UdpHeartbeat udp = UdpHeartbeat.open();
+            Player p = new Player("p" + i);
+            p.heartbeatHost = "127.0.0.1";
+            p.heartbeatPort = udp.getPort();
+            channels.add(udp);
+            joining.add(p);
+        }
+        UdpHeartbeat primaryUdp = UdpHeartbeat.open();
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(8);
+        GameState state = new GameState((int) Math.ceil(Math.sqrt(players * 2.0)), 10);
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, registryURL, "p0");
+        server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        server.setAssignBackup(false);
+        server.setUdpHeartbeat(primaryUdp);
+        server.joinAll(joining);
+
+        System.out.printf("%d players, %d rounds%n", players, rounds);
+        System.out.printf("%-6s %12s %12s%n", "probe", "wall us", "cpu us");
+        // Warm up both paths first
+        rmiRounds(server, players, rounds / 5 + 1);
+        udpRounds(primaryUdp, joining, rounds / 5 + 1);
+        long[] rmi = rmiRounds(server, players, rounds);
+        System.out.printf("%-6s %12.1f %12.1f%n", "rmi", rmi[0] / 1e3 / rounds / players, rmi[1] / 1e3 / rounds / players);
+        long[] udp = udpRounds(primaryUdp, joining, rounds);
+        System.out.printf("%-6s %12.1f %12.1f%n", "udp", udp[0] / 1e3 / rounds / players, udp[1] / 1e3 / rounds / players);
+
+        // 2. The heartbeat itself
+        server.heartbeatChecking();
+        Thread.sleep(1000);
+        Map<String, Long> before = server.getRoomStats();
+        Thread.sleep(5000);
+        Map<String, Long> after = server.getRoomStats();
+        System.out.printf("idle heartbeat: %.1f RMI probes/s, %.1f PINGs/s%n",
+                (after.get("probes") - before.get("probes")) / 5.0,
+                (after.get("udpPingsSent") - before.get("udpPingsSent")) / 5.0);
+
+        int dead = Math.max(1, players / 10);
+        long killed = System.nanoTime();
+        for (int i = 1; i <= dead; i++) {
+            channels.get(i).close();
+            Naming.unbind(registryURL + "client/p" + i);
+            UnicastRemoteObject.unexportObject(listeners.get(i), true);
+        }
+        before = server.getRoomStats();
+        while (state.playerIds().size() > players - dead) {
+            Thread.sleep(10);
+        }
+        after = server.getRoomStats();
+        System.out.printf("%d dead players dropped in %d ms with %d RMI confirmations%n", dead,
+                (System.nanoTime() - killed) / 1_000_000, after.get("probes") - before.get("probes"));
+
+        server.stopHeartbeatChecking();
+        threadPool.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * @return wall and CPU nanos
+     */
+    private static long[] rmiRounds(Game.RemoteServerImpl server, int players, int rounds) {
+        long cpu = cpuNanos();
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < players; i++) {
+                if (!server.checkPlayerAlive("p" + i)) {
+                    throw new IllegalStateException("p" + i + " not alive");
+                }
+            }
+        }
+        return new long[]{System.nanoTime() - start, cpuNanos() - cpu};
+    }
+
+    private static long[] udpRounds(UdpHeartbeat udp, List<Player> players, int rounds) throws InterruptedException {
+        long cpu = cpuNanos();
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            long sent = System.nanoTime();
+            for (Player p : players) {
+                udp.ping(p.playerID, p.heartbeatHost, p.heartbeatPort);
+            }
+            for (Player p : players) {
+                // A lost PING is sent again, as the next heartbeat round would
+                while (udp.lastPong(p.playerID) < sent) {
+                    if (udp.overdue(p.playerID, System.nanoTime())) {
+                        udp.confirmed(p.playerID);
+                        udp.ping(p.playerID, p.heartbeatHost, p.heartbeatPort);
+                    }
+                    Thread.yield();
+                }
+            }
+        }
+        return new long[]{System.nanoTime() - start, cpuNanos() - cpu};
+    }
+
+    private static long cpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+}
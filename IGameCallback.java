@@ -1,16 +1,96 @@
-import java.awt.*;
 import java.io.Serializable;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
 
 public interface IGameCallback extends Remote, Serializable {
-    GameState Move(String playerId, String moveType, Point pos) throws RemoteException;
+    /**
+     * Apply a move from the player's current position on the server, opcode is one of
+     * GameState.OP_*. moveId is unique per player and increasing, a repeated id (hedged or retried
+     * request) is answered with the current state without applying the move again.
+     */
+    GameState Move(String playerId, byte opcode, long moveId)
+            throws RemoteException, AdmissionControl.OverloadedException;
 
-    void quit(String playerId) throws RemoteException;
+    void quit(String playerId) throws RemoteException, AdmissionControl.OverloadedException;
 
-    GameState join(Player playerId) throws RemoteException;
+    GameState join(Player playerId) throws RemoteException, AdmissionControl.OverloadedException;
+
+    /**
+     * Join many players in one call, e.g. bots or a reconnect wave. The primary places them all at
+     * once and registers them with the tracker in one batch; the backup picks the result up with
+     * its next sync. Players that do not fit on the grid are left out of the returned state.
+     */
+    GameState joinAll(List<Player> players) throws RemoteException, AdmissionControl.OverloadedException;
 
     void generateTreasure(int num) throws RemoteException;
 
-    GameState sync() throws RemoteException;
+    GameState sync() throws RemoteException, AdmissionControl.OverloadedException;
+
+    /**
+     * Start a chunked copy of the state, see StateTransfer
+     */
+    StateTransfer.Info openTransfer() throws RemoteException, AdmissionControl.OverloadedException;
+
+    /**
+     * Players of the index-th page of an open transfer
+     */
+    List<Player> fetchChunk(long transferId, int index) throws RemoteException;
+
+    /**
+     * One page of the players changed after version since, starting from fromHandle
+     *
+     * @return null if since is too old, pull a full copy instead
+     */
+    StateTransfer.Delta fetchChanges(long since, int fromHandle) throws RemoteException;
+
+    /**
+     * fetchChanges for a Standby, the call keeps the standby alive on the primary
+     *
+     * @throws RemoteException if this server is not the primary
+     */
+    StateTransfer.Delta followChanges(String standbyId, long since, int fromHandle) throws RemoteException;
+
+    void closeTransfer(long transferId) throws RemoteException;
+
+    /**
+     * Best k players, highest score first
+     */
+    List<Leaderboard.Entry> getTopScores(int k) throws RemoteException;
+
+    /**
+     * 1 based rank of the player, ties share a rank, 0 if the player is unknown
+     */
+    int getRank(String playerId) throws RemoteException;
+
+    /**
+     * Up to k treasures closest to the player in moves, closest first, empty if the player is unknown
+     */
+    List<Point> getNearestTreasures(String playerId, int k) throws RemoteException;
+
+    /**
+     * Treasures in the width x height cells from (x, y)
+     */
+    List<Point> getTreasuresIn(int x, int y, int width, int height) throws RemoteException;
+
+    /**
+     * Watch the game read-only: the primary streams state versions to the spectator, see
+     * SpectatorRelay. A primary feeds a fixed number of spectators directly, when it is full the
+     * referral names the spectators to subscribe to instead.
+     *
+     * @throws RemoteException if this server is not the primary
+     */
+    SpectatorRelay.Referral subscribe(ISpectator spectator, String spectatorId) throws RemoteException;
+
+    /**
+     * Admitted and rejected call counters, see AdmissionControl
+     */
+    Map<String, Long> getAdmissionStats() throws RemoteException;
+
+    /**
+     * Metrics of the room this server serves: players, moves, joins, heartbeat rounds and the
+     * admission counters
+     */
+    Map<String, Long> getRoomStats() throws RemoteException;
 }
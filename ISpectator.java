@@ -0,0 +1,21 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * A spectator of a game, exported by the Spectator process. It receives the stream of state
+ * versions and relays it to the spectators below it, see SpectatorRelay.
+ */
+public interface ISpectator extends Remote {
+    /**
+     * The next frame of the stream, frames of one parent arrive one at a time and in order
+     */
+    void onFrame(SpectatorRelay.Frame frame) throws RemoteException;
+
+    /**
+     * Attach a spectator below this one
+     *
+     * @return accepted, or the relays to try instead when this one is full. Refused with no relays
+     * when this one has no state yet or is below spectatorId itself.
+     */
+    SpectatorRelay.Referral subscribe(ISpectator spectator, String spectatorId) throws RemoteException;
+}
@@ -0,0 +1,154 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Scores ordered as they are awarded, so the top K and the rank of a player never need a scan
+ * over all players.
+ * 1. A TreeSet ordered by score (high first) then player id, for the top K in O(log n + K)
+ * 2. A Fenwick tree counting players per score, for a rank in O(log maxScore)
+ * Every update is O(log n).
+ */
+public class Leaderboard implements Serializable {
+
+    private final TreeSet<Entry> mOrdered = new TreeSet<>();
+    private final Map<String, Entry> mByPlayer = new HashMap<>();
+    // mCounts is a Fenwick tree over score + 1, index 0 unused
+    private int[] mCounts = new int[64];
+
+    public synchronized void put(String playerId, int score) {
+        Entry old = mByPlayer.remove(playerId);
+        if (old != null) {
+            mOrdered.remove(old);
+            addCount(old.score, -1);
+        }
+        Entry entry = new Entry(playerId, score);
+        mByPlayer.put(playerId, entry);
+        mOrdered.add(entry);
+        addCount(score, 1);
+    }
+
+    public synchronized void remove(String playerId) {
+        Entry old = mByPlayer.remove(playerId);
+        if (old != null) {
+            mOrdered.remove(old);
+            addCount(old.score, -1);
+        }
+    }
+
+    public synchronized List<Entry> top(int k) {
+        List<Entry> top = new ArrayList<>(Math.min(k, mOrdered.size()));
+        Iterator<Entry> iterator = mOrdered.iterator();
+        while (top.size() < k && iterator.hasNext()) {
+            top.add(iterator.next());
+        }
+        return top;
+    }
+
+    /**
+     * The best k players in the leaderboard's order without building one, O(n log k) with k
+     * entries kept, for a state that arrived without its leaderboard
+     */
+    public static List<Entry> top(Iterable<Player> players, int k) {
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        // The worst of the best k on top
+        PriorityQueue<Entry> best = new PriorityQueue<>(k + 1, Comparator.reverseOrder());
+        for (Player p : players) {
+            Entry worst = best.size() < k ? null : best.peek();
+            if (worst != null && (p.score < worst.score
+                    || p.score == worst.score && p.playerID.compareTo(worst.playerId) > 0)) {
+                continue;
+            }
+            best.add(new Entry(p.playerID, p.score));
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+        List<Entry> top = new ArrayList<>(best);
+        Collections.sort(top);
+        return top;
+    }
+
+    /**
+     * @return 1 based rank, players with the same score share it, 0 if the player is unknown
+     */
+    public synchronized int rank(String playerId) {
+        Entry entry = mByPlayer.get(playerId);
+        if (entry == null) {
+            return 0;
+        }
+        return 1 + mByPlayer.size() - prefixCount(entry.score);
+    }
+
+    public synchronized int size() {
+        return mByPlayer.size();
+    }
+
+    private void addCount(int score, int delta) {
+        if (score + 1 >= mCounts.length) {
+            grow(score + 1);
+        }
+        for (int i = score + 1; i < mCounts.length; i += i & -i) {
+            mCounts[i] += delta;
+        }
+    }
+
+    // Number of players scoring <= score
+    private int prefixCount(int score) {
+        int sum = 0;
+        for (int i = Math.min(score + 1, mCounts.length - 1); i > 0; i -= i & -i) {
+            sum += mCounts[i];
+        }
+        return sum;
+    }
+
+    private void grow(int index) {
+        int size = mCounts.length;
+        while (size <= index) {
+            size *= 2;
+        }
+        // Rebuild from the plain counts, rare since scores grow one point at a time
+        int[] plain = new int[mCounts.length];
+        for (int i = 1; i < mCounts.length; i++) {
+            plain[i] = prefixCount(i - 1) - prefixCount(i - 2);
+        }
+        mCounts = new int[size];
+        for (int i = 1; i < plain.length; i++) {
+            for (int j = i; j < size; j += j & -j) {
+                mCounts[j] += plain[i];
+            }
+        }
+    }
+
+    public static class Entry implements Comparable<Entry>, Serializable {
+        public final String playerId;
+        public final int score;
+
+        Entry(String playerId, int score) {
+            this.playerId = playerId;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            if (score != o.score) {
+                return Integer.compare(o.score, score);
+            }
+            return playerId.compareTo(o.playerId);
+        }
+
+        @Override
+        public String toString() {
+            return playerId + "  " + score;
+        }
+    }
+}
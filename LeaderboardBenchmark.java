@@ -0,0 +1,104 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Leaderboard cost with many players: points awarded through the incremental Leaderboard, and the
+ * top rows of a state received by a client, which comes without its leaderboard: picked with a
+ * bounded heap, or by building a whole Leaderboard first. Against the old refresh, which built one
+ * score string per player for the GUI to show them all.
+ * <p>
+ * Usage: java LeaderboardBenchmark [players] [updates]
+ */
+public class LeaderboardBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Random random = new Random(1);
+        GameState state = new GameState(1000, 10);
+        List<Player> all = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            Player p = new Player("p" + i);
+            state.addPlayer(p);
+            all.add(p);
+        }
+
+        // The first two rounds are warmup
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < updates; i++) {
+                Player p = all.get(random.nextInt(players));
+                p.score++;
+                state.leaderboard().put(p.playerID, p.score);
+            }
+            long awardNanos = (System.nanoTime() - start) / updates;
+
+            int queries = 1000;
+            start = System.nanoTime();
+            int checksum = 0;
+            for (int i = 0; i < queries; i++) {
+                checksum += state.getTopScores(GUI.SCORE_ROWS).size();
+                checksum += state.leaderboard().rank(all.get(random.nextInt(players)).playerID);
+            }
+            long topNanos = (System.nanoTime() - start) / queries;
+
+            GameState received = copy(state);
+            int refreshes = 50;
+            start = System.nanoTime();
+            for (int i = 0; i < refreshes; i++) {
+                checksum += received.getTopScores(GUI.SCORE_ROWS).size();
+            }
+            long heapNanos = (System.nanoTime() - start) / refreshes;
+
+            start = System.nanoTime();
+            for (int i = 0; i < refreshes; i++) {
+                Leaderboard leaderboard = new Leaderboard();
+                for (Player p : received.players) {
+                    leaderboard.put(p.playerID, p.score);
+                }
+                checksum += leaderboard.top(GUI.SCORE_ROWS).size();
+            }
+            long buildNanos = (System.nanoTime() - start) / refreshes;
+
+            start = System.nanoTime();
+            for (int i = 0; i < refreshes; i++) {
+                checksum += oldRefresh(received).size();
+            }
+            long refreshNanos = (System.nanoTime() - start) / refreshes;
+
+            if (round == 2) {
+                System.out.printf("%d players: award point %d ns, top %d + rank %d ns%n", players, awardNanos,
+                        GUI.SCORE_ROWS, topNanos);
+                System.out.printf("received state: top %d by heap %d us, by building a leaderboard %d us, "
+                                + "old refresh %d us (checksum %d)%n",
+                        GUI.SCORE_ROWS, heapNanos / 1000, buildNanos / 1000, refreshNanos / 1000, checksum);
+            }
+        }
+    }
+
+    private static GameState copy(GameState state) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(state);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (GameState) in.readObject();
+        }
+    }
+
+    // What the GUI refresh used to cost before it showed labels for all of them: a string per player
+    private static HashMap<String, String> oldRefresh(GameState state) {
+        HashMap<String, String> scores = new HashMap<>();
+        for (Player p : state.players) {
+            String server = p.serverType == null ? "" : p.serverType.toString();
+            scores.put(p.playerID, p.playerID + "  " + p.score + "  " + server);
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,101 @@
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Heartbeat probes per second of a primary, probing every node every round (silence threshold 0,
+ * how the heartbeat used to work) against probing only the nodes silent for longer than the threshold.
+ * A probe is one doubleCheck RPC. A registry runs in process and every player is a live client listener. Move mix: a quarter of the
+ * players are active at about 4 moves/s, the rest idle at about one move every 5 s.
+ * <p>
+ * Usage: java LivenessBenchmark [players] [seconds] [port]
+ */
+public class LivenessBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 19199;
+        String registryURL = "rmi://127.0.0.1:" + port + "/";
+        LocateRegistry.createRegistry(port);
+
+        Game.IGameClientImpl listener = new Game.IGameClientImpl(new Game.IGameClientListener() {
+            @Override
+            public void becomeServer(Game.RemoteServerImpl.ServerType serverType, GameState latestGameState) {
+            }
+
+            @Override
+            public void promote(Game.RemoteServerImpl.ServerType serverType, String sourceId) {
+            }
+
+            @Override
+            public void doubleCheck() {
+            }
+
+            @Override
+            public void onServerChanged(Game.RemoteServerImpl.ServerType serverType, String serverName) {
+            }
+
+            @Override
+            public void gossip(List<Gossip.Record> records) {
+            }
+        });
+        for (int i = 0; i < players; i++) {
+            Naming.rebind(registryURL + "client/p" + i, listener);
+        }
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(8);
+        System.out.printf("%d players, %d s per run%n", players, seconds);
+        System.out.printf("%-12s %10s %12s%n", "threshold", "moves/s", "probes/s");
+        for (long silentMs : new long[]{0, 500, 1000}) {
+            GameState state = new GameState((int) Math.ceil(Math.sqrt(players * 2.0)), 10);
+            Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                    Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, registryURL, "p0");
+            server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+            server.setAssignBackup(false);
+            server.setLivenessThresholdMs(silentMs);
+            List<Player> joining = new ArrayList<>();
+            for (int i = 0; i < players; i++) {
+                joining.add(new Player("p" + i));
+            }
+            server.joinAll(joining);
+            server.heartbeatChecking();
+
+            Map<String, Long> before = server.getRoomStats();
+            long moves = drive(server, players, seconds);
+            Map<String, Long> after = server.getRoomStats();
+            server.stopHeartbeatChecking();
+            System.out.printf("%-12s %10.0f %12.0f%n", silentMs == 0 ? "0 (every)" : silentMs + " ms",
+                    moves / (double) seconds, (after.get("probes") - before.get("probes")) / (double) seconds);
+        }
+        threadPool.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * @return moves sent
+     */
+    private static long drive(Game.RemoteServerImpl server, int players, int seconds) throws Exception {
+        Random random = new Random(1);
+        long[] moveIds = new long[players];
+        long moves = 0;
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            // A 10 ms step: active players move with probability 4%, idle ones 0.2%
+            for (int i = 1; i < players; i++) {
+                double chance = i % 4 == 0 ? 0.04 : 0.002;
+                if (random.nextDouble() < chance) {
+                    server.Move("p" + i, (byte) (1 + random.nextInt(4)), ++moveIds[i]);
+                    moves++;
+                }
+            }
+            Thread.sleep(10);
+        }
+        return moves;
+    }
+}
@@ -0,0 +1,66 @@
+import java.util.Random;
+
+/**
+ * Per-move logging overhead of the server: no logging, the synchronous println that Move used to
+ * do, and the EventLog ring buffer. Results go to stderr, run it with stdout redirected, e.g.
+ * java -Dgame.log.level=DEBUG -Dgame.log.file=/tmp/moves.log LogBenchmark [moves] [threads] > /dev/null
+ */
+public class LogBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int moves = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        for (int round = 0; round < 2; round++) {
+            // First round is warmup
+            report(round, "no logging", run(moves, threads, (id, dir, result) -> {
+            }));
+            report(round, "println", run(moves, threads, (id, dir, result) -> {
+                System.out.println("Move " + dir);
+                System.out.println("Succeed to move " + dir);
+            }));
+            report(round, "EventLog", run(moves, threads, (id, dir, result) -> EventLog.debug(result.name(), id, dir)));
+            EventLog.flush();
+        }
+        System.err.println("EventLog dropped " + EventLog.getDropped() + " events");
+    }
+
+    private static void report(int round, String name, long nanosPerMove) {
+        if (round > 0) {
+            System.err.printf("%-12s %6d ns/move%n", name, nanosPerMove);
+        }
+    }
+
+    private static long run(int moves, int threads, MoveLogger logger) throws InterruptedException {
+        GameState state = new GameState(100, 10);
+        Random random = new Random(1);
+        state.spawnTreasures(10, random);
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            String id = "p" + t;
+            Player player = new Player(id);
+            state.placePlayer(player, random);
+            int handle = state.handleOf(id);
+            workers[t] = new Thread(() -> {
+                Random moveRandom = new Random(id.hashCode());
+                for (int i = 0; i < moves / threads; i++) {
+                    int opcode = GameState.OP_WEST + moveRandom.nextInt(4);
+                    GameState.MoveResult result;
+                    synchronized (state) {
+                        result = state.applyMove(handle, opcode, moveRandom);
+                    }
+                    logger.log(id, GameState.directionName(opcode), result);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (System.nanoTime() - start) * threads / moves;
+    }
+
+    private interface MoveLogger {
+        void log(String playerId, String direction, GameState.MoveResult result);
+    }
+}
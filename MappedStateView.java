@@ -0,0 +1,262 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latest GameState of a room in a memory-mapped file, so Game processes on the primary's host
+ * read it without an RPC. The primary is the only writer and guards every publish with a seqlock:
+ * the sequence is odd while a write is in progress, a reader retries when it saw an odd sequence or
+ * the sequence moved while it was copying.
+ * <p>
+ * Layout, native byte order:
+ * 0 magic, 8 sequence, 16 publish time ms (outside the seqlock), 24 state version,
+ * 32 N, 36 K, 40 players (-1 when the state did not fit), 44 treasures, 48 writer name length,
+ * 52 writer name, 120 dedicated servers, then from 128 the players (id length, id, x, y, score,
+ * last move id, server type), the treasures (x, y) and the dedicated servers (id length, id,
+ * server type).
+ * <p>
+ * A write copies the whole state under its lock, so the moves publish at most every PERIOD_MS and
+ * the primary's heartbeat publishes what they left out.
+ * <p>
+ * Enabled with the system property game.mmap.dir (a directory on the local host, /dev/shm is a
+ * good one), sized with game.mmap.bytes (default 4MB), rate capped with game.mmap.periodMs
+ * (default 20).
+ */
+public class MappedStateView {
+
+    public static final String DIR = System.getProperty("game.mmap.dir");
+    private static final int CAPACITY = Integer.getInteger("game.mmap.bytes", 4 << 20);
+    // A reader ignores the view when the writer has not published for this long, e.g. it moved host
+    private static final long STALE_MS = 1000;
+    public static final long PERIOD_MS = Long.getLong("game.mmap.periodMs", 20);
+
+    private static final int MAGIC = 0x47535631;
+    private static final int SEQ = 8;
+    private static final int PUBLISHED_AT = 16;
+    private static final int VERSION = 24;
+    private static final int GRID = 32;
+    private static final int COUNTS = 40;
+    private static final int WRITER = 48;
+    private static final int WRITER_MAX = 64;
+    private static final int SERVERS = 120;
+    private static final int PAYLOAD = 128;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final MappedByteBuffer mBuffer;
+    private final boolean mWriter;
+    private long mPublishedVersion = -1;
+    private long mPublishedNanos;
+
+    private MappedStateView(MappedByteBuffer buffer, boolean writer) {
+        mBuffer = buffer;
+        mBuffer.order(ByteOrder.nativeOrder());
+        mWriter = writer;
+    }
+
+    /**
+     * @return the writer side of the room's view, null if the mode is off or the file can't be made
+     */
+    public static MappedStateView openWriter(String prefixURL) {
+        if (DIR == null) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(fileOf(prefixURL), "rw")) {
+            file.setLength(CAPACITY);
+            MappedStateView view = new MappedStateView(file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, CAPACITY), true);
+            view.mBuffer.putInt(0, MAGIC);
+            return view;
+        } catch (IOException e) {
+            System.out.println("State view not available " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the reader side of the room's view, null if there is none on this host
+     */
+    public static MappedStateView openReader(String prefixURL) {
+        if (DIR == null || !fileOf(prefixURL).exists()) {
+            return null;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(fileOf(prefixURL), "r")) {
+            MappedStateView view = new MappedStateView(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()), false);
+            return view.mBuffer.getInt(0) == MAGIC ? view : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static File fileOf(String prefixURL) {
+        return new File(DIR, prefixURL.replaceAll("[^A-Za-z0-9.-]", "_") + "state");
+    }
+
+    /**
+     * Publish the state if it changed since the last publish and the last one is PERIOD_MS old,
+     * and mark the view fresh either way
+     *
+     * @param force publish now even if the version did not move, server roles change without one
+     */
+    public synchronized void publish(GameState state, String writer, boolean force) {
+        if (!mWriter) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (!force && now - mPublishedNanos < TimeUnit.MILLISECONDS.toNanos(PERIOD_MS)) {
+            return;
+        }
+        synchronized (state) {
+            long version = state.version();
+            if (force || version != mPublishedVersion) {
+                write(state, writer, version);
+                mPublishedVersion = version;
+                mPublishedNanos = now;
+            }
+        }
+        LONGS.setRelease(mBuffer, PUBLISHED_AT, System.currentTimeMillis());
+    }
+
+    private void write(GameState state, String writer, long version) {
+        long seq = (long) LONGS.getOpaque(mBuffer, SEQ);
+        LONGS.setRelease(mBuffer, SEQ, seq + 1);
+        VarHandle.storeStoreFence();
+        mBuffer.putLong(VERSION, version);
+        mBuffer.putInt(GRID, state.N);
+        mBuffer.putInt(GRID + 4, state.K);
+        byte[] name = writer.getBytes(StandardCharsets.UTF_8);
+        int nameLength = Math.min(name.length, WRITER_MAX);
+        mBuffer.putInt(WRITER, nameLength);
+        mBuffer.put(WRITER + 4, name, 0, nameLength);
+        int players = 0;
+        int treasures = 0;
+        int servers = 0;
+        try {
+            mBuffer.position(PAYLOAD);
+            for (Player p : state.players) {
+                putId(p.playerID);
+                mBuffer.putInt(p.position.x).putInt(p.position.y).putInt(p.score).putLong(p.lastMoveId)
+                        .put(serverType(p));
+                players++;
+            }
+            for (Point t : state.treasures) {
+                mBuffer.putInt(t.x).putInt(t.y);
+                treasures++;
+            }
+            for (Player s : state.servers) {
+                putId(s.playerID);
+                mBuffer.put(serverType(s));
+                servers++;
+            }
+        } catch (RuntimeException e) {
+            // Does not fit, readers go back to RMI until it does
+            players = -1;
+        }
+        mBuffer.putInt(COUNTS, players);
+        mBuffer.putInt(COUNTS + 4, treasures);
+        mBuffer.putInt(SERVERS, servers);
+        LONGS.setRelease(mBuffer, SEQ, seq + 2);
+    }
+
+    /**
+     * Length and UTF-8 bytes of the id, ASCII ids go in without a copy
+     */
+    private void putId(String id) {
+        int length = id.length();
+        for (int i = 0; i < length; i++) {
+            if (id.charAt(i) >= 0x80) {
+                byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+                mBuffer.putShort((short) bytes.length).put(bytes);
+                return;
+            }
+        }
+        mBuffer.putShort((short) length);
+        for (int i = 0; i < length; i++) {
+            mBuffer.put((byte) id.charAt(i));
+        }
+    }
+
+    private static byte serverType(Player p) {
+        Game.RemoteServerImpl.ServerType type = p.serverType;
+        return (byte) (type == null ? 0 : type.ordinal() + 1);
+    }
+
+    private static Game.RemoteServerImpl.ServerType serverType(int b) {
+        return b == 0 ? null : Game.RemoteServerImpl.ServerType.values()[b - 1];
+    }
+
+    private String getId() {
+        byte[] id = new byte[mBuffer.getShort()];
+        mBuffer.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the latest state published by writer
+     *
+     * @return null if there is no fresh, complete state from that writer, ask over RMI instead
+     */
+    public GameState read(String writer) {
+        if (System.currentTimeMillis() - (long) LONGS.getAcquire(mBuffer, PUBLISHED_AT) > STALE_MS) {
+            return null;
+        }
+        // The buffer position is per reader, keep one reader at a time on it
+        synchronized (this) {
+            for (int attempt = 0; attempt < 100; attempt++) {
+                long seq = (long) LONGS.getAcquire(mBuffer, SEQ);
+                if ((seq & 1) != 0) {
+                    Thread.onSpinWait();
+                    continue;
+                }
+                GameState state = tryRead(writer);
+                VarHandle.loadLoadFence();
+                if ((long) LONGS.getAcquire(mBuffer, SEQ) == seq) {
+                    return state;
+                }
+            }
+        }
+        return null;
+    }
+
+    private GameState tryRead(String writer) {
+        try {
+            int nameLength = mBuffer.getInt(WRITER);
+            byte[] name = new byte[Math.min(Math.max(nameLength, 0), WRITER_MAX)];
+            mBuffer.get(WRITER + 4, name);
+            int players = mBuffer.getInt(COUNTS);
+            if (players < 0 || !writer.equals(new String(name, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            int treasures = mBuffer.getInt(COUNTS + 4);
+            int servers = mBuffer.getInt(SERVERS);
+            GameState state = new GameState(mBuffer.getInt(GRID), mBuffer.getInt(GRID + 4));
+            mBuffer.position(PAYLOAD);
+            for (int i = 0; i < players; i++) {
+                Player p = new Player(getId());
+                p.position = new Point(mBuffer.getInt(), mBuffer.getInt());
+                p.score = mBuffer.getInt();
+                p.lastMoveId = mBuffer.getLong();
+                p.serverType = serverType(mBuffer.get());
+                state.addPlayer(p);
+            }
+            for (int i = 0; i < treasures; i++) {
+                state.addTreasure(new Point(mBuffer.getInt(), mBuffer.getInt()));
+            }
+            for (int i = 0; i < servers; i++) {
+                Player s = new Player(getId());
+                s.dedicated = true;
+                s.serverType = serverType(mBuffer.get());
+                state.addServer(s);
+            }
+            return state;
+        } catch (RuntimeException e) {
+            // Torn read of a half written state, the sequence check throws it away
+            return null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Bytes allocated and time spent per validated move on the primary, calling RemoteServerImpl.Move
+ * directly so the RMI transport is left out. Allocation is read from the thread allocation counter
+ * of the HotSpot ThreadMXBean.
+ * <p>
+ * Usage: java MoveAllocationBenchmark [moves] [players]
+ */
+public class MoveAllocationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int moves = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ExecutorService threadPool = Executors.newFixedThreadPool(2);
+
+        GameState state = new GameState(players, 10);
+        for (int i = 0; i < players; i++) {
+            Player p = new Player("p" + i);
+            // p0 starts at (0,1), below the row of the others
+            p.position = new Point(i, i == 0 ? 1 : 0);
+            state.addPlayer(p);
+        }
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, "", "p0");
+        server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+
+        long moveId = 0;
+        for (int round = 0; round < 2; round++) {
+            // First round is warmup
+            long threadId = Thread.currentThread().getId();
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < moves; i++) {
+                // Shuffle between (0,1) and (1,1) so every move is validated and applied
+                server.Move("p0", (i & 1) == 0 ? GameState.OP_EAST : GameState.OP_WEST, ++moveId);
+            }
+            long elapsed = System.nanoTime() - start;
+            long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+            if (round > 0) {
+                System.out.printf("%d moves, %d players: %.1f bytes/move, %.0f ns/move%n",
+                        moves, players, (double) bytes / moves, (double) elapsed / moves);
+            }
+        }
+        server.stopHeartbeatChecking();
+        threadPool.shutdownNow();
+        System.exit(0);
+    }
+}
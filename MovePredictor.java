@@ -0,0 +1,100 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+
+/**
+ * Client side prediction of the local player's own moves.
+ * <p>
+ * Moves are applied right away on top of the last authoritative state, using the same
+ * GameState rules the server validates with. When a newer authoritative state arrives, the moves
+ * it acknowledged (by move id) are dropped, a wrong guess (collision, boundary) is rolled back,
+ * and whatever is still in flight is replayed on top of the new state.
+ */
+public class MovePredictor {
+
+    private final String mPlayerId;
+    private final Deque<PendingMove> mPending = new ArrayDeque<>();
+    private Point mPredicted;
+    private long mMispredictions;
+
+    public MovePredictor(String playerId) {
+        mPlayerId = playerId;
+    }
+
+    /**
+     * Predict one of our own moves on top of the given authoritative state
+     */
+    public synchronized void predict(long moveId, byte opcode, GameState authoritative) {
+        mPending.addLast(new PendingMove(moveId, opcode));
+        replay(authoritative);
+    }
+
+    /**
+     * Drop the moves the server has applied and replay the rest on the new state
+     */
+    public synchronized void reconcile(GameState authoritative) {
+        long acked = authoritative.getLastMoveId(mPlayerId);
+        Point actual = positionOf(authoritative);
+        PendingMove lastAcked = null;
+        while (!mPending.isEmpty() && mPending.peekFirst().moveId <= acked) {
+            lastAcked = mPending.pollFirst();
+        }
+        if (lastAcked != null && actual != null && !Objects.equals(lastAcked.predicted, actual)) {
+            mMispredictions++;
+            if (EventLog.isEnabled(EventLog.Level.DEBUG)) {
+                EventLog.debug("Rolled back move", mPlayerId,
+                        lastAcked.moveId + " predicted " + lastAcked.predicted + " actual " + actual);
+            }
+        }
+        replay(authoritative);
+    }
+
+    /**
+     * @return our predicted position, null if nothing is in flight
+     */
+    public synchronized Point predictedPosition() {
+        return mPending.isEmpty() ? null : mPredicted;
+    }
+
+    public synchronized long getMispredictions() {
+        return mMispredictions;
+    }
+
+    private void replay(GameState authoritative) {
+        Point pos = positionOf(authoritative);
+        int handle = authoritative.handleOf(mPlayerId);
+        if (pos == null || handle < 0) {
+            mPending.clear();
+            mPredicted = null;
+            return;
+        }
+        for (PendingMove move : mPending) {
+            if (authoritative.checkMove(handle, pos.x, pos.y, move.opcode).succeeded()) {
+                pos = GameState.nextPosition(pos, move.opcode);
+            }
+            move.predicted = pos;
+        }
+        mPredicted = pos;
+    }
+
+    private Point positionOf(GameState state) {
+        for (Player p : state.players) {
+            if (p.playerID.equals(mPlayerId)) {
+                // Copy, the server updates positions in place
+                return new Point(p.position);
+            }
+        }
+        return null;
+    }
+
+    private static class PendingMove {
+        final long moveId;
+        final byte opcode;
+        Point predicted;
+
+        PendingMove(long moveId, byte opcode) {
+            this.moveId = moveId;
+            this.opcode = opcode;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Nearest treasure queries through the TreasureIndex against a linear scan of the treasures, as K
+ * (the number of treasures) grows, and the cost of keeping the index up to date when treasures are
+ * picked up and respawned. Every index answer is checked against the scan.
+ * <p>
+ * Usage: java NearestTreasureBenchmark [grid size] [nearest k] [queries]
+ */
+public class NearestTreasureBenchmark {
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        System.out.printf("%dx%d grid, %d nearest, %d queries%n", n, n, k, queries);
+        System.out.printf("%10s %12s %12s %12s %10s %10s%n", "K", "index ns/q", "scan ns/q", "range ns/q",
+                "in range", "update ns");
+        // Warmup
+        run(n, 1000, k, queries);
+        for (int treasures : new int[]{10, 100, 1000, 10000, 100000, 1000000}) {
+            run(n, treasures, k, queries);
+        }
+    }
+
+    private static void run(int n, int treasures, int k, int queries) {
+        Random random = new Random(1);
+        GameState state = new GameState(n, treasures);
+        state.spawnTreasures(treasures, random);
+        Point[] all = state.treasures.toArray(new Point[0]);
+        int[] xs = new int[queries];
+        int[] ys = new int[queries];
+        for (int i = 0; i < queries; i++) {
+            xs[i] = random.nextInt(n);
+            ys[i] = random.nextInt(n);
+        }
+        // Fewer scans on the big sets, they are slow
+        int scans = (int) Math.max(100, Math.min(queries, 2e8 / treasures / 10));
+
+        long start = System.nanoTime();
+        List<List<Point>> indexed = new ArrayList<>(queries);
+        for (int i = 0; i < queries; i++) {
+            indexed.add(state.nearestTreasures(xs[i], ys[i], k));
+        }
+        long indexNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<List<Point>> scanned = new ArrayList<>(scans);
+        for (int i = 0; i < scans; i++) {
+            scanned.add(scan(all, xs[i], ys[i], k));
+        }
+        long scanNanos = System.nanoTime() - start;
+        for (int i = 0; i < scans; i++) {
+            check(indexed.get(i), scanned.get(i), xs[i], ys[i]);
+        }
+
+        // A window the size of a player's board
+        start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < queries; i++) {
+            found += state.treasuresIn(xs[i], ys[i], 25, 25).size();
+        }
+        long rangeNanos = System.nanoTime() - start;
+
+        // A pickup removes a treasure and spawns one, both go through the index
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            Point t = all[i % all.length];
+            state.removeTreasure(t);
+            state.addTreasure(t);
+        }
+        long updateNanos = System.nanoTime() - start;
+
+        System.out.printf("%10d %12.1f %12.1f %12.1f %10.2f %10.1f%n", treasures, (double) indexNanos / queries,
+                (double) scanNanos / scans, (double) rangeNanos / queries, (double) found / queries,
+                (double) updateNanos / queries / 2);
+    }
+
+    private static List<Point> scan(Point[] treasures, int x, int y, int k) {
+        Comparator<Point> distance = Comparator.comparingInt(p -> Math.abs(p.x - x) + Math.abs(p.y - y));
+        PriorityQueue<Point> farthest = new PriorityQueue<>(distance.reversed());
+        for (Point t : treasures) {
+            if (farthest.size() < k) {
+                farthest.add(t);
+            } else if (distance.compare(t, farthest.peek()) < 0) {
+                farthest.poll();
+                farthest.add(t);
+            }
+        }
+        List<Point> nearest = new ArrayList<>(farthest);
+        nearest.sort(distance);
+        return nearest;
+    }
+
+    private static void check(List<Point> indexed, List<Point> scanned, int x, int y) {
+        if (indexed.size() != scanned.size()) {
+            throw new IllegalStateException("Index found " + indexed.size() + ", scan " + scanned.size());
+        }
+        for (int i = 0; i < indexed.size(); i++) {
+            Point a = indexed.get(i);
+            Point b = scanned.get(i);
+            // Ties may come in another order, the distances must match
+            if (Math.abs(a.x - x) + Math.abs(a.y - y) != Math.abs(b.x - x) + Math.abs(b.y - y)) {
+                throw new IllegalStateException("Index and scan differ at " + x + "," + y);
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of well behaved players while one bot floods the primary, with and without
+ * AdmissionControl. With "process" the bot floods from its own JVM instead of from threads of this
+ * one, "host" runs that JVM at the lowest CPU priority (nice 19): on a box with few cores it stands in
+ * for a bot on another host, whose CPU the server doesn't share.
+ * <p>
+ * Usage: java OverloadBenchmark [seconds] [players] [flood threads] [threads|process|host]
+ */
+public class OverloadBenchmark {
+
+    private static final int IDLE_PLAYERS = 200;
+    private static final int REGISTRY_PORT = 24099;
+    private static boolean sNice;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("flood")) {
+            flood(args[1], Integer.parseInt(args[2]));
+            return;
+        }
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int floodThreads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        String mode = args.length > 3 ? args[3] : "threads";
+        sNice = mode.equals("host");
+        ExecutorService threadPool = Executors.newCachedThreadPool();
+        Registry registry = mode.equals("threads") ? null : LocateRegistry.createRegistry(REGISTRY_PORT);
+
+        // Warmup
+        run(null, new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE), 2, players, floodThreads,
+                registry, threadPool);
+        run("no flood", new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE), seconds, players, 0,
+                registry, threadPool);
+        run("flood, no admission", new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE),
+                seconds, players, floodThreads, registry, threadPool);
+        run("flood, admission", AdmissionControl.defaults(), seconds, players, floodThreads, registry, threadPool);
+        threadPool.shutdownNow();
+        System.exit(0);
+    }
+
+    /**
+     * The bot in its own JVM: flood the server bound as name until killed
+     */
+    private static void flood(String name, int threads) throws Exception {
+        IGameCallback stub = (IGameCallback) LocateRegistry.getRegistry(REGISTRY_PORT).lookup(name);
+        AtomicLong botMoveId = new AtomicLong();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                while (true) {
+                    try {
+                        stub.Move("bot", GameState.OP_REFRESH, botMoveId.incrementAndGet());
+                    } catch (Exception e) {
+                        // Rejected, a misbehaving bot retries immediately
+                    }
+                }
+            }).start();
+        }
+        System.out.println("flooding");
+    }
+
+    private static Process startFlood(int threads) throws Exception {
+        List<String> command = new ArrayList<>();
+        if (sNice) {
+            command.addAll(List.of("nice", "-n", "19"));
+        }
+        command.addAll(List.of(ProcessHandle.current().info().command().orElse("java"),
+                "-cp", System.getProperty("java.class.path"),
+                "OverloadBenchmark", "flood", "server", String.valueOf(threads)));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        // Started once it has the stub, the measurement begins with the flood on
+        new BufferedReader(new InputStreamReader(process.getInputStream())).readLine();
+        return process;
+    }
+
+    private static void run(String name, AdmissionControl admission, int seconds, int players, int floodThreads,
+                            Registry registry, ExecutorService threadPool) throws Exception {
+        // Idle players make every returned state a realistic size
+        GameState state = new GameState(Math.max(IDLE_PLAYERS, players + 1), 10);
+        for (int i = 0; i <= players; i++) {
+            Player p = new Player(i == players ? "bot" : "p" + i);
+            p.position = new Point(i, 0);
+            state.addPlayer(p);
+        }
+        for (int i = 0; i < IDLE_PLAYERS; i++) {
+            Player p = new Player("idle" + i);
+            p.position = new Point(i, 1);
+            state.addPlayer(p);
+        }
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, "", "p0");
+        server.setAdmissionControl(admission);
+        IGameCallback stub = (IGameCallback) RemoteObject.toStub(server);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong botMoveId = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        Process floodProcess = null;
+        if (registry != null) {
+            registry.rebind("server", stub);
+            if (floodThreads > 0) {
+                floodProcess = startFlood(floodThreads);
+            }
+        }
+        for (int t = 0; registry == null && t < floodThreads; t++) {
+            Thread flood = new Thread(() -> {
+                while (running.get()) {
+                    try {
+                        stub.Move("bot", GameState.OP_REFRESH, botMoveId.incrementAndGet());
+                    } catch (Exception e) {
+                        // Rejected, a misbehaving bot retries immediately
+                    }
+                }
+            });
+            threads.add(flood);
+        }
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < players; i++) {
+            String id = "p" + i;
+            Thread player = new Thread(() -> {
+                long moveId = 0;
+                while (running.get()) {
+                    long start = System.nanoTime();
+                    try {
+                        stub.Move(id, GameState.OP_REFRESH, ++moveId);
+                        latencies.add(System.nanoTime() - start);
+                        Thread.sleep(50);
+                    } catch (AdmissionControl.OverloadedException e) {
+                        latencies.add(System.nanoTime() - start);
+                    } catch (Exception e) {
+                        return;
+                    }
+                }
+            });
+            threads.add(player);
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (floodProcess != null) {
+            floodProcess.destroyForcibly().waitFor();
+        }
+        java.rmi.server.UnicastRemoteObject.unexportObject(server, true);
+        server.stopHeartbeatChecking();
+
+        if (name == null) {
+            return;
+        }
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        // The bot's calls as the server counts them, wherever the bot runs
+        Map<String, Long> stats = admission.getStats();
+        long floodCalls = stats.get("admitted") + stats.get("rejectedRate") + stats.get("rejectedConcurrency")
+                + stats.get("rejectedPlayerConcurrency") - sorted.size();
+        System.out.printf("%-20s player moves %6d  p50 %7.2fms  p99 %7.2fms  flood calls %8d  %s%n",
+                name, sorted.size(),
+                sorted.get(sorted.size() / 2) / 1e6,
+                sorted.get((int) (sorted.size() * 0.99)) / 1e6,
+                floodCalls, stats);
+    }
+}
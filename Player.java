@@ -1,4 +1,3 @@
-import java.awt.*;
 import java.io.Serializable;
 
 public class Player implements Serializable {
@@ -6,9 +5,27 @@ public class Player implements Serializable {
     public Point position;
     public volatile Game.RemoteServerImpl.ServerType serverType;
     public int score;
+    // Last move id the server applied for this player, used to drop duplicate moves
+    public long lastMoveId;
+    // A dedicated server node: takes server roles, never gets a cell or a score, see GameState.servers
+    public boolean dedicated;
+    // Where the node answers UdpHeartbeat PINGs, port 0 if it doesn't
+    public String heartbeatHost;
+    public int heartbeatPort;
 
     public Player(String playerID) {
         this.playerID = playerID;
         this.position = new Point(0, 0);
     }
+
+    public Player(Player other) {
+        this.playerID = other.playerID;
+        this.position = new Point(other.position);
+        this.serverType = other.serverType;
+        this.score = other.score;
+        this.lastMoveId = other.lastMoveId;
+        this.dedicated = other.dedicated;
+        this.heartbeatHost = other.heartbeatHost;
+        this.heartbeatPort = other.heartbeatPort;
+    }
 }
@@ -0,0 +1,215 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Server side index of GameState in struct-of-arrays form: x, y and score of every player live in
+ * dense primitive arrays indexed by an integer handle given out when the player is added.
+ * Occupied cells and treasure cells live in a ChunkedWorld, so validating and applying a move
+ * touches a few array slots and allocates nothing outside of a chunk boundary crossing. Treasures
+ * are also kept in a TreasureIndex for the nearest treasure queries.
+ * <p>
+ * Not thread safe, GameState guards it.
+ */
+class PlayerTable {
+
+    int[] xs = new int[16];
+    int[] ys = new int[16];
+    int[] scores = new int[16];
+    // GameState version of the last change to the player, see GameState.changesSince
+    long[] versions = new long[16];
+    // System.nanoTime of the last request from the player, see GameState.touch
+    long[] lastSeen = new long[16];
+    Player[] players = new Player[16];
+
+    private final Map<String, Integer> mHandles = new HashMap<>();
+    private final ChunkedWorld mWorld = new ChunkedWorld();
+    private final TreasureIndex mTreasureIndex;
+    private int[] mFreeHandles = new int[16];
+    private int mFreeCount;
+    private int mHighWater;
+
+    PlayerTable(int n) {
+        mTreasureIndex = new TreasureIndex(n);
+    }
+
+    static long cell(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    int handleOf(String playerId) {
+        Integer handle = mHandles.get(playerId);
+        return handle == null ? -1 : handle;
+    }
+
+    int add(Player player) {
+        int handle = mFreeCount > 0 ? mFreeHandles[--mFreeCount] : mHighWater++;
+        if (handle >= players.length) {
+            int size = players.length * 2;
+            xs = Arrays.copyOf(xs, size);
+            ys = Arrays.copyOf(ys, size);
+            scores = Arrays.copyOf(scores, size);
+            versions = Arrays.copyOf(versions, size);
+            lastSeen = Arrays.copyOf(lastSeen, size);
+            players = Arrays.copyOf(players, size);
+        }
+        players[handle] = player;
+        xs[handle] = player.position.x;
+        ys[handle] = player.position.y;
+        scores[handle] = player.score;
+        lastSeen[handle] = System.nanoTime();
+        mHandles.put(player.playerID, handle);
+        mWorld.setOwner(player.position.x, player.position.y, handle);
+        return handle;
+    }
+
+    void remove(int handle) {
+        Player player = players[handle];
+        mWorld.clearOwner(xs[handle], ys[handle], handle);
+        mHandles.remove(player.playerID);
+        players[handle] = null;
+        if (mFreeCount == mFreeHandles.length) {
+            mFreeHandles = Arrays.copyOf(mFreeHandles, mFreeCount * 2);
+        }
+        mFreeHandles[mFreeCount++] = handle;
+    }
+
+    /**
+     * One past the highest handle in use, handles below it may be free
+     */
+    int highWater() {
+        return mHighWater;
+    }
+
+    int ownerOf(int x, int y) {
+        return mWorld.ownerOf(x, y);
+    }
+
+    boolean isTreasure(int x, int y) {
+        return mWorld.isTreasure(x, y);
+    }
+
+    void addTreasure(int x, int y) {
+        if (mWorld.addTreasure(x, y)) {
+            mTreasureIndex.add(x, y);
+        }
+    }
+
+    void removeTreasure(int x, int y) {
+        if (mWorld.removeTreasure(x, y)) {
+            mTreasureIndex.remove(x, y);
+        }
+    }
+
+    TreasureIndex treasureIndex() {
+        return mTreasureIndex;
+    }
+
+    /**
+     * Chunks of the world allocated now
+     */
+    int chunkCount() {
+        return mWorld.chunkCount();
+    }
+
+    void moveTo(int handle, int x, int y) {
+        // Set before clearing, a move inside the chunk never frees and reallocates it
+        mWorld.setOwner(x, y, handle);
+        if (x != xs[handle] || y != ys[handle]) {
+            mWorld.clearOwner(xs[handle], ys[handle], handle);
+        }
+        xs[handle] = x;
+        ys[handle] = y;
+        // Update the replicated Player in place, no new Point per move
+        players[handle].position.setLocation(x, y);
+    }
+
+    /**
+     * Open addressing map from a packed cell (or chunk) to an int, -1 stands for absent
+     */
+    static class LongIntMap {
+        private static final long EMPTY = Long.MIN_VALUE;
+        private long[] mKeys;
+        private int[] mValues;
+        private int mSize;
+
+        LongIntMap() {
+            mKeys = new long[64];
+            mValues = new int[64];
+            Arrays.fill(mKeys, EMPTY);
+        }
+
+        int get(long key) {
+            int mask = mKeys.length - 1;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    return mValues[i];
+                }
+                if (mKeys[i] == EMPTY) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(long key, int value) {
+            if ((mSize + 1) * 2 > mKeys.length) {
+                resize();
+            }
+            int mask = mKeys.length - 1;
+            for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    mValues[i] = value;
+                    return;
+                }
+                if (mKeys[i] == EMPTY) {
+                    mKeys[i] = key;
+                    mValues[i] = value;
+                    mSize++;
+                    return;
+                }
+            }
+        }
+
+        void remove(long key) {
+            int mask = mKeys.length - 1;
+            int i = slot(key, mask);
+            while (mKeys[i] != key) {
+                if (mKeys[i] == EMPTY) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            mKeys[i] = EMPTY;
+            mSize--;
+            // Shift back the entries of the probe chain so lookups never stop early
+            for (int j = (i + 1) & mask; mKeys[j] != EMPTY; j = (j + 1) & mask) {
+                int home = slot(mKeys[j], mask);
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    mKeys[i] = mKeys[j];
+                    mValues[i] = mValues[j];
+                    mKeys[j] = EMPTY;
+                    i = j;
+                }
+            }
+        }
+
+        private void resize() {
+            long[] keys = mKeys;
+            int[] values = mValues;
+            mKeys = new long[keys.length * 2];
+            mValues = new int[keys.length * 2];
+            Arrays.fill(mKeys, EMPTY);
+            mSize = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    put(keys[i], values[i]);
+                }
+            }
+        }
+
+        private static int slot(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+    }
+}
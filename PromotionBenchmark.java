@@ -0,0 +1,120 @@
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Promotion time against state size over loopback RMI: the whole GameState as one object, the way
+ * becomeServer used to get it, against a chunked StateTransfer pull. Players keep moving on the
+ * primary during the pull (about 5000 moves/s), the pulled copy is checked against the primary
+ * afterwards.
+ * <p>
+ * Usage: java PromotionBenchmark [player counts...]
+ */
+public class PromotionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = args.length > 0
+                ? java.util.Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1000, 10000, 50000};
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+        // Warmup
+        run(2000, threadPool);
+        System.out.printf("%8s %10s %12s %12s %12s %10s%n",
+                "players", "state KB", "one obj ms", "chunked ms", "max chunk KB", "moves");
+        for (int players : sizes) {
+            run(players, threadPool).print(players);
+        }
+        threadPool.shutdown();
+        System.exit(0);
+    }
+
+    private static Result run(int players, ExecutorService threadPool) throws Exception {
+        int size = (int) Math.ceil(Math.sqrt(players * 2.0));
+        GameState state = new GameState(size, 10);
+        List<Player> joining = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            joining.add(new Player("p" + i));
+        }
+        state.placePlayers(joining, new Random(1));
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, "", "primary");
+        server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        IGameCallback stub = (IGameCallback) RemoteObject.toStub(server);
+
+        Result result = new Result();
+        result.stateBytes = serializedSize(state);
+        long start = System.nanoTime();
+        stub.sync();
+        result.oneObjectNanos = System.nanoTime() - start;
+
+        AtomicBoolean moving = new AtomicBoolean(true);
+        AtomicLong moves = new AtomicLong();
+        Thread mover = new Thread(() -> {
+            Random random = new Random(2);
+            long moveId = 0;
+            while (moving.get()) {
+                try {
+                    server.Move("p" + random.nextInt(players), (byte) (1 + random.nextInt(4)), ++moveId);
+                    // About 5000 moves per second
+                    if (moves.incrementAndGet() % 5 == 0) {
+                        Thread.sleep(1);
+                    }
+                } catch (Exception e) {
+                    return;
+                }
+            }
+        });
+        mover.start();
+        start = System.nanoTime();
+        StateTransfer.Copy pulled = StateTransfer.pull(stub);
+        result.chunkedNanos = System.nanoTime() - start;
+        moving.set(false);
+        mover.join();
+        GameState copy = pulled.state;
+        result.moves = moves.get();
+        result.maxChunkBytes = serializedSize(new ArrayList<>(state.copyPlayers(
+                state.playerIds().subList(0, Math.min(players, StateTransfer.CHUNK_PLAYERS)))));
+
+        // Moves after the last round are the backup's regular sync's job, replay them here to compare
+        StateTransfer.catchUp(stub, copy, pulled.version);
+        for (Player p : state.players) {
+            Player c = copy.findPlayer(p.playerID);
+            if (c == null || !c.position.equals(p.position) || c.score != p.score || c.lastMoveId != p.lastMoveId) {
+                throw new IllegalStateException("Copy differs at " + p.playerID);
+            }
+        }
+        if (copy.players.size() != state.players.size()) {
+            throw new IllegalStateException("Copy has " + copy.players.size() + " players, want " + state.players.size());
+        }
+        server.stopHeartbeatChecking();
+        return result;
+    }
+
+    private static int serializedSize(Object o) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        return bytes.size();
+    }
+
+    private static class Result {
+        int stateBytes;
+        int maxChunkBytes;
+        long oneObjectNanos;
+        long chunkedNanos;
+        long moves;
+
+        void print(int players) {
+            System.out.printf("%8d %10.0f %12.1f %12.1f %12.1f %10d%n", players, stateBytes / 1024.0,
+                    oneObjectNanos / 1e6, chunkedNanos / 1e6, maxChunkBytes / 1024.0, moves);
+        }
+    }
+}
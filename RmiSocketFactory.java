@@ -0,0 +1,331 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Socket factories for every object we export (game servers, client listeners and the tracker).
+ * The client half travels inside the stubs, so all callers get the same tuning:
+ * 1. Bounded connect and read times instead of the RMI defaults
+ * 2. TCP_NODELAY so small Move payloads are not held back by Nagle
+ * 3. Keep-alive and sized buffers so RMI can keep reusing the connection
+ * 4. Optional deflate of any message bigger than the compression threshold
+ * <p>
+ * RMI keeps the SO_TIMEOUT a factory set for the life of the connection, so the read timeout bounds
+ * every call through the stubs of an object. Game servers get a long one: it also bounds the backup's
+ * full state sync and the StateTransfer calls, and a big state or a GC pause on the primary must
+ * not look like a dead primary. A client's move has its own deadline, see AsyncGameClient.
+ */
+public class RmiSocketFactory implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+
+    public static final int BUFFER_SIZE = Integer.getInteger("game.rmi.bufferSize", 64 * 1024);
+    // 0 turns compression off, both ends then speak plain RMI
+    public static final int COMPRESS_THRESHOLD = Integer.getInteger("game.rmi.compressThreshold", 0);
+    // Read timeout of calls to game servers, only guards against a hung peer
+    public static final int SERVER_READ_TIMEOUT_MS = Integer.getInteger("game.rmi.serverReadTimeoutMs", 30000);
+
+    private final int mConnectTimeoutMs;
+    private final int mReadTimeoutMs;
+    private final int mCompressThreshold;
+
+    public RmiSocketFactory(int connectTimeoutMs, int readTimeoutMs, int compressThreshold) {
+        mConnectTimeoutMs = connectTimeoutMs;
+        mReadTimeoutMs = readTimeoutMs;
+        mCompressThreshold = compressThreshold;
+    }
+
+    public static RmiSocketFactory defaults() {
+        return new RmiSocketFactory(Game.CONNECT_TIMEOUT_MS, Game.REQUEST_DEADLINE_MS, COMPRESS_THRESHOLD);
+    }
+
+    /**
+     * For game servers, see the class comment
+     */
+    public static RmiSocketFactory forServers() {
+        return new RmiSocketFactory(Game.CONNECT_TIMEOUT_MS, SERVER_READ_TIMEOUT_MS, COMPRESS_THRESHOLD);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = mCompressThreshold > 0 ? new FramedSocket(mCompressThreshold) : new Socket();
+        tune(socket);
+        socket.setSoTimeout(mReadTimeoutMs);
+        socket.connect(new InetSocketAddress(host, port), mConnectTimeoutMs);
+        return socket;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket() {
+            @Override
+            public Socket accept() throws IOException {
+                Socket socket = mCompressThreshold > 0 ? new FramedSocket(mCompressThreshold) : new Socket();
+                implAccept(socket);
+                tune(socket);
+                return socket;
+            }
+        };
+        serverSocket.setReuseAddress(true);
+        // Must be set before bind to apply to the window of accepted sockets
+        serverSocket.setReceiveBufferSize(BUFFER_SIZE);
+        serverSocket.bind(new InetSocketAddress(port));
+        return serverSocket;
+    }
+
+    private static void tune(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        socket.setSendBufferSize(BUFFER_SIZE);
+        socket.setReceiveBufferSize(BUFFER_SIZE);
+    }
+
+    // RMI only shares connections and listeners between endpoints whose factories are equal
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RmiSocketFactory that = (RmiSocketFactory) o;
+        return mConnectTimeoutMs == that.mConnectTimeoutMs
+                && mReadTimeoutMs == that.mReadTimeoutMs
+                && mCompressThreshold == that.mCompressThreshold;
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * mConnectTimeoutMs + mReadTimeoutMs) * 31 + mCompressThreshold;
+    }
+
+    /**
+     * Socket that sends every flushed message as one frame: [deflated flag][length][bytes].
+     * RMI flushes once per call, so small calls go out raw and big states get deflated.
+     */
+    static class FramedSocket extends Socket {
+        // Both ends stick to it, a reader rejects a length past it instead of allocating it
+        private static final int MAX_FRAME = 1 << 20;
+        // Deflate output of incompressible bytes is a little longer than the input
+        private static final int MAX_DEFLATED = MAX_FRAME + (MAX_FRAME >> 4);
+        private final int mThreshold;
+        private InputStream mIn;
+        private OutputStream mOut;
+
+        FramedSocket(int threshold) {
+            mThreshold = threshold;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (mIn == null) {
+                mIn = new FrameInputStream(super.getInputStream());
+            }
+            return mIn;
+        }
+
+        @Override
+        public synchronized OutputStream getOutputStream() throws IOException {
+            if (mOut == null) {
+                mOut = new FrameOutputStream(super.getOutputStream(), mThreshold);
+            }
+            return mOut;
+        }
+    }
+
+    static class FrameOutputStream extends FilterOutputStream {
+        private final ByteArrayOutputStream mPending = new ByteArrayOutputStream();
+        private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+        private final byte[] mChunk = new byte[8192];
+        private final int mThreshold;
+
+        FrameOutputStream(OutputStream out, int threshold) {
+            super(new DataOutputStream(out));
+            mThreshold = threshold;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            mPending.write(b);
+            if (mPending.size() >= FramedSocket.MAX_FRAME) {
+                writeFrame();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, FramedSocket.MAX_FRAME - mPending.size());
+                mPending.write(b, off, n);
+                off += n;
+                len -= n;
+                if (mPending.size() >= FramedSocket.MAX_FRAME) {
+                    writeFrame();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeFrame();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mDeflater.end();
+            super.close();
+        }
+
+        private void writeFrame() throws IOException {
+            if (mPending.size() == 0) {
+                return;
+            }
+            DataOutputStream data = (DataOutputStream) out;
+            byte[] raw = mPending.toByteArray();
+            mPending.reset();
+            if (raw.length < mThreshold) {
+                data.writeBoolean(false);
+                data.writeInt(raw.length);
+                data.write(raw);
+                return;
+            }
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(raw.length / 2);
+            mDeflater.reset();
+            mDeflater.setInput(raw);
+            mDeflater.finish();
+            while (!mDeflater.finished()) {
+                deflated.write(mChunk, 0, mDeflater.deflate(mChunk));
+            }
+            data.writeBoolean(true);
+            data.writeInt(raw.length);
+            data.writeInt(deflated.size());
+            deflated.writeTo(data);
+        }
+    }
+
+    static class FrameInputStream extends FilterInputStream {
+        private final Inflater mInflater = new Inflater();
+        private byte[] mFrame = new byte[0];
+        private int mPos;
+
+        FrameInputStream(InputStream in) {
+            super(new DataInputStream(in));
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureFrame()) {
+                return -1;
+            }
+            return mFrame[mPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureFrame()) {
+                return -1;
+            }
+            int n = Math.min(len, mFrame.length - mPos);
+            System.arraycopy(mFrame, mPos, b, off, n);
+            mPos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return mFrame.length - mPos;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && ensureFrame()) {
+                int step = (int) Math.min(n - skipped, mFrame.length - mPos);
+                mPos += step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mInflater.end();
+            super.close();
+        }
+
+        private boolean ensureFrame() throws IOException {
+            while (mPos >= mFrame.length) {
+                DataInputStream data = (DataInputStream) in;
+                int flag = data.read();
+                if (flag < 0) {
+                    return false;
+                }
+                int rawLength = checkLength(data.readInt(), FramedSocket.MAX_FRAME);
+                if (flag == 0) {
+                    mFrame = new byte[rawLength];
+                    data.readFully(mFrame);
+                } else if (flag == 1) {
+                    byte[] deflated = new byte[checkLength(data.readInt(), FramedSocket.MAX_DEFLATED)];
+                    data.readFully(deflated);
+                    mFrame = inflate(deflated, rawLength);
+                } else {
+                    throw new IOException("Corrupted frame, flag " + flag);
+                }
+                mPos = 0;
+            }
+            return true;
+        }
+
+        private static int checkLength(int length, int max) throws IOException {
+            if (length < 0 || length > max) {
+                throw new IOException("Corrupted frame, length " + length);
+            }
+            return length;
+        }
+
+        private byte[] inflate(byte[] deflated, int rawLength) throws IOException {
+            byte[] raw = new byte[rawLength];
+            mInflater.reset();
+            mInflater.setInput(deflated);
+            try {
+                int n = 0;
+                while (n < rawLength && !mInflater.finished()) {
+                    int inflated = mInflater.inflate(raw, n, rawLength - n);
+                    if (inflated == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (n != rawLength) {
+                    throw new EOFException("Truncated frame");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted frame", e);
+            }
+            return raw;
+        }
+    }
+}
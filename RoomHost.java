@@ -0,0 +1,127 @@
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves many independent rooms from one JVM. Every room has its own GameState, N and K and its own
+ * RemoteServerImpl as the primary; the rooms share the thread pool, the heartbeat scheduler, the stub
+ * cache and the RMI port. Every room picks a backup among its players as a primary does, so a crash
+ * of the host hands each room to its backup. Without backups a host serves rooms for less (no sync,
+ * no standby), but one crash loses every room it serves.
+ * <p>
+ * Configured with the system property game.host.backup (default true).
+ * <p>
+ * Usage: java RoomHost [IP-address] [port-number] [host-id] [rooms] [N] [K]
+ */
+public class RoomHost {
+
+    public static final boolean BACKUP = Boolean.parseBoolean(System.getProperty("game.host.backup", "true"));
+
+    private final String mRegistryURL;
+    private final String mHostId;
+    private final Tracker.IRmiTrack mTracker;
+    private final ExecutorService mThreadPool;
+    private final Map<String, Game.RemoteServerImpl> mRooms = new ConcurrentHashMap<>();
+    private boolean mBackup = BACKUP;
+
+    public RoomHost(String registryURL, String hostId, Tracker.IRmiTrack tracker, ExecutorService threadPool) {
+        mRegistryURL = registryURL;
+        mHostId = hostId;
+        mTracker = tracker;
+        mThreadPool = threadPool;
+    }
+
+    /**
+     * Open a room at the tracker and start serving it
+     *
+     * @return false if the room already exists
+     */
+    public boolean openRoom(String room, int n, int k) throws Exception {
+        if (mRooms.containsKey(room) || !mTracker.createRoom(room, n, k, new Player(mHostId))) {
+            return false;
+        }
+        String prefixURL = mRegistryURL + Tracker.roomPrefix(room);
+        GameState state = new GameState(n, k);
+        if (mBackup) {
+            // The backup finds the primary to watch among the nodes of the state
+            Player self = new Player(mHostId);
+            self.dedicated = true;
+            state.addServer(self);
+        }
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(mThreadPool, state, mTracker, room,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, prefixURL, mHostId);
+        server.setAssignBackup(mBackup);
+        Naming.rebind(prefixURL + mHostId, server);
+        server.heartbeatChecking();
+        mRooms.put(room, server);
+        return true;
+    }
+
+    public void closeRoom(String room) {
+        Game.RemoteServerImpl server = mRooms.remove(room);
+        if (server == null) {
+            return;
+        }
+        server.stopHeartbeatChecking();
+        String url = mRegistryURL + Tracker.roomPrefix(room) + mHostId;
+        try {
+            Naming.unbind(url);
+            mTracker.disconnect(room, new Player(mHostId));
+        } catch (Exception e) {
+            System.out.println("Close room failed " + room);
+        }
+        StubCache.evict(url);
+    }
+
+    /**
+     * For the rooms opened from now on
+     */
+    void setBackup(boolean backup) {
+        mBackup = backup;
+    }
+
+    public Game.RemoteServerImpl getRoom(String room) {
+        return mRooms.get(room);
+    }
+
+    /**
+     * @return the stats of every room, by room name
+     */
+    public Map<String, Map<String, Long>> getStats() {
+        Map<String, Map<String, Long>> stats = new TreeMap<>();
+        mRooms.forEach((room, server) -> {
+            try {
+                stats.put(room, server.getRoomStats());
+            } catch (RemoteException e) {
+                // Local call, never thrown
+            }
+        });
+        return stats;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 6) {
+            System.err.println("Missing required arguments! Usage: java RoomHost [IP-address] [port-number] [host-id] [rooms] [N] [K]");
+            System.exit(0);
+        }
+        String registryURL = "rmi://" + args[0] + ":" + args[1] + "/";
+        int rooms = Integer.parseInt(args[3]);
+        int n = Integer.parseInt(args[4]);
+        int k = Integer.parseInt(args[5]);
+
+        Tracker.IRmiTrack tracker = (Tracker.IRmiTrack) Naming.lookup(registryURL + Tracker.RMI_NAME);
+        RoomHost host = new RoomHost(registryURL, args[2],
+                tracker, Executors.newFixedThreadPool(Integer.getInteger("game.host.threads", 16)));
+        for (int i = 0; i < rooms; i++) {
+            String room = args[2] + "-" + i;
+            if (!host.openRoom(room, n, k)) {
+                System.out.println("Room already exists " + room);
+            }
+        }
+        System.out.println("Serving " + rooms + " rooms, players join with -Dgame.room=" + args[2] + "-<i>");
+    }
+}
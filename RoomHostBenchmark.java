@@ -0,0 +1,102 @@
+import java.lang.management.ManagementFactory;
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Many small rooms in one RoomHost: a registry and the tracker run in process, every player is a
+ * live client listener so the heartbeat has real work. Reports the threads and heap the rooms take
+ * and how many heartbeat rounds each room got.
+ * <p>
+ * Usage: java RoomHostBenchmark [rooms] [players per room] [seconds] [port]
+ */
+public class RoomHostBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rooms = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int port = args.length > 3 ? Integer.parseInt(args[3]) : 19099;
+        String registryURL = "rmi://127.0.0.1:" + port + "/";
+
+        LocateRegistry.createRegistry(port);
+        RmiSocketFactory factory = RmiSocketFactory.defaults();
+        Naming.rebind(registryURL + Tracker.RMI_NAME,
+                UnicastRemoteObject.exportObject(Tracker.mTracker, 0, factory, factory));
+        Tracker.IRmiTrack tracker = (Tracker.IRmiTrack) Naming.lookup(registryURL + Tracker.RMI_NAME);
+        // One listener answers the heartbeat for every player
+        Game.IGameClientImpl listener = new Game.IGameClientImpl(new Game.IGameClientListener() {
+            @Override
+            public void becomeServer(Game.RemoteServerImpl.ServerType serverType, GameState latestGameState) {
+            }
+
+            @Override
+            public void promote(Game.RemoteServerImpl.ServerType serverType, String sourceId) {
+            }
+
+            @Override
+            public void doubleCheck() {
+            }
+
+            @Override
+            public void onServerChanged(Game.RemoteServerImpl.ServerType serverType, String serverName) {
+            }
+
+            @Override
+            public void gossip(List<Gossip.Record> records) {
+            }
+        });
+
+        int threadsBefore = Thread.activeCount();
+        long heapBefore = usedHeap();
+        ExecutorService threadPool = Executors.newFixedThreadPool(16);
+        RoomHost host = new RoomHost(registryURL, "host", tracker, threadPool);
+        // The shared listener can't act as a backup, measure what the rooms themselves cost
+        host.setBackup(false);
+        long start = System.nanoTime();
+        for (int r = 0; r < rooms; r++) {
+            String room = "bench-" + r;
+            host.openRoom(room, 15, 10);
+            List<Player> joining = new ArrayList<>();
+            for (int p = 0; p < players; p++) {
+                String id = "p" + p;
+                Naming.rebind(registryURL + Tracker.roomPrefix(room) + "client/" + id, listener);
+                joining.add(new Player(id));
+            }
+            host.getRoom(room).joinAll(joining);
+        }
+        System.out.printf("%d rooms x %d players opened in %d ms%n",
+                rooms, players, (System.nanoTime() - start) / 1_000_000);
+
+        Map<String, Map<String, Long>> before = host.getStats();
+        Thread.sleep(seconds * 1000L);
+        long heapAfter = usedHeap();
+        long rounds = 0;
+        long minRounds = Long.MAX_VALUE;
+        long playersLeft = 0;
+        for (Map.Entry<String, Map<String, Long>> room : host.getStats().entrySet()) {
+            long roomRounds = room.getValue().get("heartbeatRounds") - before.get(room.getKey()).get("heartbeatRounds");
+            rounds += roomRounds;
+            minRounds = Math.min(minRounds, roomRounds);
+            playersLeft += room.getValue().get("players");
+        }
+        System.out.printf("threads +%d, heap %.1f KB per room, stub cache %d entries%n",
+                Thread.activeCount() - threadsBefore, (heapAfter - heapBefore) / 1024.0 / rooms, StubCache.size());
+        System.out.printf("heartbeat rounds per room per second: mean %.1f, min %.1f (target 10)%n",
+                (double) rounds / rooms / seconds, (double) minRounds / seconds);
+        System.out.printf("players still in: %d of %d, tracker rooms: %d%n",
+                playersLeft, rooms * players, tracker.getRooms().size());
+        System.exit(0);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        System.gc();
+        Thread.sleep(200);
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
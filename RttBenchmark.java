@@ -0,0 +1,83 @@
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.RemoteObject;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures per-move RTT over loopback RMI against a primary RemoteServerImpl, once with the RMI
+ * default sockets, once with the tuned RmiSocketFactory and once with compression on.
+ * <p>
+ * Usage: java RttBenchmark [moves] [players]
+ */
+public class RttBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int moves = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+
+        System.out.printf("%d moves, %d players in the state%n", moves, players);
+        run("rmi default", null, null, moves, players, threadPool);
+        RmiSocketFactory tuned = new RmiSocketFactory(Game.CONNECT_TIMEOUT_MS, Game.REQUEST_DEADLINE_MS, 0);
+        run("tuned", tuned, tuned, moves, players, threadPool);
+        RmiSocketFactory compressed = new RmiSocketFactory(Game.CONNECT_TIMEOUT_MS, Game.REQUEST_DEADLINE_MS, 1024);
+        run("tuned + deflate", compressed, compressed, moves, players, threadPool);
+        threadPool.shutdown();
+        System.exit(0);
+    }
+
+    private static void run(String name,
+                            RMIClientSocketFactory csf,
+                            RMIServerSocketFactory ssf,
+                            int moves,
+                            int players,
+                            ExecutorService threadPool) throws Exception {
+        GameState state = new GameState(Math.max(15, players), 10);
+        for (int i = 0; i < players; i++) {
+            Player p = new Player("p" + i);
+            // p0 starts at (0,1), below the row of the others
+            p.position = new Point(i, i == 0 ? 1 : 0);
+            state.addPlayer(p);
+        }
+
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, "", "p0");
+        // Measure the transport only, not the load shedding
+        server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        // Re-export the same server with the factories under test
+        UnicastRemoteObject.unexportObject(server, true);
+        if (csf == null) {
+            UnicastRemoteObject.exportObject(server, 0);
+        } else {
+            UnicastRemoteObject.exportObject(server, 0, csf, ssf);
+        }
+        IGameCallback stub = (IGameCallback) RemoteObject.toStub(server);
+
+        long moveId = 0;
+        long[] samples = new long[moves];
+        int warmup = Math.min(2000, moves);
+        for (int i = -warmup; i < moves; i++) {
+            // Shuffle between (0,1) and (1,1) so every move is validated and applied
+            byte opcode = (i & 1) == 0 ? GameState.OP_EAST : GameState.OP_WEST;
+            long start = System.nanoTime();
+            stub.Move("p0", opcode, ++moveId);
+            long elapsed = System.nanoTime() - start;
+            if (i >= 0) {
+                samples[i] = elapsed;
+            }
+        }
+        UnicastRemoteObject.unexportObject(server, true);
+        server.stopHeartbeatChecking();
+
+        Arrays.sort(samples);
+        System.out.printf("%-16s mean %7.1fus  p50 %7.1fus  p99 %7.1fus  max %8.1fus%n",
+                name,
+                Arrays.stream(samples).average().orElse(0) / 1000.0,
+                samples[moves / 2] / 1000.0,
+                samples[(int) (moves * 0.99)] / 1000.0,
+                samples[moves - 1] / 1000.0);
+    }
+}
@@ -0,0 +1,214 @@
+import java.rmi.Naming;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Watches a game read-only, without joining it. It subscribes to the primary, or to the spectator
+ * the primary refers it to, keeps a copy of the state from the frames it gets and relays them to
+ * the spectators below it, see SpectatorRelay.
+ * <p>
+ * A spectator that hears nothing for SpectatorRelay.SILENCE_MS (its parent died or the primary
+ * changed) subscribes again from the current primary, and so do the ones below it in turn.
+ * <p>
+ * Usage: java Spectator [IP-address] [port-number] [spectator-id]   (-Dgame.room as for Game)
+ */
+public class Spectator extends UnicastRemoteObject implements ISpectator {
+
+    private static final int MAX_DEPTH = 64;
+
+    private final String mId;
+    private final String mPrefixURL;
+    private final String mTrackerURL;
+    private final String mRoom;
+    private final SpectatorRelay mRelay;
+    // Guarded by this
+    private GameState mState;
+    private long mVersion = -1;
+    private List<String> mPath = Collections.emptyList();
+    private volatile long mLastFrameNanos = System.nanoTime();
+    // Set until subscribed, and again when the stream skipped a version
+    private volatile boolean mResubscribe = true;
+    private volatile LongConsumer mOnVersion = version -> { };
+    private final AtomicLong mFrames = new AtomicLong();
+    private final AtomicLong mGaps = new AtomicLong();
+    private final AtomicLong mSubscribes = new AtomicLong();
+
+    public Spectator(String host, int port, String room, String id, ExecutorService threadPool)
+            throws RemoteException {
+        super(0, RmiSocketFactory.defaults(), RmiSocketFactory.defaults());
+        mId = id;
+        mRoom = room;
+        mPrefixURL = "rmi://" + host + ":" + port + "/" + Tracker.roomPrefix(room);
+        mTrackerURL = "rmi://" + host + ":" + port + "/" + Tracker.RMI_NAME;
+        mRelay = new SpectatorRelay(threadPool, () -> {
+            synchronized (this) {
+                // Lost our state since, the child resubscribes when it hears nothing useful
+                return mState == null ? SpectatorRelay.Frame.keepalive(mVersion)
+                        : SpectatorRelay.Frame.keyframe(mState.snapshot(), mVersion);
+            }
+        });
+    }
+
+    @Override
+    public void onFrame(SpectatorRelay.Frame frame) {
+        synchronized (this) {
+            mFrames.incrementAndGet();
+            if (frame.keyframe != null) {
+                // The frame goes on to our children, keep a copy of our own
+                mState = frame.keyframe.snapshot();
+                mVersion = frame.version;
+            } else if (frame.delta != null) {
+                if (mState == null || frame.version <= mVersion) {
+                    // Before our keyframe, or the same version from a second parent
+                    return;
+                }
+                if (frame.since > mVersion) {
+                    // Lost a frame, start over from a keyframe
+                    mGaps.incrementAndGet();
+                    mState = null;
+                    mVersion = -1;
+                    mResubscribe = true;
+                    return;
+                }
+                mState.applyChanges(frame.delta);
+                mVersion = frame.version;
+            } else if (mState == null) {
+                return;
+            }
+            mLastFrameNanos = System.nanoTime();
+        }
+        // Outside our lock, the relay takes it for keyframes of new children
+        mRelay.publish(frame);
+        mOnVersion.accept(frame.version);
+    }
+
+    @Override
+    public SpectatorRelay.Referral subscribe(ISpectator spectator, String spectatorId) {
+        List<String> path;
+        synchronized (this) {
+            if (mState == null || mPath.contains(spectatorId) || mId.equals(spectatorId)) {
+                return new SpectatorRelay.Referral(false, Collections.emptyList(), mPath);
+            }
+            path = mPath;
+        }
+        return mRelay.accept(spectator, path);
+    }
+
+    /**
+     * Subscribe from the current primary down, to the first node with room
+     *
+     * @return false if no node took us, try again later
+     */
+    public boolean subscribe() {
+        mSubscribes.incrementAndGet();
+        try {
+            Tracker.IRmiTrack tracker = (Tracker.IRmiTrack) StubCache.lookup(mTrackerURL);
+            String primary = tracker.getServer(mRoom, Game.RemoteServerImpl.ServerType.PRIMARY_SERVER);
+            if (primary == null) {
+                return false;
+            }
+            IGameCallback server = (IGameCallback) Naming.lookup(mPrefixURL + primary);
+            SpectatorRelay.Referral referral = server.subscribe(this, mId);
+            for (int depth = 1; !referral.accepted && depth < MAX_DEPTH; depth++) {
+                SpectatorRelay.Referral next = null;
+                for (ISpectator relay : referral.relays) {
+                    try {
+                        next = relay.subscribe(this, mId);
+                        if (next.accepted || !next.relays.isEmpty()) {
+                            break;
+                        }
+                    } catch (RemoteException e) {
+                        // Gone, its parent drops it on the next frame
+                    }
+                }
+                if (next == null || (!next.accepted && next.relays.isEmpty())) {
+                    return false;
+                }
+                referral = next;
+            }
+            if (!referral.accepted) {
+                return false;
+            }
+            synchronized (this) {
+                List<String> path = new ArrayList<>(referral.path);
+                path.add(mId);
+                mPath = path;
+            }
+            mLastFrameNanos = System.nanoTime();
+            mResubscribe = false;
+            return true;
+        } catch (Exception e) {
+            System.out.println("Subscribe failed " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Subscribe now, and again whenever the stream goes silent or skips a version
+     */
+    public void watch(ScheduledExecutorService timer) {
+        timer.scheduleWithFixedDelay(() -> {
+            if (mResubscribe
+                    || System.nanoTime() - mLastFrameNanos > TimeUnit.MILLISECONDS.toNanos(SpectatorRelay.SILENCE_MS)) {
+                subscribe();
+            }
+        }, 0, SpectatorRelay.SILENCE_MS / 3, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called with the version of every frame applied, after it was passed on
+     */
+    void setOnVersion(LongConsumer onVersion) {
+        mOnVersion = onVersion;
+    }
+
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    public synchronized GameState getState() {
+        return mState;
+    }
+
+    /**
+     * Hops from the primary, 0 if not subscribed yet
+     */
+    public synchronized int getDepth() {
+        return mPath.size();
+    }
+
+    public SpectatorRelay getRelay() {
+        return mRelay;
+    }
+
+    public long getFrames() {
+        return mFrames.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Missing required arguments! Usage: java Spectator [IP-address] [port-number] [spectator-id]");
+            System.exit(0);
+        }
+        String room = System.getProperty("game.room", Tracker.DEFAULT_ROOM);
+        Spectator spectator = new Spectator(args[0], Integer.parseInt(args[1]), room, args[2],
+                Executors.newFixedThreadPool(SpectatorRelay.FANOUT + 1));
+        spectator.watch(Executors.newSingleThreadScheduledExecutor());
+        while (true) {
+            Thread.sleep(5000);
+            GameState state = spectator.getState();
+            System.out.printf("version %d, depth %d, players %d, frames %d, relaying to %d%n",
+                    spectator.getVersion(), spectator.getDepth(), state == null ? 0 : state.players.size(),
+                    spectator.getFrames(), spectator.getRelay().getStats().get("spectatorsDirect"));
+        }
+    }
+}
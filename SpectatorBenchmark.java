@@ -0,0 +1,134 @@
+import java.rmi.Naming;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The spectator stream of one primary to a growing audience, in one JVM: a Tracker, a primary with
+ * players moving at a steady rate, and the spectators, all talking RMI. For each audience size:
+ * the frames per second the primary sends (constant, at most FANOUT children), the depth of the
+ * tree, how much later than the first spectator the deepest ones see a version, and whether every
+ * spectator ends on the primary's state once the moves stop.
+ * <p>
+ * Usage: java SpectatorBenchmark [port] [spectators,...] [seconds]
+ */
+public class SpectatorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 24400;
+        int[] audiences = args.length > 1 ? Arrays.stream(args[1].split(",")).mapToInt(Integer::parseInt).toArray()
+                : new int[]{10, 100, 400};
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        Tracker.main(new String[]{String.valueOf(port), "30", "20"});
+        String prefixURL = "rmi://127.0.0.1:" + port + "/";
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(64);
+        ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+        GameState state = new GameState(30, 20);
+        Player host = new Player("p0");
+        Tracker.mTracker.connect(Tracker.DEFAULT_ROOM, host);
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, prefixURL, "p0");
+        server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        server.setAssignBackup(false);
+        server.setLivenessThresholdMs(Long.MAX_VALUE / 2_000_000);
+        Naming.rebind(prefixURL + "p0", server);
+        List<Player> joining = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            joining.add(new Player("p" + i));
+        }
+        server.joinAll(joining);
+        server.heartbeatChecking();
+
+        // 100 players, 200 moves/s between them
+        Random random = new Random(1);
+        long[] moveIds = new long[101];
+        boolean[] moving = {true};
+        Thread mover = new Thread(() -> {
+            while (true) {
+                if (moving[0]) {
+                    for (int i = 0; i < 2; i++) {
+                        int p = 1 + random.nextInt(100);
+                        try {
+                            server.Move("p" + p, (byte) (1 + random.nextInt(4)), ++moveIds[p]);
+                        } catch (Exception e) {
+                            // Pass
+                        }
+                    }
+                }
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        mover.setDaemon(true);
+        mover.start();
+
+        System.out.printf("%10s %12s %8s %10s %12s %12s %10s%n", "spectators", "primary f/s", "direct",
+                "max depth", "lag p50 ms", "lag p99 ms", "in sync");
+        List<Spectator> spectators = new ArrayList<>();
+        Map<Long, Long> firstSeen = new ConcurrentHashMap<>();
+        List<long[]> lags = new ArrayList<>();
+        for (int audience : audiences) {
+            while (spectators.size() < audience) {
+                Spectator s = new Spectator("127.0.0.1", port, Tracker.DEFAULT_ROOM, "s" + spectators.size(), threadPool);
+                long[] lag = new long[1 << 16];
+                int index = lags.size();
+                lags.add(lag);
+                s.setOnVersion(version -> {
+                    long now = System.nanoTime();
+                    Long first = firstSeen.putIfAbsent(version, now);
+                    long[] l = lags.get(index);
+                    int n = (int) l[0]++ % (l.length - 1) + 1;
+                    l[n] = first == null ? 0 : now - first;
+                });
+                s.watch(timer);
+                spectators.add(s);
+                Thread.sleep(5);
+            }
+            moving[0] = true;
+            Thread.sleep(3000);
+            lags.forEach(l -> l[0] = 0);
+            firstSeen.clear();
+            Map<String, Long> before = server.getRoomStats();
+            Thread.sleep(seconds * 1000L);
+            Map<String, Long> after = server.getRoomStats();
+            List<Long> samples = new ArrayList<>();
+            for (long[] l : lags) {
+                for (int i = 1; i <= Math.min(l[0], l.length - 1); i++) {
+                    samples.add(l[i]);
+                }
+            }
+            samples.sort(null);
+            moving[0] = false;
+            Thread.sleep(1500);
+            long digest = Trace.digest(state);
+            int inSync = 0;
+            int maxDepth = 0;
+            for (Spectator s : spectators) {
+                GameState copy = s.getState();
+                if (copy != null && Trace.digest(copy) == digest) {
+                    inSync++;
+                }
+                maxDepth = Math.max(maxDepth, s.getDepth());
+            }
+            System.out.printf("%10d %12.1f %8d %10d %12.1f %12.1f %10s%n", audience,
+                    (after.get("spectatorFrames") - before.get("spectatorFrames")) / (double) seconds,
+                    after.get("spectatorsDirect"), maxDepth,
+                    percentile(samples, 0.5) / 1e6, percentile(samples, 0.99) / 1e6, inSync + "/" + audience);
+        }
+        System.exit(0);
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        return sorted.isEmpty() ? 0 : sorted.get((int) Math.min(sorted.size() - 1, Math.floor(sorted.size() * p)));
+    }
+}
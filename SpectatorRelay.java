@@ -0,0 +1,187 @@
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Fan-out of the spectator stream, one per primary and one per Spectator. A node feeds at most FANOUT
+ * spectators directly; a spectator that subscribes to a full node is referred to its children, so
+ * the spectators form a tree and the primary's work does not grow with the audience.
+ * <p>
+ * The stream is a sequence of Frames: a keyframe (a copy of the state) when a child attaches or
+ * falls behind, then the StateTransfer.Delta of each new version, and an empty frame every
+ * KEEPALIVE_MS while nothing changes. Each child has its own queue and is sent one frame at a time;
+ * a child whose queue grows past MAX_QUEUE gets its queue replaced by a fresh keyframe, a child that
+ * fails a call is dropped and subscribes again from the primary.
+ * <p>
+ * Configured with the system properties game.spectate.fanout (default 4) and game.spectate.silenceMs
+ * (a spectator that gets nothing for this long subscribes again; default 3000).
+ */
+public class SpectatorRelay {
+
+    public static final int FANOUT = Integer.getInteger("game.spectate.fanout", 4);
+    public static final long KEEPALIVE_MS = 1000;
+    public static final long SILENCE_MS = Long.getLong("game.spectate.silenceMs", 3000);
+    static final int MAX_QUEUE = 32;
+
+    private final Executor mExecutor;
+    // The state as it is now, taken consistently with its version
+    private final Supplier<Frame> mKeyframe;
+    private final List<Child> mChildren = new CopyOnWriteArrayList<>();
+    private final AtomicLong mFramesSent = new AtomicLong();
+    private final AtomicLong mKeyframesSent = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    public SpectatorRelay(Executor executor, Supplier<Frame> keyframe) {
+        mExecutor = executor;
+        mKeyframe = keyframe;
+    }
+
+    /**
+     * Take the spectator as a child if there is room, it is sent a keyframe first
+     *
+     * @param path ids of the spectators from the primary down to this node, empty on the primary
+     */
+    public Referral accept(ISpectator spectator, List<String> path) {
+        // Under the publish lock: the keyframe and the frames published after it reach the child in order
+        synchronized (this) {
+            if (mChildren.size() < FANOUT) {
+                Child child = new Child(spectator);
+                child.offer(mKeyframe.get());
+                mChildren.add(child);
+                return new Referral(true, Collections.emptyList(), path);
+            }
+        }
+        List<ISpectator> relays = new ArrayList<>();
+        mChildren.forEach(c -> relays.add(c.spectator));
+        Collections.shuffle(relays);
+        return new Referral(false, relays, path);
+    }
+
+    /**
+     * Send the frame to every child, after the frames before it
+     */
+    public synchronized void publish(Frame frame) {
+        for (Child child : mChildren) {
+            child.offer(frame);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mChildren.isEmpty();
+    }
+
+    public Map<String, Long> getStats() {
+        return Map.of("spectatorsDirect", (long) mChildren.size(), "spectatorFrames", mFramesSent.get(),
+                "spectatorKeyframes", mKeyframesSent.get(), "spectatorsDropped", mDropped.get());
+    }
+
+    private class Child {
+        final ISpectator spectator;
+        final ConcurrentLinkedQueue<Frame> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicBoolean sending = new AtomicBoolean();
+
+        Child(ISpectator spectator) {
+            this.spectator = spectator;
+        }
+
+        // Called with the relay locked
+        void offer(Frame frame) {
+            if (queued.incrementAndGet() > MAX_QUEUE) {
+                // Too slow for the stream, skip to the current state
+                queue.clear();
+                queued.set(1);
+                frame = mKeyframe.get();
+            }
+            queue.add(frame);
+            schedule();
+        }
+
+        private void schedule() {
+            if (sending.compareAndSet(false, true)) {
+                try {
+                    mExecutor.execute(this::send);
+                } catch (RejectedExecutionException e) {
+                    sending.set(false);
+                }
+            }
+        }
+
+        private void send() {
+            Frame frame;
+            while ((frame = queue.poll()) != null) {
+                queued.decrementAndGet();
+                try {
+                    spectator.onFrame(frame);
+                    mFramesSent.incrementAndGet();
+                    if (frame.keyframe != null) {
+                        mKeyframesSent.incrementAndGet();
+                    }
+                } catch (RemoteException e) {
+                    // Gone or unreachable, its children find their way back through the primary
+                    mChildren.remove(this);
+                    mDropped.incrementAndGet();
+                    return;
+                }
+            }
+            sending.set(false);
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * One step of the stream from version since to version. A keyframe carries the whole state, a
+     * delta the changes after since, neither of them a keepalive.
+     */
+    public static class Frame implements Serializable {
+        public final long since;
+        public final long version;
+        public final GameState keyframe;
+        public final StateTransfer.Delta delta;
+
+        private Frame(long since, long version, GameState keyframe, StateTransfer.Delta delta) {
+            this.since = since;
+            this.version = version;
+            this.keyframe = keyframe;
+            this.delta = delta;
+        }
+
+        public static Frame keyframe(GameState state, long version) {
+            return new Frame(version, version, state, null);
+        }
+
+        public static Frame delta(long since, StateTransfer.Delta delta) {
+            return new Frame(since, delta.version, null, delta);
+        }
+
+        public static Frame keepalive(long version) {
+            return new Frame(version, version, null, null);
+        }
+    }
+
+    public static class Referral implements Serializable {
+        public final boolean accepted;
+        public final List<ISpectator> relays;
+        // Spectators from the primary down to the one answering
+        public final List<String> path;
+
+        Referral(boolean accepted, List<ISpectator> relays, List<String> path) {
+            this.accepted = accepted;
+            this.relays = relays;
+            this.path = path;
+        }
+    }
+}
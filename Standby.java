@@ -0,0 +1,189 @@
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Warm replica of the game on a node the primary picked as a standby. Every PERIOD_MS the standby
+ * replays the primary's changes since the version it holds (IGameCallback.followChanges), and pulls
+ * a full StateTransfer copy only when it starts, when the primary changed or when it fell behind
+ * the primary's change log. When the primary needs a new backup it picks a standby first, which
+ * then takes the role with the state it already holds instead of pulling the whole state.
+ * <p>
+ * Configured with the system properties game.standby.count (standbys the primary keeps, default 1)
+ * and game.standby.periodMs (default 100).
+ */
+public class Standby {
+
+    public static final int COUNT = Integer.getInteger("game.standby.count", 1);
+    public static final long PERIOD_MS = Long.getLong("game.standby.periodMs", 100);
+
+    private final String mId;
+    private final Supplier<String> mPrimary;
+    private final Supplier<String> mRediscover;
+    private final Function<String, IGameCallback> mLookup;
+    // Guarded by this
+    private GameState mState;
+    private long mVersion = -1;
+    private String mSource;
+    private boolean mStopped;
+    // The last round failed, the primary we know may be gone
+    private boolean mLost;
+    private final AtomicLong mPulls = new AtomicLong();
+    private final AtomicLong mCatchUps = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+
+    /**
+     * @param primary    id of the primary as this node knows it, null if unknown
+     * @param rediscover id of the primary from another source (the tracker), asked after a failed round
+     * @param lookup     the server stub of an id, null if not found
+     */
+    public Standby(String id, Supplier<String> primary, Supplier<String> rediscover,
+                   Function<String, IGameCallback> lookup) {
+        mId = id;
+        mPrimary = primary;
+        mRediscover = rediscover;
+        mLookup = lookup;
+    }
+
+    /**
+     * One replication round, called every PERIOD_MS from one thread
+     *
+     * @return false once the standby was taken over, stop calling
+     */
+    public boolean follow() {
+        String source;
+        boolean pull;
+        synchronized (this) {
+            if (mStopped) {
+                return false;
+            }
+            source = mLost ? mRediscover.get() : mPrimary.get();
+            if (source == null || source.equals(mId)) {
+                return true;
+            }
+            pull = mState == null || !source.equals(mSource);
+        }
+        try {
+            IGameCallback server = mLookup.apply(source);
+            if (server == null) {
+                lost();
+                return true;
+            }
+            if (!pull) {
+                synchronized (this) {
+                    pull = !mStopped && !catchUp(server);
+                }
+            }
+            if (pull) {
+                // Versions are local to a server, a new primary's changes don't apply to our copy.
+                // Pulled without the lock, a promotion meanwhile takes the copy we have.
+                StateTransfer.Copy copy = StateTransfer.pull(server);
+                synchronized (this) {
+                    if (mStopped) {
+                        return false;
+                    }
+                    mState = copy.state;
+                    mVersion = copy.version;
+                    mSource = source;
+                }
+                mPulls.incrementAndGet();
+            }
+            synchronized (this) {
+                mLost = false;
+            }
+        } catch (RemoteException | AdmissionControl.OverloadedException e) {
+            // Keep the replica, it is what a promotion starts from if the primary is gone
+            mFailures.incrementAndGet();
+            lost();
+        }
+        return true;
+    }
+
+    private synchronized void lost() {
+        mLost = true;
+    }
+
+    /**
+     * Stop following and hand the replica over for a promotion, after a last catch-up if it was
+     * followed from sourceId
+     *
+     * @return null if no replica was pulled yet
+     */
+    public synchronized GameState takeOver(String sourceId) {
+        mStopped = true;
+        if (mState != null && sourceId.equals(mSource)) {
+            try {
+                IGameCallback server = mLookup.apply(sourceId);
+                if (server != null) {
+                    catchUp(server);
+                }
+            } catch (RemoteException e) {
+                // Up to one period behind, the backup's first sync brings the rest
+            }
+        }
+        GameState state = mState;
+        mState = null;
+        if (state != null && !sourceId.equals(mSource) && !retarget(state, sourceId)) {
+            return null;
+        }
+        return state;
+    }
+
+    /**
+     * The replica was followed from a primary that is gone, its roles name that one. Left so, the
+     * new backup would watch the dead primary and take over next to the live one.
+     *
+     * @return false if the replica doesn't know sourceId, pull a full copy then
+     */
+    private static boolean retarget(GameState state, String sourceId) {
+        List<Player> nodes = state.nodes();
+        if (nodes.stream().noneMatch(p -> p.playerID.equals(sourceId))) {
+            return false;
+        }
+        for (Player node : nodes) {
+            if (node.playerID.equals(sourceId)) {
+                node.serverType = Game.RemoteServerImpl.ServerType.PRIMARY_SERVER;
+            } else if (node.serverType != Game.RemoteServerImpl.ServerType.STANDBY_SERVER) {
+                node.serverType = null;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void stop() {
+        mStopped = true;
+        mState = null;
+    }
+
+    public synchronized long getVersion() {
+        return mVersion;
+    }
+
+    public synchronized GameState getState() {
+        return mState;
+    }
+
+    public Map<String, Long> getStats() {
+        return Map.of("standbyPulls", mPulls.get(), "standbyCatchUps", mCatchUps.get(),
+                "standbyFailures", mFailures.get());
+    }
+
+    /**
+     * @return false if the version we hold is too old for the primary's change log
+     */
+    private boolean catchUp(IGameCallback server) throws RemoteException {
+        if (mVersion < 0) {
+            return false;
+        }
+        long version = StateTransfer.catchUp((since, from) -> server.followChanges(mId, since, from), mState, mVersion);
+        if (version < 0) {
+            return false;
+        }
+        mVersion = version;
+        mCatchUps.incrementAndGet();
+        return true;
+    }
+}
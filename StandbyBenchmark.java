@@ -0,0 +1,293 @@
+import java.rmi.Naming;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * How long a room runs without a backup after a failure: the new backup pulling the whole state
+ * (no standby) against a Standby taking the role with the copy it keeps. One JVM with a registry: a
+ * primary with the players moving (about 5000 moves/s, every player kept heard from) and three
+ * dedicated server nodes that take the backup and standby roles the way Game does.
+ * <p>
+ * 1. The backup dies: detection (kill to the primary promoting a node), promotion (promote call to
+ * the new backup serving) and the whole window without a backup.
+ * 2. The primary dies: the backup takes over, then the same for the next backup.
+ * <p>
+ * Usage: java StandbyBenchmark [players] [port]
+ */
+public class StandbyBenchmark {
+
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(8);
+    private static final ScheduledExecutorService TIMER = Executors.newScheduledThreadPool(2);
+    private static String sRegistryURL;
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 19399;
+        sRegistryURL = "rmi://127.0.0.1:" + port + "/";
+        LocateRegistry.createRegistry(port);
+
+        System.out.printf("%d players%n", players);
+        System.out.printf("%-8s %-8s %12s %12s %12s%n", "standby", "failure", "detect ms", "promote ms", "window ms");
+        for (int run = 0; run < 2; run++) {
+            for (int standbys : new int[]{0, 1}) {
+                // The first pair warms up
+                run("r" + run + "s" + standbys + "-", players, standbys, run > 0);
+            }
+        }
+        POOL.shutdownNow();
+        TIMER.shutdownNow();
+        System.exit(0);
+    }
+
+    private static void run(String prefix, int players, int standbys, boolean print) throws Exception {
+        int size = (int) Math.ceil(Math.sqrt(players * 2.0));
+        GameState state = new GameState(size, 10);
+        List<Player> joining = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            joining.add(new Player(prefix + "p" + i));
+        }
+        state.placePlayers(joining, new Random(1));
+        AtomicReference<String> primaryId = new AtomicReference<>(prefix + "primary");
+        // The backup finds the primary it watches in the state
+        Player self = new Player(primaryId.get());
+        self.dedicated = true;
+        state.addServer(self);
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Node node = new Node(prefix + "n" + i, standbys, primaryId);
+            Player server = new Player(node.id);
+            server.dedicated = true;
+            state.addServer(server);
+            nodes.add(node);
+        }
+        Game.RemoteServerImpl primary = new Game.RemoteServerImpl(POOL, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, sRegistryURL, primaryId.get());
+        primary.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        primary.setStandbyCount(standbys);
+        Naming.rebind(sRegistryURL + primaryId.get(), primary);
+        AtomicReference<Game.RemoteServerImpl> current = new AtomicReference<>(primary);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        Thread mover = new Thread(() -> {
+            Random random = new Random(2);
+            long moveId = 0;
+            while (running.get()) {
+                try {
+                    current.get().Move(prefix + "p" + random.nextInt(players), (byte) (1 + random.nextInt(4)), ++moveId);
+                    if (moveId % 5 == 0) {
+                        Thread.sleep(1);
+                    }
+                } catch (Exception e) {
+                    // The primary just died, the next move goes to the new one
+                }
+            }
+        });
+        mover.start();
+        // The players are alive, only the server nodes are for the heartbeat to find out about
+        ScheduledFuture<?> toucher = TIMER.scheduleWithFixedDelay(() -> {
+            GameState s = current.get().getGameState();
+            long now = System.nanoTime();
+            for (Player p : joining) {
+                s.touch(s.handleOf(p.playerID), now);
+            }
+        }, 0, 100, TimeUnit.MILLISECONDS);
+        primary.heartbeatChecking();
+
+        // 1. The backup dies
+        Node backup = await(nodes, n -> n.serving(Game.RemoteServerImpl.ServerType.BACKUP_SERVER), 30000);
+        awaitStandbys(nodes, standbys);
+        Thread.sleep(1000);
+        long backupKilled = System.nanoTime();
+        backup.kill();
+        Node next = await(nodes, n -> n != backup && n.serving(Game.RemoteServerImpl.ServerType.BACKUP_SERVER)
+                && n.servingAt > backupKilled, 30000);
+        if (print) {
+            print(standbys, "backup", backupKilled, next);
+        }
+
+        // 2. The primary dies, the backup takes over and needs a backup of its own
+        awaitStandbys(nodes, standbys);
+        Thread.sleep(1000);
+        long primaryKilled = System.nanoTime();
+        primary.stopHeartbeatChecking();
+        UnicastRemoteObject.unexportObject(primary, true);
+        Naming.unbind(sRegistryURL + primaryId.get());
+        Node taker = next;
+        while (taker.server.getServerType() != Game.RemoteServerImpl.ServerType.PRIMARY_SERVER) {
+            Thread.sleep(1);
+        }
+        long tookOver = System.nanoTime();
+        current.set(taker.server);
+        primaryId.set(taker.id);
+        Node last = await(nodes, n -> n != taker && n.serving(Game.RemoteServerImpl.ServerType.BACKUP_SERVER)
+                && n.servingAt > primaryKilled, 30000);
+        if (print) {
+            System.out.printf("%-8d %-8s %12.1f %12s %12s%n", standbys, "primary", (tookOver - primaryKilled) / 1e6,
+                    "take over", "");
+            print(standbys, "primary", primaryKilled, last);
+        }
+
+        running.set(false);
+        mover.join();
+        toucher.cancel(false);
+        // All of them first, a node still up would take over from the ones already gone
+        nodes.forEach(n -> n.dead = true);
+        for (Node node : nodes) {
+            node.kill();
+        }
+    }
+
+    private static void print(int standbys, String failure, long killed, Node next) {
+        System.out.printf("%-8d %-8s %12.1f %12.1f %12.1f%n", standbys, failure, (next.promotedAt - killed) / 1e6,
+                (next.servingAt - next.promotedAt) / 1e6, (next.servingAt - killed) / 1e6);
+    }
+
+    private static void awaitStandbys(List<Node> nodes, int standbys) throws InterruptedException {
+        if (standbys > 0) {
+            await(nodes, n -> n.standby != null && n.standby.getVersion() >= 0, 30000);
+        }
+    }
+
+    private static Node await(List<Node> nodes, java.util.function.Predicate<Node> condition, long timeoutMs)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            for (Node node : nodes) {
+                if (condition.test(node)) {
+                    return node;
+                }
+            }
+            Thread.sleep(1);
+        }
+        throw new IllegalStateException("Timed out");
+    }
+
+    /**
+     * A dedicated server node, takes the roles the way Game's listener does
+     */
+    private static class Node implements Game.IGameClientListener {
+        final String id;
+        final int standbys;
+        final AtomicReference<String> primaryId;
+        final Game.IGameClientImpl listener;
+        volatile Game.RemoteServerImpl server;
+        volatile Standby standby;
+        volatile long promotedAt;
+        volatile long servingAt;
+        volatile boolean dead;
+
+        Node(String id, int standbys, AtomicReference<String> primaryId) throws Exception {
+            this.id = id;
+            this.standbys = standbys;
+            this.primaryId = primaryId;
+            listener = new Game.IGameClientImpl(this);
+            Naming.rebind(sRegistryURL + "client/" + id, listener);
+        }
+
+        boolean serving(Game.RemoteServerImpl.ServerType type) {
+            Game.RemoteServerImpl s = server;
+            return s != null && s.getServerType() == type;
+        }
+
+        @Override
+        public void promote(Game.RemoteServerImpl.ServerType serverType, String sourceId) {
+            if (serverType == Game.RemoteServerImpl.ServerType.STANDBY_SERVER) {
+                Standby s = new Standby(id, primaryId::get, primaryId::get, StandbyBenchmark::lookup);
+                standby = s;
+                AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+                task.set(TIMER.scheduleWithFixedDelay(() -> {
+                    if (!s.follow() && task.get() != null) {
+                        task.get().cancel(false);
+                    }
+                }, 0, Standby.PERIOD_MS, TimeUnit.MILLISECONDS));
+                return;
+            }
+            POOL.submit(() -> {
+                try {
+                    promotedAt = System.nanoTime();
+                    Standby s = standby;
+                    standby = null;
+                    GameState state = s == null ? null : s.takeOver(sourceId);
+                    if (state == null) {
+                        state = StateTransfer.pull(lookup(sourceId)).state;
+                    }
+                    becomeServer(serverType, state);
+                } catch (Exception e) {
+                    System.out.println("Promotion failed " + e);
+                }
+            });
+        }
+
+        @Override
+        public void becomeServer(Game.RemoteServerImpl.ServerType serverType, GameState latestGameState)
+                throws java.rmi.RemoteException {
+            if (dead) {
+                return;
+            }
+            Game.RemoteServerImpl s = new Game.RemoteServerImpl(POOL, latestGameState, null, serverType,
+                    sRegistryURL, id);
+            s.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+            s.setStandbyCount(standbys);
+            try {
+                Naming.rebind(sRegistryURL + id, s);
+            } catch (java.net.MalformedURLException e) {
+                throw new IllegalStateException(e);
+            }
+            s.heartbeatChecking();
+            server = s;
+            servingAt = System.nanoTime();
+        }
+
+        @Override
+        public void doubleCheck() {
+        }
+
+        @Override
+        public void onServerChanged(Game.RemoteServerImpl.ServerType serverType, String serverName) {
+        }
+
+        @Override
+        public void gossip(List<Gossip.Record> records) {
+        }
+
+        void kill() {
+            dead = true;
+            Standby s = standby;
+            if (s != null) {
+                s.stop();
+            }
+            try {
+                Game.RemoteServerImpl srv = server;
+                if (srv != null) {
+                    srv.stopHeartbeatChecking();
+                    UnicastRemoteObject.unexportObject(srv, true);
+                    Naming.unbind(sRegistryURL + id);
+                }
+                UnicastRemoteObject.unexportObject(listener, true);
+                Naming.unbind(sRegistryURL + "client/" + id);
+            } catch (Exception e) {
+                // Already gone
+            }
+        }
+    }
+
+    private static IGameCallback lookup(String id) {
+        try {
+            return (IGameCallback) StubCache.lookup(sRegistryURL + id);
+        } catch (Exception e) {
+            StubCache.evict(sRegistryURL + id);
+            return null;
+        }
+    }
+}
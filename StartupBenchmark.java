@@ -0,0 +1,124 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.spi.ToolProvider;
+
+/**
+ * Time to first move of a Game process joining a running game, without and with an AppCDS archive.
+ * A Tracker runs in this JVM, a primary and a backup are started first and stay up, then each
+ * measured Game is started, sent one move and quit. The time is the one the Game reports itself,
+ * from JVM start to the first move answered.
+ * <p>
+ * The archive is made by a training Game run with -XX:ArchiveClassesAtExit, the same way a deployment
+ * makes it once per build (see README).
+ * <p>
+ * Usage: java StartupBenchmark [port] [runs]
+ */
+public class StartupBenchmark {
+
+    private static final String JAVA = ProcessHandle.current().info().command().orElse("java");
+    private static String sClasspath = System.getProperty("java.class.path");
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 24000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        Tracker.main(new String[]{String.valueOf(port), "15", "10"});
+        // CDS only maps classes loaded from jars, package a class directory
+        File classes = new File(sClasspath);
+        File jar = File.createTempFile("game", ".jar");
+        if (classes.isDirectory()) {
+            ToolProvider.findFirst("jar").orElseThrow()
+                    .run(System.out, System.err, "cf", jar.getPath(), "-C", classes.getPath(), ".");
+            sClasspath = jar.getPath();
+        }
+
+        List<Process> servers = new ArrayList<>();
+        servers.add(startGame(port, "pp", List.of()).process);
+        Thread.sleep(1500);
+        servers.add(startGame(port, "bb", List.of()).process);
+        Thread.sleep(1500);
+
+        File archive = File.createTempFile("game", ".jsa");
+        archive.delete();
+        Run training = startGame(port, "tr", List.of("-XX:ArchiveClassesAtExit=" + archive));
+        training.firstMove();
+        training.quit();
+        System.out.printf("archive %s, %d KB%n", archive, archive.length() / 1024);
+
+        System.out.printf("%-10s %12s %12s %12s%n", "jvm", "mean ms", "min ms", "max ms");
+        measure("default", port, runs, List.of(), 'd');
+        if (archive.exists()) {
+            measure("appcds", port, runs, List.of("-XX:SharedArchiveFile=" + archive), 'c');
+        }
+        servers.forEach(Process::destroy);
+        archive.delete();
+        jar.delete();
+        System.exit(0);
+    }
+
+    private static void measure(String name, int port, int runs, List<String> jvmArgs, char prefix) throws Exception {
+        long[] times = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            Run run = startGame(port, prefix + String.valueOf(i % 10), jvmArgs);
+            times[i] = run.firstMove();
+            run.quit();
+        }
+        System.out.printf("%-10s %12.0f %12d %12d%n", name, Arrays.stream(times).average().orElse(0),
+                Arrays.stream(times).min().orElse(0), Arrays.stream(times).max().orElse(0));
+    }
+
+    private static Run startGame(int port, String playerId, List<String> jvmArgs) throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(JAVA);
+        command.add("-Djava.awt.headless=true");
+        command.addAll(jvmArgs);
+        command.addAll(List.of("-cp", sClasspath, "Game", "127.0.0.1", String.valueOf(port), playerId));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        return new Run(process);
+    }
+
+    private static class Run {
+        final Process process;
+        final PrintStream in;
+        final CompletableFuture<Long> firstMove = new CompletableFuture<>();
+
+        Run(Process process) {
+            this.process = process;
+            this.in = new PrintStream(process.getOutputStream(), true);
+            Thread reader = new Thread(() -> {
+                try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    String line;
+                    while ((line = out.readLine()) != null) {
+                        if (line.contains("Time to first move")) {
+                            firstMove.complete(Long.parseLong(line.substring(line.lastIndexOf(' ') + 1)));
+                        }
+                    }
+                } catch (Exception e) {
+                    firstMove.completeExceptionally(e);
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        long firstMove() throws Exception {
+            // Game reads its input once it joined, a move sent early just waits in the pipe
+            in.println("0");
+            return firstMove.get(30, TimeUnit.SECONDS);
+        }
+
+        void quit() throws Exception {
+            in.println("9");
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroy();
+                process.waitFor(10, TimeUnit.SECONDS);
+            }
+        }
+    }
+}
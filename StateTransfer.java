@@ -0,0 +1,196 @@
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pulls a GameState from a live server in bounded chunks instead of one huge RMI argument, so the
+ * server keeps serving moves while a new backup is brought up.
+ * 1. openTransfer freezes the list of player ids and the state version
+ * 2. fetchChunk returns the players of one page of that list, as they are when the page is read
+ * 3. fetchChanges returns, page by page, the players changed after a version plus the removed ones,
+ * replayed over the copy until a round brings fewer changes than a chunk
+ * Whatever changes after the last round is picked up by the backup's regular sync.
+ * <p>
+ * Configured with the system property game.transfer.chunkPlayers (players per chunk; default 512).
+ */
+public class StateTransfer {
+
+    public static final int CHUNK_PLAYERS = Integer.getInteger("game.transfer.chunkPlayers", 512);
+    private static final int MAX_ROUNDS = 8;
+    private static final long SESSION_IDLE_MS = 30_000;
+
+    /**
+     * Client side: pull a copy of the source's state
+     */
+    public static Copy pull(IGameCallback source) throws RemoteException, AdmissionControl.OverloadedException {
+        Info info = source.openTransfer();
+        try {
+            GameState state = new GameState(info.n, info.k);
+            info.servers.forEach(state::addServer);
+            for (int i = 0; i < info.chunks; i++) {
+                for (Player p : source.fetchChunk(info.id, i)) {
+                    state.addPlayer(p);
+                }
+            }
+            long version = info.version;
+            for (int round = 0; round < MAX_ROUNDS && version >= 0; round++) {
+                long since = version;
+                version = catchUp(source, state, since);
+                if (version >= 0 && version - since < CHUNK_PLAYERS) {
+                    break;
+                }
+            }
+            if (version < 0) {
+                // Fell behind the removal log, too much churn for a chunked copy
+                return new Copy(source.sync(), -1);
+            }
+            return new Copy(state, version);
+        } finally {
+            source.closeTransfer(info.id);
+        }
+    }
+
+    /**
+     * Replay one round of the source's changes after version since over state
+     *
+     * @return the version state is now at, -1 if since is too old to catch up from
+     */
+    public static long catchUp(IGameCallback source, GameState state, long since) throws RemoteException {
+        return catchUp(source::fetchChanges, state, since);
+    }
+
+    /**
+     * Same as above with the pages fetched by changes, e.g. IGameCallback.followChanges for a Standby
+     */
+    public static long catchUp(Changes changes, GameState state, long since) throws RemoteException {
+        long version = -1;
+        int cursor = 0;
+        do {
+            Delta delta = changes.fetch(since, cursor);
+            if (delta == null) {
+                return -1;
+            }
+            if (version < 0) {
+                version = delta.version;
+            }
+            state.applyChanges(delta);
+            cursor = delta.nextHandle;
+        } while (cursor >= 0);
+        return version;
+    }
+
+    /**
+     * One page of the changes after version since, see IGameCallback.fetchChanges
+     */
+    public interface Changes {
+        Delta fetch(long since, int fromHandle) throws RemoteException;
+    }
+
+    /**
+     * A pulled state and the source version it is current to, -1 if unknown
+     */
+    public static class Copy {
+        public final GameState state;
+        public final long version;
+
+        Copy(GameState state, long version) {
+            this.state = state;
+            this.version = version;
+        }
+    }
+
+    public static class Info implements Serializable {
+        public final long id;
+        public final int n;
+        public final int k;
+        public final long version;
+        public final int chunks;
+        // The dedicated servers, few enough to send along
+        public final List<Player> servers;
+
+        Info(long id, int n, int k, long version, int chunks, List<Player> servers) {
+            this.id = id;
+            this.n = n;
+            this.k = k;
+            this.version = version;
+            this.chunks = chunks;
+            this.servers = servers;
+        }
+    }
+
+    public static class Delta implements Serializable {
+        public final long version;
+        public final List<Player> changed;
+        public final List<String> removed;
+        public final List<Point> treasures;
+        // Handle to continue the page from, -1 on the last page
+        public final int nextHandle;
+
+        Delta(long version, List<Player> changed, List<String> removed, List<Point> treasures, int nextHandle) {
+            this.version = version;
+            this.changed = changed;
+            this.removed = removed;
+            this.treasures = treasures;
+            this.nextHandle = nextHandle;
+        }
+    }
+
+    /**
+     * Server side: the open transfers of one server
+     */
+    public static class Source {
+        private final AtomicLong mNextId = new AtomicLong();
+        private final Map<Long, Session> mSessions = new ConcurrentHashMap<>();
+
+        public Info open(GameState state) {
+            // Transfers abandoned by a crashed puller
+            long now = System.nanoTime();
+            mSessions.values().removeIf(s -> now - s.lastUsed > TimeUnit.MILLISECONDS.toNanos(SESSION_IDLE_MS));
+            long version;
+            List<String> ids;
+            List<Player> servers = new ArrayList<>();
+            synchronized (state) {
+                version = state.version();
+                ids = state.playerIds();
+                state.servers.forEach(s -> servers.add(new Player(s)));
+            }
+            long id = mNextId.incrementAndGet();
+            mSessions.put(id, new Session(ids));
+            int chunks = (ids.size() + CHUNK_PLAYERS - 1) / CHUNK_PLAYERS;
+            return new Info(id, state.N, state.K, version, chunks, servers);
+        }
+
+        public List<Player> chunk(GameState state, long id, int index) throws RemoteException {
+            Session session = mSessions.get(id);
+            if (session == null) {
+                throw new RemoteException("Unknown or expired transfer " + id);
+            }
+            session.lastUsed = System.nanoTime();
+            int from = index * CHUNK_PLAYERS;
+            return state.copyPlayers(session.ids.subList(Math.min(from, session.ids.size()),
+                    Math.min(from + CHUNK_PLAYERS, session.ids.size())));
+        }
+
+        public Delta changes(GameState state, long since, int fromHandle) {
+            return state.changesSince(since, fromHandle, CHUNK_PLAYERS);
+        }
+
+        public void close(long id) {
+            mSessions.remove(id);
+        }
+
+        private static class Session {
+            final List<String> ids;
+            volatile long lastUsed = System.nanoTime();
+
+            Session(List<String> ids) {
+                this.ids = ids;
+            }
+        }
+    }
+}
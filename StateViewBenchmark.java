@@ -0,0 +1,95 @@
+import java.rmi.server.RemoteObject;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Refresh latency of a co-located client: Move(OP_REFRESH) over loopback RMI against a read of the
+ * MappedStateView, while another player keeps moving so the reader races the writer. Every state
+ * read from the view is checked to be consistent (no two players on a cell).
+ * <p>
+ * Usage: java -Dgame.mmap.dir=/dev/shm StateViewBenchmark [refreshes] [players]
+ */
+public class StateViewBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (MappedStateView.DIR == null) {
+            System.err.println("Run with -Dgame.mmap.dir=<dir>");
+            System.exit(1);
+        }
+        int refreshes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int players = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+
+        GameState state = new GameState(Math.max(15, players), 10);
+        for (int i = 0; i < players; i++) {
+            Player p = new Player("p" + i);
+            // p0 starts at (0,1), below the row of the others
+            p.position = new Point(i, i == 0 ? 1 : 0);
+            state.addPlayer(p);
+        }
+        String prefixURL = "rmi://127.0.0.1:0/bench/";
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, prefixURL, "p0");
+        server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        IGameCallback stub = (IGameCallback) RemoteObject.toStub(server);
+
+        AtomicBoolean moving = new AtomicBoolean(true);
+        Thread mover = new Thread(() -> {
+            long moveId = 0;
+            while (moving.get()) {
+                try {
+                    server.Move("p0", (moveId & 1) == 0 ? GameState.OP_EAST : GameState.OP_WEST, ++moveId);
+                    Thread.sleep(0, 200_000);
+                } catch (Exception e) {
+                    return;
+                }
+            }
+        });
+        mover.start();
+        // The first move creates the view
+        Thread.sleep(100);
+        MappedStateView view = MappedStateView.openReader(prefixURL);
+
+        long refreshId = 1L << 40;
+        long[] rmi = new long[refreshes];
+        long[] mapped = new long[refreshes];
+        int misses = 0;
+        for (int i = -refreshes / 10; i < refreshes; i++) {
+            long start = System.nanoTime();
+            stub.Move("p1", GameState.OP_REFRESH, ++refreshId);
+            long rmiNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            GameState read = view.read("p0");
+            long mappedNanos = System.nanoTime() - start;
+            if (read == null) {
+                misses++;
+            } else if (read.players.size() != players
+                    || read.players.stream().map(p -> p.position).distinct().count() != players) {
+                throw new IllegalStateException("Inconsistent read");
+            }
+            if (i >= 0) {
+                rmi[i] = rmiNanos;
+                mapped[i] = mappedNanos;
+            }
+        }
+        moving.set(false);
+        mover.join();
+        server.stopHeartbeatChecking();
+
+        System.out.printf("%d refreshes, %d players, %d view misses%n", refreshes, players, misses);
+        report("rmi", rmi);
+        report("mapped view", mapped);
+        threadPool.shutdown();
+        System.exit(0);
+    }
+
+    private static void report(String name, long[] samples) {
+        Arrays.sort(samples);
+        System.out.printf("%-12s mean %7.1fus  p50 %7.1fus  p99 %7.1fus%n", name,
+                Arrays.stream(samples).average().orElse(0) / 1000.0,
+                samples[samples.length / 2] / 1000.0,
+                samples[(int) (samples.length * 0.99)] / 1000.0);
+    }
+}
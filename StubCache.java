@@ -0,0 +1,52 @@
+import java.net.MalformedURLException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Registry lookups shared by every server in the JVM. The heartbeat looks up each player every
+ * round, with many rooms per JVM that is a registry round trip per player every 100ms; a cached stub
+ * costs nothing until it fails, then it is evicted and looked up again.
+ */
+public final class StubCache {
+
+    private static final Map<String, Remote> STUBS = new ConcurrentHashMap<>();
+    // Null looks the names up in the registry, ClusterSimulator resolves them to its in-memory nodes
+    private static volatile Function<String, Remote> sResolver;
+
+    private StubCache() {
+    }
+
+    public static Remote lookup(String url) throws NotBoundException, MalformedURLException, RemoteException {
+        Remote stub = STUBS.get(url);
+        if (stub == null) {
+            Function<String, Remote> resolver = sResolver;
+            stub = resolver == null ? Naming.lookup(url) : resolver.apply(url);
+            if (stub == null) {
+                throw new NotBoundException(url);
+            }
+            STUBS.put(url, stub);
+        }
+        return stub;
+    }
+
+    /**
+     * Forget the stub, call it when a call through it failed or the name was unbound
+     */
+    public static void evict(String url) {
+        STUBS.remove(url);
+    }
+
+    static void setResolver(Function<String, Remote> resolver) {
+        sResolver = resolver;
+        STUBS.clear();
+    }
+
+    public static int size() {
+        return STUBS.size();
+    }
+}
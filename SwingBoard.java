@@ -0,0 +1,100 @@
+import javax.swing.*;
+import java.awt.HeadlessException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The Swing window of a player, built on the event thread the first time it is shown. Grids wider
+ * than game.gui.viewCells (default 25) are shown through a window of that many cells a side that
+ * follows the player.
+ */
+public class SwingBoard implements Board {
+
+    static final int VIEW_CELLS = Integer.getInteger("game.gui.viewCells", 25);
+
+    private final String mPlayerId;
+    private final int mN;
+    private final int mView;
+    // Only touched on the event thread
+    private GUI mGui;
+    private boolean mHeadless;
+
+    public SwingBoard(String playerId, int n) {
+        mPlayerId = playerId;
+        mN = n;
+        mView = Math.min(n, VIEW_CELLS);
+    }
+
+    @Override
+    public void show() {
+        SwingUtilities.invokeLater(() -> {
+            if (mHeadless) {
+                return;
+            }
+            try {
+                if (mGui == null) {
+                    mGui = new GUI(new Point(200, 300), mPlayerId, mView);
+                }
+                mGui.show();
+            } catch (HeadlessException e) {
+                mHeadless = true;
+                System.out.println("No display, playing without the board");
+            }
+        });
+    }
+
+    @Override
+    public void hide() {
+        SwingUtilities.invokeLater(() -> {
+            if (mGui != null) {
+                mGui.hide();
+                mGui = null;
+            }
+        });
+    }
+
+    @Override
+    public void update(GameState state, String playerId, Point predicted, List<String> scores) {
+        SwingUtilities.invokeLater(() -> {
+            if (mGui == null || state.treasures.size() == 0) {
+                return;
+            }
+            HashMap<String, Point> players = state.getLatestPlayers();
+            // Our own moves still in flight are drawn where we predict them to land
+            if (predicted != null) {
+                players.put(playerId, predicted);
+            }
+            if (mView == mN) {
+                mGui.updateTreasures(state.getTreasures());
+                mGui.updatePlayers(players);
+            } else {
+                Point center = players.getOrDefault(playerId, new Point(mN / 2, mN / 2));
+                Point origin = new Point(clamp(center.x - mView / 2), clamp(center.y - mView / 2));
+                List<Point> treasures = new ArrayList<>();
+                for (Point t : state.getTreasures()) {
+                    if (inView(t, origin)) {
+                        treasures.add(new Point(t.x - origin.x, t.y - origin.y));
+                    }
+                }
+                HashMap<String, Point> visible = new HashMap<>();
+                players.forEach((id, p) -> {
+                    if (inView(p, origin)) {
+                        visible.put(id, new Point(p.x - origin.x, p.y - origin.y));
+                    }
+                });
+                mGui.updateTreasures(treasures);
+                mGui.updatePlayers(visible);
+            }
+            mGui.updateScores(scores);
+        });
+    }
+
+    private int clamp(int from) {
+        return Math.max(0, Math.min(from, mN - mView));
+    }
+
+    private boolean inView(Point p, Point origin) {
+        return p.x >= origin.x && p.y >= origin.y && p.x < origin.x + mView && p.y < origin.y + mView;
+    }
+}
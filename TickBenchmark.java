@@ -0,0 +1,124 @@
+import java.lang.management.ManagementFactory;
+import java.rmi.server.RemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves applied one by one as they arrive against a TickLoop at 30 and 60 Hz, over loopback RMI.
+ * Client threads each own some players and keep one move in flight, every answer is a whole state.
+ * Reports throughput, client latency and the CPU time of the whole process per move (the clients'
+ * share is the same in every mode).
+ * <p>
+ * Usage: java TickBenchmark [players] [client threads] [seconds]
+ */
+public class TickBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+
+        System.out.printf("%d players, %d clients, %d s per mode%n", players, clients, seconds);
+        System.out.printf("%-8s %10s %10s %10s %12s %12s %8s%n", "mode", "moves/s", "p50 ms", "p99 ms",
+                "cpu us/move", "moves/tick", "errors");
+        // Warmup
+        run(0, players, clients, 2, threadPool, false);
+        for (int hz : new int[]{0, 30, 60}) {
+            run(hz, players, clients, seconds, threadPool, true);
+        }
+        threadPool.shutdown();
+        System.exit(0);
+    }
+
+    private static void run(int hz, int players, int clients, int seconds, ExecutorService threadPool,
+                            boolean print) throws Exception {
+        int size = (int) Math.ceil(Math.sqrt(players * 4.0));
+        GameState state = new GameState(size, Math.max(10, players / 10));
+        List<Player> joining = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            joining.add(new Player("p" + i));
+        }
+        state.placePlayers(joining, new Random(1));
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, "", "primary");
+        server.setAdmissionControl(new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        server.setTickHz(hz);
+        IGameCallback stub = (IGameCallback) RemoteObject.toStub(server);
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong errors = new AtomicLong();
+        List<long[]> samples = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int client = c;
+            long[] latencies = new long[1 << 16];
+            samples.add(latencies);
+            Thread thread = new Thread(() -> {
+                Random random = new Random(client);
+                long[] moveIds = new long[players];
+                int n = 0;
+                while (running.get()) {
+                    // The players of this client are client, client + clients, ...
+                    int player = client + clients * random.nextInt(Math.max(1, (players - client + clients - 1) / clients));
+                    long start = System.nanoTime();
+                    try {
+                        stub.Move("p" + player, (byte) (1 + random.nextInt(4)), ++moveIds[player]);
+                    } catch (Exception e) {
+                        // Past the socket timeout under load, counted as not answered
+                        errors.incrementAndGet();
+                        continue;
+                    }
+                    if (n < latencies.length - 1) {
+                        latencies[++n] = System.nanoTime() - start;
+                    }
+                }
+                latencies[0] = n;
+            });
+            threads.add(thread);
+        }
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        long cpuStart = os.getProcessCpuTime();
+        long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long nanos = System.nanoTime() - start;
+        long cpu = os.getProcessCpuTime() - cpuStart;
+        Map<String, Long> stats = server.getRoomStats();
+        server.stopHeartbeatChecking();
+        java.rmi.server.UnicastRemoteObject.unexportObject(server, true);
+        if (!print) {
+            return;
+        }
+
+        int total = 0;
+        for (long[] latencies : samples) {
+            total += (int) latencies[0];
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (long[] latencies : samples) {
+            System.arraycopy(latencies, 1, all, at, (int) latencies[0]);
+            at += (int) latencies[0];
+        }
+        Arrays.sort(all);
+        long moves = stats.get("moves");
+        System.out.printf("%-8s %10.0f %10.2f %10.2f %12.1f %12s %8d%n", hz == 0 ? "inline" : hz + " Hz",
+                moves * 1e9 / nanos, all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6,
+                cpu / 1e3 / Math.max(1, moves),
+                hz == 0 ? "" : String.format("%.1f", (double) stats.get("tickMoves") / Math.max(1, stats.get("ticks"))),
+                errors.get());
+    }
+}
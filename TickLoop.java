@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed rate simulation loop of a primary. Moves are queued as they arrive and resolved together
+ * once per tick: the server takes the state lock once, applies the tick's moves in a deterministic
+ * order, respawns the treasures picked up in one pass and takes one snapshot that answers every move
+ * of the tick.
+ * <p>
+ * The order only depends on the moves queued and the tick number, not on arrival: players are taken
+ * in id order starting at a point that rotates every tick, one move each per round, each player's
+ * moves in move id order. No player wins every contested cell because it sorts or arrives first.
+ * <p>
+ * Configured with the system property game.tick.hz (ticks per second, default 0: moves are applied
+ * as they arrive, one answer each).
+ */
+public class TickLoop {
+
+    public static final int HZ = Integer.getInteger("game.tick.hz", 0);
+
+    // One scheduler thread drives the ticks of every server in the JVM, the ticks run on the pool
+    private static final ScheduledExecutorService TICKS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "tick");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Applies one tick's moves, in order, and returns the state that answers them
+     */
+    interface Resolver {
+        GameState resolve(List<Move> ordered);
+    }
+
+    static class Move {
+        final String playerId;
+        final byte opcode;
+        final long moveId;
+        final CompletableFuture<GameState> answer = new CompletableFuture<>();
+
+        Move(String playerId, byte opcode, long moveId) {
+            this.playerId = playerId;
+            this.opcode = opcode;
+            this.moveId = moveId;
+        }
+    }
+
+    private final ExecutorService mThreadPool;
+    private final Resolver mResolver;
+    private final long mPeriodNanos;
+    private final ConcurrentLinkedQueue<Move> mQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mRunning = new AtomicBoolean();
+    private ScheduledFuture<?> mSchedule;
+    private volatile boolean mStopped;
+    private long mTick;
+
+    private final AtomicLong mTicks = new AtomicLong();
+    private final AtomicLong mTickMoves = new AtomicLong();
+    private final AtomicLong mMaxTickMoves = new AtomicLong();
+    private final AtomicLong mOverruns = new AtomicLong();
+
+    TickLoop(ExecutorService threadPool, int hz, Resolver resolver) {
+        mThreadPool = threadPool;
+        mResolver = resolver;
+        mPeriodNanos = TimeUnit.SECONDS.toNanos(1) / hz;
+    }
+
+    synchronized void start() {
+        if (mSchedule == null) {
+            mSchedule = TICKS.scheduleAtFixedRate(this::trigger, mPeriodNanos, mPeriodNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stop ticking, the moves still queued complete with null and are not applied
+     */
+    synchronized void stop() {
+        mStopped = true;
+        if (mSchedule != null) {
+            mSchedule.cancel(false);
+        }
+        for (Move move; (move = mQueue.poll()) != null; ) {
+            move.answer.complete(null);
+        }
+    }
+
+    /**
+     * Queue the move for the next tick
+     *
+     * @return completes with the state after the tick, null if the loop stopped first
+     */
+    CompletableFuture<GameState> submit(String playerId, byte opcode, long moveId) {
+        Move move = new Move(playerId, opcode, moveId);
+        mQueue.add(move);
+        if (mStopped) {
+            // Stopped meanwhile, the queue may be drained already
+            stop();
+        }
+        return move.answer;
+    }
+
+    private void trigger() {
+        // A slow tick makes the next ones wait instead of piling up, the moves wait in the queue
+        if (!mRunning.compareAndSet(false, true)) {
+            mOverruns.incrementAndGet();
+            return;
+        }
+        try {
+            mThreadPool.submit(() -> {
+                try {
+                    tick();
+                } finally {
+                    mRunning.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mRunning.set(false);
+        }
+    }
+
+    private void tick() {
+        List<Move> moves = new ArrayList<>();
+        for (Move move; (move = mQueue.poll()) != null; ) {
+            moves.add(move);
+        }
+        long tick = mTick++;
+        GameState state = null;
+        try {
+            state = mResolver.resolve(order(moves, tick));
+        } finally {
+            // Every move of the tick gets the same answer
+            for (Move move : moves) {
+                move.answer.complete(state);
+            }
+        }
+        mTicks.incrementAndGet();
+        mTickMoves.addAndGet(moves.size());
+        mMaxTickMoves.accumulateAndGet(moves.size(), Math::max);
+    }
+
+    /**
+     * Round robin over the players, see the class comment
+     */
+    static List<Move> order(List<Move> moves, long tick) {
+        if (moves.size() < 2) {
+            return moves;
+        }
+        Map<String, List<Move>> byPlayer = new TreeMap<>();
+        for (Move move : moves) {
+            byPlayer.computeIfAbsent(move.playerId, id -> new ArrayList<>()).add(move);
+        }
+        List<List<Move>> players = new ArrayList<>(byPlayer.values());
+        int rounds = 0;
+        for (List<Move> own : players) {
+            own.sort(Comparator.comparingLong(m -> m.moveId));
+            rounds = Math.max(rounds, own.size());
+        }
+        int first = (int) (tick % players.size());
+        List<Move> ordered = new ArrayList<>(moves.size());
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < players.size(); i++) {
+                List<Move> own = players.get((first + i) % players.size());
+                if (round < own.size()) {
+                    ordered.add(own.get(round));
+                }
+            }
+        }
+        return ordered;
+    }
+
+    public Map<String, Long> getStats() {
+        return Map.of("ticks", mTicks.get(), "tickMoves", mTickMoves.get(), "maxTickMoves", mMaxTickMoves.get(),
+                "tickOverruns", mOverruns.get());
+    }
+}
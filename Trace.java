@@ -0,0 +1,296 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary trace of every operation a primary applies, for offline replay with TraceReplay.
+ * <p>
+ * Header: magic, N, K, RNG seed, server name, then the state the trace starts from (players with
+ * position, score and last move id, dedicated servers, treasures). The server's Random is reseeded
+ * with the recorded seed when the trace starts and every operation is recorded under the state lock
+ * in the order it is applied, so replaying the operations with the same seed makes the same random
+ * draws (player placement, treasure spawns).
+ * <p>
+ * Operations are one byte of type and varints. Player ids are sent once with NAME and referred to
+ * by their index afterwards. A TickLoop's tick is one TICK with its moves in the order applied. A clean stop ends the trace with END and a digest of the final state.
+ * <p>
+ * Enabled with the system property game.trace.dir, one file per primary.
+ */
+public class Trace {
+
+    public static final String DIR = System.getProperty("game.trace.dir");
+    static final int MAGIC = 0x47545231;
+
+    static final byte NAME = 0;
+    static final byte MOVE = 1;
+    static final byte JOIN = 2;
+    static final byte JOIN_ALL = 3;
+    static final byte QUIT = 4;
+    static final byte TREASURE = 5;
+    static final byte END = 6;
+    static final byte TICK = 7;
+
+    /**
+     * CRC of the players (id, position, score, last move id) in id order, the servers and the treasures
+     */
+    public static long digest(GameState state) {
+        List<Player> players = new ArrayList<>(state.players);
+        players.sort(Comparator.comparing(p -> p.playerID));
+        List<Player> servers = new ArrayList<>(state.servers);
+        servers.sort(Comparator.comparing(p -> p.playerID));
+        List<Point> treasures = new ArrayList<>(state.treasures);
+        treasures.sort(Comparator.<Point>comparingInt(p -> p.x).thenComparingInt(p -> p.y));
+        CRC32 crc = new CRC32();
+        for (Player p : players) {
+            crc.update(p.playerID.getBytes());
+            update(crc, p.position.x);
+            update(crc, p.position.y);
+            update(crc, p.score);
+            update(crc, (int) (p.lastMoveId >>> 32));
+            update(crc, (int) p.lastMoveId);
+        }
+        for (Player s : servers) {
+            crc.update(s.playerID.getBytes());
+        }
+        for (Point t : treasures) {
+            update(crc, t.x);
+            update(crc, t.y);
+        }
+        return crc.getValue();
+    }
+
+    private static void update(CRC32 crc, int value) {
+        crc.update(value >>> 24);
+        crc.update(value >>> 16);
+        crc.update(value >>> 8);
+        crc.update(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Records the operations of one primary. Calls come with the lock of the state held.
+     */
+    public static class Writer {
+        private final DataOutputStream mOut;
+        private final Map<String, Integer> mNames = new HashMap<>();
+        private long mOps;
+        private boolean mFailed;
+
+        private Writer(DataOutputStream out) {
+            mOut = out;
+        }
+
+        /**
+         * Start a trace of a primary in game.trace.dir
+         *
+         * @return null if tracing is off or the file can't be made
+         */
+        public static Writer open(String prefixURL, String serverName, GameState state, long seed) {
+            if (DIR == null) {
+                return null;
+            }
+            File file = new File(DIR, (prefixURL + serverName).replaceAll("[^A-Za-z0-9.-]", "_")
+                    + "-" + System.currentTimeMillis() + ".trace");
+            try {
+                Writer writer = new Writer(new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file), 1 << 16)));
+                writer.header(serverName, state, seed);
+                System.out.println("Tracing to " + file);
+                return writer;
+            } catch (IOException e) {
+                System.out.println("Trace not available " + e.getMessage());
+                return null;
+            }
+        }
+
+        private void header(String serverName, GameState state, long seed) throws IOException {
+            synchronized (state) {
+                mOut.writeInt(MAGIC);
+                mOut.writeInt(state.N);
+                mOut.writeInt(state.K);
+                mOut.writeLong(seed);
+                mOut.writeUTF(serverName);
+                mOut.writeInt(state.players.size());
+                for (Player p : state.players) {
+                    mOut.writeUTF(p.playerID);
+                    mOut.writeInt(p.position.x);
+                    mOut.writeInt(p.position.y);
+                    mOut.writeInt(p.score);
+                    mOut.writeLong(p.lastMoveId);
+                }
+                mOut.writeInt(state.servers.size());
+                for (Player s : state.servers) {
+                    mOut.writeUTF(s.playerID);
+                }
+                mOut.writeInt(state.treasures.size());
+                for (Point t : state.treasures) {
+                    mOut.writeInt(t.x);
+                    mOut.writeInt(t.y);
+                }
+            }
+        }
+
+        public synchronized void move(String playerId, byte opcode, long moveId) {
+            try {
+                int name = name(playerId);
+                mOut.writeByte(MOVE);
+                writeVarLong(name);
+                mOut.writeByte(opcode);
+                writeVarLong(moveId);
+                mOps++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        public synchronized void tick(List<TickLoop.Move> moves) {
+            try {
+                int[] names = new int[moves.size()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = name(moves.get(i).playerId);
+                }
+                mOut.writeByte(TICK);
+                writeVarLong(names.length);
+                for (int i = 0; i < names.length; i++) {
+                    writeVarLong(names[i]);
+                    mOut.writeByte(moves.get(i).opcode);
+                    writeVarLong(moves.get(i).moveId);
+                }
+                mOps++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        public synchronized void join(Player player) {
+            try {
+                int name = name(player.playerID);
+                mOut.writeByte(JOIN);
+                writeVarLong(name);
+                mOut.writeBoolean(player.dedicated);
+                mOps++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        public synchronized void joinAll(List<Player> players) {
+            try {
+                int[] names = new int[players.size()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = name(players.get(i).playerID);
+                }
+                mOut.writeByte(JOIN_ALL);
+                writeVarLong(names.length);
+                for (int name : names) {
+                    writeVarLong(name);
+                }
+                mOps++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        public synchronized void quit(String playerId) {
+            try {
+                int name = name(playerId);
+                mOut.writeByte(QUIT);
+                writeVarLong(name);
+                mOps++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        public synchronized void treasure(int num) {
+            try {
+                mOut.writeByte(TREASURE);
+                writeVarLong(num);
+                mOps++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        /**
+         * Push the buffered operations to the file, a crash loses at most what came after
+         */
+        public synchronized void flush() {
+            try {
+                mOut.flush();
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        /**
+         * End the trace with the digest of the final state
+         */
+        public void close(GameState state) {
+            synchronized (state) {
+                synchronized (this) {
+                    try {
+                        mOut.writeByte(END);
+                        mOut.writeInt(state.players.size());
+                        mOut.writeInt(state.treasures.size());
+                        mOut.writeLong(digest(state));
+                        mOut.close();
+                    } catch (IOException e) {
+                        failed(e);
+                    }
+                }
+            }
+            EventLog.info("Trace closed, operations", "trace", mOps);
+        }
+
+        private int name(String playerId) throws IOException {
+            Integer name = mNames.get(playerId);
+            if (name == null) {
+                name = mNames.size();
+                mNames.put(playerId, name);
+                mOut.writeByte(NAME);
+                mOut.writeUTF(playerId);
+            }
+            return name;
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                mOut.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mOut.writeByte((int) value);
+        }
+
+        private void failed(IOException e) {
+            // Report once, the game goes on without a usable trace
+            if (!mFailed) {
+                mFailed = true;
+                System.out.println("Trace write failed " + e.getMessage());
+            }
+        }
+    }
+}
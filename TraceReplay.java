@@ -0,0 +1,155 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Replays a Trace through the server logic as fast as it goes: the operations are called directly on
+ * a RemoteServerImpl, no RMI call is made. The trace is read into memory first, so the time is the
+ * server's and the decoding's. When the trace ends with END the final state is checked against it.
+ * <p>
+ * Usage: java TraceReplay [trace file] [runs]   (without -Dgame.trace.dir, or the replay is traced too)
+ */
+public class TraceReplay {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Missing required arguments! Usage: java TraceReplay [trace file] [runs]");
+            System.exit(0);
+        }
+        byte[] trace = Files.readAllBytes(Paths.get(args[0]));
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+        boolean identical = true;
+        for (int run = 0; run < runs; run++) {
+            Result result = replay(trace, threadPool);
+            System.out.printf("run %d: %d operations (%d moves) in %.1f ms, %.0f ops/s, final state %s%n",
+                    run, result.ops, result.moves, result.nanos / 1e6, result.ops * 1e9 / result.nanos, result.check);
+            identical &= !result.check.startsWith("DIFFERS");
+        }
+        threadPool.shutdown();
+        System.exit(identical ? 0 : 1);
+    }
+
+    private static Result replay(byte[] trace, ExecutorService threadPool) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(trace));
+        if (in.readInt() != Trace.MAGIC) {
+            throw new IOException("Not a trace");
+        }
+        GameState state = new GameState(in.readInt(), in.readInt());
+        long seed = in.readLong();
+        String serverName = in.readUTF();
+        List<Player> players = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            Player p = new Player(in.readUTF());
+            p.position = new Point(in.readInt(), in.readInt());
+            p.score = in.readInt();
+            p.lastMoveId = in.readLong();
+            players.add(p);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            Player s = new Player(in.readUTF());
+            s.dedicated = true;
+            state.addServer(s);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            state.addTreasure(new Point(in.readInt(), in.readInt()));
+        }
+        // After the treasures, the index is built on the first addPlayer
+        players.forEach(state::addPlayer);
+
+        Game.RemoteServerImpl server = new Game.RemoteServerImpl(threadPool, state, null,
+                Game.RemoteServerImpl.ServerType.PRIMARY_SERVER, "", serverName);
+        server.setAdmissionControl(new AdmissionControl(1e12, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        server.setRandomSeed(seed);
+        // A traced tick is replayed as one TICK, the moves recorded one by one are applied one by one
+        server.setTickHz(0);
+
+        Result result = new Result();
+        List<String> names = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            while (true) {
+                byte type = in.readByte();
+                switch (type) {
+                    case Trace.NAME:
+                        names.add(in.readUTF());
+                        continue;
+                    case Trace.MOVE:
+                        String id = names.get(Trace.readVarInt(in));
+                        byte opcode = in.readByte();
+                        server.Move(id, opcode, Trace.readVarLong(in));
+                        result.moves++;
+                        break;
+                    case Trace.TICK:
+                        List<TickLoop.Move> tick = new ArrayList<>();
+                        for (int i = Trace.readVarInt(in); i > 0; i--) {
+                            String mover = names.get(Trace.readVarInt(in));
+                            byte op = in.readByte();
+                            tick.add(new TickLoop.Move(mover, op, Trace.readVarLong(in)));
+                        }
+                        server.resolveTick(tick);
+                        result.moves += tick.size();
+                        break;
+                    case Trace.JOIN:
+                        Player player = new Player(names.get(Trace.readVarInt(in)));
+                        player.dedicated = in.readBoolean();
+                        server.join(player);
+                        break;
+                    case Trace.JOIN_ALL:
+                        List<Player> joining = new ArrayList<>();
+                        for (int i = Trace.readVarInt(in); i > 0; i--) {
+                            joining.add(new Player(names.get(Trace.readVarInt(in))));
+                        }
+                        server.joinAll(joining);
+                        break;
+                    case Trace.QUIT:
+                        server.quit(names.get(Trace.readVarInt(in)));
+                        break;
+                    case Trace.TREASURE:
+                        server.generateTreasure(Trace.readVarInt(in));
+                        break;
+                    case Trace.END:
+                        result.nanos = System.nanoTime() - start;
+                        int wantPlayers = in.readInt();
+                        int wantTreasures = in.readInt();
+                        long wantDigest = in.readLong();
+                        boolean same = wantPlayers == state.players.size() && wantTreasures == state.treasures.size()
+                                && wantDigest == Trace.digest(state);
+                        result.check = same ? "identical" : String.format("DIFFERS (players %d/%d, treasures %d/%d)",
+                                state.players.size(), wantPlayers, state.treasures.size(), wantTreasures);
+                        break;
+                    default:
+                        throw new IOException("Bad operation " + type);
+                }
+                if (type == Trace.END) {
+                    break;
+                }
+                result.ops++;
+            }
+        } catch (EOFException e) {
+            // Cut short by a crash, nothing to check against
+            result.nanos = System.nanoTime() - start;
+            result.check = "not checked, the trace has no END";
+        } catch (AdmissionControl.OverloadedException e) {
+            throw new IllegalStateException(e);
+        }
+        server.stopHeartbeatChecking();
+        UnicastRemoteObject.unexportObject(server, true);
+        return result;
+    }
+
+    private static class Result {
+        long ops;
+        long moves;
+        long nanos;
+        String check;
+    }
+}
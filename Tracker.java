@@ -5,14 +5,22 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 
 public final class Tracker {
 
     public static final String RMI_NAME = "CS5223_TRACKER";
+    // Room of the players that do not ask for one, its registry names carry no room prefix
+    public static final String DEFAULT_ROOM = "default";
+    // N and K of the rooms that are created by their first player
     public static int GRID_N = 0;
     public static int TREASURE_K = 0;
 
@@ -29,7 +37,9 @@ public final class Tracker {
         Registry registry;
         try {
             registry = LocateRegistry.createRegistry(port);
-            IRmiTrack iRmiTrack = (IRmiTrack) UnicastRemoteObject.exportObject(mTracker, port);
+            // The registry keeps the plain factories on the well-known port, the tracker gets its own
+            RmiSocketFactory factory = RmiSocketFactory.defaults();
+            IRmiTrack iRmiTrack = (IRmiTrack) UnicastRemoteObject.exportObject(mTracker, 0, factory, factory);
             registry.rebind(RMI_NAME, iRmiTrack);
         } catch (Exception e) {
             System.err.println("Tracker went wrong with err: " + e.getMessage());
@@ -37,14 +47,102 @@ public final class Tracker {
     }
 
     /**
-     * Implementation of Tracker logics
+     * Registry prefix of the servers and clients of a room, relative to the registry root
+     */
+    public static String roomPrefix(String room) {
+        return DEFAULT_ROOM.equals(room) ? "" : "room/" + room + "/";
+    }
+
+    /**
+     * Implementation of Tracker logics, one independent Room per room name
      */
     public static final IRmiTrack mTracker = new IRmiTrack() {
+        // Guarded by itself for every change: a room is dropped when its last player leaves, joining
+        // it meanwhile must not register into the dropped room. Reads go without the lock.
+        final Map<String, Room> mRooms = new ConcurrentHashMap<>();
+
+        private Room room(String name) {
+            return mRooms.computeIfAbsent(name, n -> new Room(GRID_N, TREASURE_K));
+        }
+
+        @Override
+        public GameProvision connect(String room, Player client) throws RemoteException {
+            synchronized (mRooms) {
+                return room(room).connect(client);
+            }
+        }
+
+        @Override
+        public void connectAll(String room, List<Player> clients) throws RemoteException {
+            synchronized (mRooms) {
+                room(room).connectAll(clients);
+            }
+        }
+
+        @Override
+        public void disconnect(String room, Player client) throws RemoteException {
+            synchronized (mRooms) {
+                Room r = mRooms.get(room);
+                if (r != null && r.disconnect(client) && !DEFAULT_ROOM.equals(room)) {
+                    // Small matches come and go, drop a room once its last player is gone
+                    mRooms.remove(room, r);
+                }
+            }
+        }
+
+        @Override
+        public void updateServer(String room, String servername, Game.RemoteServerImpl.ServerType serverType) throws RemoteException {
+            synchronized (mRooms) {
+                room(room).updateServer(servername, serverType);
+            }
+        }
+
+        @Override
+        public boolean createRoom(String room, int n, int k, Player host) throws RemoteException {
+            host.serverType = Game.RemoteServerImpl.ServerType.PRIMARY_SERVER;
+            synchronized (mRooms) {
+                return mRooms.putIfAbsent(room, new Room(n, k, host)) == null;
+            }
+        }
+
+        @Override
+        public String getServer(String room, Game.RemoteServerImpl.ServerType serverType) throws RemoteException {
+            Room r = mRooms.get(room);
+            return r == null ? null : r.server(serverType);
+        }
+
+        @Override
+        public Map<String, Integer> getRooms() throws RemoteException {
+            Map<String, Integer> rooms = new TreeMap<>();
+            mRooms.forEach((name, r) -> rooms.put(name, r.size()));
+            return rooms;
+        }
+    };
+
+    /**
+     * The players of one game and who serves it
+     */
+    static class Room {
+        final int N;
+        final int K;
         final BlockingDeque<Player> mClients = new LinkedBlockingDeque<>();
         volatile boolean initialized = false;
 
-        @Override
-        public synchronized GameProvision connect(Player client) throws RemoteException {
+        Room(int n, int k) {
+            N = n;
+            K = k;
+        }
+
+        /**
+         * Room served by a host, the players never take a server role
+         */
+        Room(int n, int k, Player host) {
+            this(n, k);
+            mClients.offer(host);
+            initialized = true;
+        }
+
+        synchronized GameProvision connect(Player client) {
             if (!initialized) {
                 if (mClients.size() == 0) {
                     client.serverType = Game.RemoteServerImpl.ServerType.PRIMARY_SERVER;
@@ -55,36 +153,80 @@ public final class Tracker {
             }
             mClients.offer(client);
             System.out.println("The player connected: " + client.playerID);
-            return new GameProvision(GRID_N, TREASURE_K, new ArrayList<>(mClients));
+            return new GameProvision(N, K, new ArrayList<>(mClients));
         }
 
-        @Override
-        public void disconnect(Player client) throws RemoteException {
+        synchronized void connectAll(List<Player> clients) {
+            Set<String> ids = new HashSet<>();
+            clients.forEach(c -> ids.add(c.playerID));
+            // A reconnect wave brings back ids we already know, replace them instead of adding twice
+            mClients.removeIf(c -> ids.contains(c.playerID));
+            mClients.addAll(clients);
+            System.out.println("Players connected in a batch: " + clients.size());
+        }
+
+        /**
+         * @return true if the room is empty now
+         */
+        synchronized boolean disconnect(Player client) {
             mClients.removeIf(c -> Objects.equals(client.playerID, c.playerID));
+            return mClients.isEmpty();
         }
 
-        @Override
-        public synchronized void updateServer(String servername, Game.RemoteServerImpl.ServerType serverType) throws RemoteException {
+        synchronized void updateServer(String servername, Game.RemoteServerImpl.ServerType serverType) {
             mClients.stream().filter(p -> p.serverType == serverType).findAny().ifPresent(p -> p.serverType = null);
             mClients.stream().filter(p -> p.playerID.equals(servername)).findAny().ifPresent(p -> p.serverType = serverType);
         }
-    };
+
+        String server(Game.RemoteServerImpl.ServerType serverType) {
+            return mClients.stream().filter(p -> p.serverType == serverType).findAny().map(p -> p.playerID).orElse(null);
+        }
+
+        int size() {
+            return mClients.size();
+        }
+    }
 
     interface IRmiTrack extends Remote {
 
         /**
          * Presumably the caller is a primary server, then we give him everything that we got.
-         * 1. N and K
-         * 2. List of Clients
+         * 1. N and K of the room, a new room gets the tracker's N and K
+         * 2. List of Clients in the room
          *
          * @return GameProvision
          * @throws RemoteException Rmi Exception
          */
-        GameProvision connect(Player client) throws RemoteException;
+        GameProvision connect(String room, Player client) throws RemoteException;
 
-        void disconnect(Player client) throws RemoteException;
+        /**
+         * Register players placed by the primary in a bulk join. They never take a server role here,
+         * the primary picks a backup among them when it needs one.
+         */
+        void connectAll(String room, List<Player> clients) throws RemoteException;
 
-        void updateServer(String servername, Game.RemoteServerImpl.ServerType serverType) throws RemoteException;
+        void disconnect(String room, Player client) throws RemoteException;
+
+        void updateServer(String room, String servername, Game.RemoteServerImpl.ServerType serverType) throws RemoteException;
+
+        /**
+         * Open a room with its own N and K, served by host as the primary
+         *
+         * @return false if the room already exists
+         */
+        boolean createRoom(String room, int n, int k, Player host) throws RemoteException;
+
+        /**
+         * Read only, for callers that are not players, e.g. a Spectator looking for the primary
+         *
+         * @return id of the node holding the role in the room, null if none
+         */
+        String getServer(String room, Game.RemoteServerImpl.ServerType serverType) throws RemoteException;
+
+        /**
+         * @return number of clients per room
+         */
+        Map<String, Integer> getRooms() throws RemoteException;
     }
 
     static class GameProvision implements Serializable {
@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Region quadtree over the treasures, answering nearest and range queries without scanning them
+ * all. The root covers the grid rounded up to a power of two; a node holds up to BUCKET treasures
+ * and splits in four when it overflows, and merges back when a removal leaves its subtree with
+ * BUCKET or fewer. The depth is at most log2(N).
+ * <p>
+ * Distances are Manhattan, the number of moves to reach a treasure on an empty board.
+ * Not thread safe, GameState guards it (through PlayerTable).
+ */
+class TreasureIndex {
+
+    static final int BUCKET = 8;
+
+    private final int mSize;
+    private final Node mRoot = new Node();
+
+    TreasureIndex(int n) {
+        mSize = Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+    }
+
+    int size() {
+        return mRoot.count;
+    }
+
+    void add(int x, int y) {
+        add(mRoot, 0, 0, mSize, PlayerTable.cell(x, y));
+    }
+
+    void remove(int x, int y) {
+        remove(mRoot, 0, 0, mSize, PlayerTable.cell(x, y));
+    }
+
+    /**
+     * Up to k treasures closest to (x, y), closest first
+     */
+    List<Point> nearest(int x, int y, int k) {
+        Search search = new Search(x, y, Math.min(k, mRoot.count), Integer.numberOfTrailingZeros(mSize));
+        if (search.k > 0) {
+            nearest(mRoot, 0, 0, mSize, search, 0);
+        }
+        return search.sorted();
+    }
+
+    /**
+     * Treasures with x in [x, x + width) and y in [y, y + height)
+     */
+    List<Point> within(int x, int y, int width, int height) {
+        List<Point> found = new ArrayList<>();
+        within(mRoot, 0, 0, mSize, x, y, (long) x + width, (long) y + height, found);
+        return found;
+    }
+
+    private static void add(Node node, int x0, int y0, int size, long cell) {
+        node.count++;
+        if (node.children == null) {
+            if (node.count <= BUCKET || size == 1) {
+                if (node.count > node.cells.length) {
+                    node.cells = Arrays.copyOf(node.cells, node.cells.length * 2);
+                }
+                node.cells[node.count - 1] = cell;
+                return;
+            }
+            split(node, x0, y0, size);
+        }
+        int half = size >> 1;
+        int quadrant = quadrant(cell, x0, y0, half);
+        add(node.children[quadrant], x0 + (quadrant >> 1) * half, y0 + (quadrant & 1) * half, half, cell);
+    }
+
+    private static void split(Node node, int x0, int y0, int size) {
+        int half = size >> 1;
+        node.children = new Node[]{new Node(), new Node(), new Node(), new Node()};
+        // The count already includes the treasure being added, it goes down after
+        for (int i = 0; i < node.count - 1; i++) {
+            long cell = node.cells[i];
+            int quadrant = quadrant(cell, x0, y0, half);
+            add(node.children[quadrant], x0 + (quadrant >> 1) * half, y0 + (quadrant & 1) * half, half, cell);
+        }
+        node.cells = null;
+    }
+
+    private static boolean remove(Node node, int x0, int y0, int size, long cell) {
+        boolean removed;
+        if (node.children == null) {
+            removed = false;
+            for (int i = 0; i < node.count; i++) {
+                if (node.cells[i] == cell) {
+                    node.cells[i] = node.cells[node.count - 1];
+                    removed = true;
+                    break;
+                }
+            }
+        } else {
+            int half = size >> 1;
+            int quadrant = quadrant(cell, x0, y0, half);
+            removed = remove(node.children[quadrant], x0 + (quadrant >> 1) * half, y0 + (quadrant & 1) * half,
+                    half, cell);
+        }
+        if (!removed) {
+            return false;
+        }
+        node.count--;
+        if (node.children != null && node.count <= BUCKET) {
+            // Small enough again, pull the treasures of the subtree back into this node
+            long[] cells = new long[BUCKET];
+            collect(node, cells, new int[1]);
+            node.children = null;
+            node.cells = cells;
+        }
+        return true;
+    }
+
+    private static void collect(Node node, long[] into, int[] size) {
+        if (node.children == null) {
+            System.arraycopy(node.cells, 0, into, size[0], node.count);
+            size[0] += node.count;
+            return;
+        }
+        for (Node child : node.children) {
+            collect(child, into, size);
+        }
+    }
+
+    private static void nearest(Node node, int x0, int y0, int size, Search search, int depth) {
+        if (node.count == 0 || search.prunes(distance(search.x, search.y, x0, y0, size))) {
+            return;
+        }
+        if (node.children == null) {
+            for (int i = 0; i < node.count; i++) {
+                long cell = node.cells[i];
+                search.offer(cell, Math.abs((int) (cell >> 32) - search.x) + Math.abs((int) cell - search.y));
+            }
+            return;
+        }
+        // Nearest quadrant first, the others are often pruned after it
+        int half = size >> 1;
+        long[] order = search.order;
+        int from = depth * 4;
+        for (int q = 0; q < 4; q++) {
+            // Insertion sort of distance << 2 | quadrant
+            long entry = ((long) distance(search.x, search.y, x0 + (q >> 1) * half, y0 + (q & 1) * half, half) << 2) | q;
+            int i = from + q;
+            while (i > from && order[i - 1] > entry) {
+                order[i] = order[i - 1];
+                i--;
+            }
+            order[i] = entry;
+        }
+        for (int i = from; i < from + 4; i++) {
+            int q = (int) (order[i] & 3);
+            nearest(node.children[q], x0 + (q >> 1) * half, y0 + (q & 1) * half, half, search, depth + 1);
+        }
+    }
+
+    private static void within(Node node, int x0, int y0, int size, int x, int y, long toX, long toY,
+                               List<Point> found) {
+        if (node.count == 0 || x0 >= toX || y0 >= toY || x0 + size <= x || y0 + size <= y) {
+            return;
+        }
+        if (node.children == null) {
+            for (int i = 0; i < node.count; i++) {
+                int cx = (int) (node.cells[i] >> 32);
+                int cy = (int) node.cells[i];
+                if (cx >= x && cy >= y && cx < toX && cy < toY) {
+                    found.add(new Point(cx, cy));
+                }
+            }
+            return;
+        }
+        int half = size >> 1;
+        for (int q = 0; q < 4; q++) {
+            within(node.children[q], x0 + (q >> 1) * half, y0 + (q & 1) * half, half, x, y, toX, toY, found);
+        }
+    }
+
+    private static int quadrant(long cell, int x0, int y0, int half) {
+        int x = (int) (cell >> 32);
+        int y = (int) cell;
+        return (x >= x0 + half ? 2 : 0) | (y >= y0 + half ? 1 : 0);
+    }
+
+    /**
+     * Manhattan distance from (x, y) to the closest cell of the square
+     */
+    private static int distance(int x, int y, int x0, int y0, int size) {
+        int dx = x < x0 ? x0 - x : x >= x0 + size ? x - (x0 + size - 1) : 0;
+        int dy = y < y0 ? y0 - y : y >= y0 + size ? y - (y0 + size - 1) : 0;
+        return dx + dy;
+    }
+
+    private static class Node {
+        // Treasures of a leaf as packed cells, null once split
+        long[] cells = new long[BUCKET];
+        Node[] children;
+        // Treasures in the subtree
+        int count;
+    }
+
+    /**
+     * The k best so far in a max-heap on distance, the farthest at the root
+     */
+    private static class Search {
+        final int x;
+        final int y;
+        final int k;
+        final long[] cells;
+        final int[] distances;
+        // Children of the nodes on the path in visiting order, 4 per level
+        final long[] order;
+        int size;
+
+        Search(int x, int y, int k, int depth) {
+            order = new long[4 * depth];
+            this.x = x;
+            this.y = y;
+            this.k = k;
+            cells = new long[k];
+            distances = new int[k];
+        }
+
+        boolean prunes(int distance) {
+            return size == k && distance >= distances[0];
+        }
+
+        void offer(long cell, int distance) {
+            if (size < k) {
+                int i = size++;
+                // Sift up
+                while (i > 0 && distances[(i - 1) / 2] < distance) {
+                    cells[i] = cells[(i - 1) / 2];
+                    distances[i] = distances[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                cells[i] = cell;
+                distances[i] = distance;
+            } else if (distance < distances[0]) {
+                // Replace the farthest and sift down
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= k) {
+                        break;
+                    }
+                    if (child + 1 < k && distances[child + 1] > distances[child]) {
+                        child++;
+                    }
+                    if (distances[child] <= distance) {
+                        break;
+                    }
+                    cells[i] = cells[child];
+                    distances[i] = distances[child];
+                    i = child;
+                }
+                cells[i] = cell;
+                distances[i] = distance;
+            }
+        }
+
+        List<Point> sorted() {
+            // Pop the heap from the back, the farthest comes out first
+            Point[] points = new Point[size];
+            while (size > 0) {
+                long cell = cells[0];
+                points[size - 1] = new Point((int) (cell >> 32), (int) cell);
+                size--;
+                long last = cells[size];
+                int lastDistance = distances[size];
+                int i = 0;
+                while (2 * i + 1 < size) {
+                    int child = 2 * i + 1;
+                    if (child + 1 < size && distances[child + 1] > distances[child]) {
+                        child++;
+                    }
+                    if (distances[child] <= lastDistance) {
+                        break;
+                    }
+                    cells[i] = cells[child];
+                    distances[i] = distances[child];
+                    i = child;
+                }
+                cells[i] = last;
+                distances[i] = lastDistance;
+            }
+            return new ArrayList<>(Arrays.asList(points));
+        }
+    }
+}
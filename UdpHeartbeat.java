@@ -0,0 +1,264 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Datagram heartbeat channel, one per Game process. Every node answers PINGs with a PONG echoing
+ * the token and sequence number; the primary PINGs the nodes it has not heard from and only makes
+ * the RMI doubleCheck once a node has left its PINGs unanswered for game.heartbeat.udpTimeoutMs.
+ * <p>
+ * Packets are PACKET bytes: magic, type, 3 bytes padding, token (the pinger's id for the peer),
+ * sequence number. One thread per process serves the non-blocking channel.
+ * <p>
+ * game.heartbeat.udp=false turns the channel off, the primary then probes with RMI only.
+ */
+public class UdpHeartbeat {
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("game.heartbeat.udp", "true"));
+    public static final long TIMEOUT_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("game.heartbeat.udpTimeoutMs", 300));
+
+    static final int PACKET = 20;
+    static final int MAGIC = 0x47484231;
+    static final byte PING = 1;
+    static final byte PONG = 2;
+
+    private final DatagramChannel mChannel;
+    private final Selector mSelector;
+    private final String mHost;
+    private final int mPort;
+    private final ByteBuffer mSendBuffer = ByteBuffer.allocateDirect(PACKET);
+    private final Map<String, Peer> mPeers = new ConcurrentHashMap<>();
+    private final Map<Integer, Peer> mPeersByToken = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextToken = new AtomicInteger();
+    private final AtomicLong mNextSeq = new AtomicLong();
+    private final AtomicLong mPingsSent = new AtomicLong();
+    private final AtomicLong mPongsReceived = new AtomicLong();
+    private final AtomicLong mPingsAnswered = new AtomicLong();
+    private volatile boolean mClosed;
+
+    private UdpHeartbeat(DatagramChannel channel, Selector selector, String host) throws IOException {
+        mChannel = channel;
+        mSelector = selector;
+        mHost = host;
+        mPort = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        Thread thread = new Thread(this::serve, "udp-heartbeat");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Bind the channel on any address, on game.heartbeat.udpPort or an ephemeral port
+     *
+     * @return null if the channel is off or can't be opened
+     */
+    public static UdpHeartbeat open() {
+        if (!ENABLED) {
+            return null;
+        }
+        try {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(Integer.getInteger("game.heartbeat.udpPort", 0)));
+            channel.configureBlocking(false);
+            Selector selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            // Advertise the address RMI advertises for our stubs
+            String host = System.getProperty("java.rmi.server.hostname");
+            if (host == null) {
+                host = InetAddress.getLocalHost().getHostAddress();
+            }
+            return new UdpHeartbeat(channel, selector, host);
+        } catch (IOException e) {
+            System.out.println("UDP heartbeat not available " + e.getMessage());
+            return null;
+        }
+    }
+
+    public String getHost() {
+        return mHost;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    /**
+     * Send a PING to the node, non-blocking. A PING that can't be sent right away is dropped, the
+     * next round sends another one.
+     */
+    public void ping(String id, String host, int port) {
+        Peer peer = mPeers.get(id);
+        if (peer == null || peer.port != port || !peer.host.equals(host)) {
+            forget(id);
+            peer = new Peer(mNextToken.incrementAndGet(), host, port);
+            mPeersByToken.put(peer.token, peer);
+            mPeers.put(id, peer);
+        }
+        long seq = mNextSeq.incrementAndGet();
+        synchronized (peer) {
+            if (peer.pendingSince == Long.MIN_VALUE) {
+                peer.pendingSince = System.nanoTime();
+                peer.pendingSeq = seq;
+            }
+        }
+        send(PING, peer.token, seq, peer.address);
+        mPingsSent.incrementAndGet();
+    }
+
+    /**
+     * @return System.nanoTime of the last PONG from the node, Long.MIN_VALUE if none
+     */
+    public long lastPong(String id) {
+        Peer peer = mPeers.get(id);
+        return peer == null ? Long.MIN_VALUE : peer.lastPong;
+    }
+
+    /**
+     * @return true if the node left a PING unanswered for longer than the timeout
+     */
+    public boolean overdue(String id, long now) {
+        Peer peer = mPeers.get(id);
+        if (peer == null) {
+            return false;
+        }
+        synchronized (peer) {
+            return peer.pendingSince != Long.MIN_VALUE && now - peer.pendingSince > TIMEOUT_NANOS;
+        }
+    }
+
+    /**
+     * The node answered the RMI confirmation, go back to pinging it
+     */
+    public void confirmed(String id) {
+        Peer peer = mPeers.get(id);
+        if (peer != null) {
+            synchronized (peer) {
+                peer.pendingSince = Long.MIN_VALUE;
+            }
+        }
+    }
+
+    public void forget(String id) {
+        Peer peer = mPeers.remove(id);
+        if (peer != null) {
+            mPeersByToken.remove(peer.token);
+        }
+    }
+
+    /**
+     * Forget the nodes that are not in ids
+     */
+    public void retain(Set<String> ids) {
+        if (mPeers.size() > ids.size()) {
+            mPeers.keySet().stream().filter(id -> !ids.contains(id)).forEach(this::forget);
+        }
+    }
+
+    public Map<String, Long> getStats() {
+        return Map.of("udpPingsSent", mPingsSent.get(), "udpPongsReceived", mPongsReceived.get(),
+                "udpPingsAnswered", mPingsAnswered.get());
+    }
+
+    public void close() {
+        mClosed = true;
+        try {
+            mSelector.close();
+            mChannel.close();
+        } catch (IOException e) {
+            // Pass
+        }
+    }
+
+    private void serve() {
+        ByteBuffer in = ByteBuffer.allocateDirect(PACKET);
+        ByteBuffer out = ByteBuffer.allocateDirect(PACKET);
+        while (!mClosed) {
+            try {
+                mSelector.select();
+                mSelector.selectedKeys().clear();
+                SocketAddress from;
+                while ((from = mChannel.receive(in.clear())) != null) {
+                    in.flip();
+                    if (in.remaining() != PACKET || in.getInt() != MAGIC) {
+                        continue;
+                    }
+                    byte type = in.get();
+                    in.position(in.position() + 3);
+                    int token = in.getInt();
+                    long seq = in.getLong();
+                    if (type == PING) {
+                        out.clear().putInt(MAGIC).put(PONG).put((byte) 0).put((byte) 0).put((byte) 0)
+                                .putInt(token).putLong(seq).flip();
+                        mChannel.send(out, from);
+                        mPingsAnswered.incrementAndGet();
+                    } else if (type == PONG) {
+                        onPong(token, seq);
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                if (!mClosed) {
+                    System.out.println("UDP heartbeat receive failed " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void onPong(int token, long seq) {
+        Peer peer = mPeersByToken.get(token);
+        if (peer == null) {
+            return;
+        }
+        mPongsReceived.incrementAndGet();
+        synchronized (peer) {
+            // A PONG to a PING sent before the node was last heard from proves nothing new
+            if (peer.pendingSince != Long.MIN_VALUE && seq >= peer.pendingSeq) {
+                peer.pendingSince = Long.MIN_VALUE;
+                peer.lastPong = System.nanoTime();
+            }
+        }
+    }
+
+    private void send(byte type, int token, long seq, InetSocketAddress to) {
+        synchronized (mSendBuffer) {
+            mSendBuffer.clear().putInt(MAGIC).put(type).put((byte) 0).put((byte) 0).put((byte) 0)
+                    .putInt(token).putLong(seq).flip();
+            try {
+                mChannel.send(mSendBuffer, to);
+            } catch (IOException e) {
+                // Unreachable for now, the PING counts as unanswered
+            }
+        }
+    }
+
+    private static class Peer {
+        final int token;
+        final String host;
+        final int port;
+        final InetSocketAddress address;
+        volatile long lastPong = Long.MIN_VALUE;
+        // First unanswered PING, guarded by the peer
+        long pendingSince = Long.MIN_VALUE;
+        long pendingSeq;
+
+        Peer(int token, String host, int port) {
+            this.token = token;
+            this.host = host;
+            this.port = port;
+            this.address = new InetSocketAddress(host, port);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Cost of the board by grid size, with the same players and treasures on every grid: time to place
+ * the players with placePlayers, heap held by the state, chunks allocated and the cost of a move.
+ * Memory and move cost should not depend on the grid size, only on the number of entities.
+ * <p>
+ * Usage: java WorldBenchmark [players] [treasures] [moves]
+ */
+public class WorldBenchmark {
+
+    public static void main(String[] args) {
+        int players = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int treasures = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int moves = args.length > 2 ? Integer.parseInt(args[2]) : 2000000;
+
+        System.out.printf("%d players, %d treasures, chunks of %dx%d cells%n", players, treasures,
+                ChunkedWorld.CHUNK, ChunkedWorld.CHUNK);
+        System.out.printf("%10s %12s %10s %10s %12s%n", "N", "place ms", "heap MB", "chunks", "ns/move");
+        // Warmup
+        run(1000, players, treasures, moves);
+        for (int n : new int[]{1000, 10000, 100000, 1000000}) {
+            run(n, players, treasures, moves);
+        }
+    }
+
+    private static void run(int n, int players, int treasures, int moves) {
+        long before = usedHeap();
+        Random random = new Random(1);
+        GameState state = new GameState(n, treasures);
+        state.spawnTreasures(treasures, random);
+        List<Player> joining = new ArrayList<>();
+        for (int i = 0; i < players; i++) {
+            joining.add(new Player("bot" + i));
+        }
+        long start = System.nanoTime();
+        state.placePlayers(joining, random);
+        long placeNanos = System.nanoTime() - start;
+        long heap = usedHeap() - before;
+
+        int[] handles = new int[players];
+        for (int i = 0; i < players; i++) {
+            handles[i] = state.handleOf(joining.get(i).playerID);
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < moves; i++) {
+            state.applyMove(handles[random.nextInt(players)], 1 + random.nextInt(4), random);
+        }
+        long moveNanos = System.nanoTime() - start;
+        System.out.printf("%10d %12.1f %10.1f %10d %12.1f%n", n, placeNanos / 1e6, heap / 1048576.0,
+                state.worldChunks(), (double) moveNanos / moves);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}